@@ -0,0 +1,422 @@
+/*
+ * BatchRunner.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Headless Monte Carlo runs of a CoverageExperiment.
+ *
+ * The mains of the experiment classes run one random trial and open a viewer.
+ * To estimate things like the probability of a coverage hole as a function of
+ * density and inventory size we need thousands of trials.  BatchRunner runs N
+ * independent trials on a thread pool, counts the persistence intervals of each
+ * one with CoverageExperiment.intervalCounts(), and aggregates them.
+ *
+ * Each trial gets its own seed, computed from the base seed and the trial number,
+ * so a batch gives the same results no matter how many threads it runs on or in
+ * what order the trials finish.  The experiments must take all their randomness
+ * from the seed they are given (see the seeded constructors of CoverageGrid and
+ * FencedCoverageSquare).
+ *
+ * m4ri is not thread safe: its memory manager and random number generator are
+ * global.  So building an experiment, which is where the m4ri work is, happens
+ * one trial at a time under a lock, and so does destroying it.  The persistence
+ * computation is pure Java and runs in parallel, and that is usually most of the
+ * time of a trial.  Each experiment numbers its own points (see PointStore), so
+ * trials built on different threads don't interfere.  For the same reason the
+ * factory, not the runner, decides whether an experiment prints its progress.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class BatchRunner {
+
+	// held while doing anything with m4ri
+	static final Object m4riLock = new Object();
+
+	static final String CSV_HEADER = "trial,seed,numPoints,finite0,infinite0,finite1,infinite1,millis";
+
+	final TrialFactory factory;
+	final int numThreads;
+	final long baseSeed;
+
+	final ArrayList<TrialResult> results = new ArrayList<TrialResult>();
+
+
+	/*
+	 * Builds the experiment for one trial
+	 */
+	public interface TrialFactory {
+		/**
+		 * Build an experiment, with all its complexes, using only the given seed
+		 * for randomness.  Batch runs will usually want to build it with verbose
+		 * turned off.
+		 *
+		 * @param trial
+		 * @param seed
+		 * @return
+		 */
+		CoverageExperiment create(int trial, long seed);
+	}
+
+
+	/*
+	 * The outcome of one trial
+	 */
+	static class TrialResult {
+		final int trial;
+		final long seed;
+		final int numPoints;
+
+		// number of finite and infinite intervals in dimensions 0 and 1
+		final int[] finite;
+		final int[] infinite;
+
+		final long nanos;
+
+		TrialResult(int trial, long seed, int numPoints, int[][] counts, long nanos) {
+			this.trial = trial;
+			this.seed = seed;
+			this.numPoints = numPoints;
+			this.finite = counts[0];
+			this.infinite = counts[1];
+			this.nanos = nanos;
+		}
+
+		// finite 1-dimensional intervals are holes in the coverage that are
+		// not holes in the Rips complex
+		int coverageHoles() {
+			return finite[1];
+		}
+
+		// the columns of CSV_HEADER
+		String toCSV() {
+			return trial+","+seed+","+numPoints+","+finite[0]+","+infinite[0]+","+finite[1]+","+infinite[1]+","+(nanos/1.0e6);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param factory
+	 * @param numThreads
+	 * @param baseSeed
+	 */
+	public BatchRunner(TrialFactory factory, int numThreads, long baseSeed) {
+		this.factory = factory;
+		this.numThreads = Math.max(1, numThreads);
+		this.baseSeed = baseSeed;
+	}
+
+
+	/**
+	 * The seed for a trial.
+	 * Consecutive trials get unrelated seeds, by running baseSeed+trial through
+	 * the SplitMix64 finalizer.
+	 *
+	 * @param baseSeed
+	 * @param trial
+	 * @return
+	 */
+	static long trialSeed(long baseSeed, int trial) {
+		long z = baseSeed + (trial+1)*0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+
+	/**
+	 * Run one trial.
+	 *
+	 * @param trial
+	 * @return
+	 */
+	TrialResult runTrial(int trial) {
+		return runTrial(factory, trial, trialSeed(baseSeed, trial));
+	}
+
+
+	/**
+	 * Build one experiment with the given seed, count its intervals and destroy it.
+	 * Safe to call from several threads at once.
+	 *
+	 * @param factory
+	 * @param trial
+	 * @param seed
+	 * @return
+	 */
+	static TrialResult runTrial(TrialFactory factory, int trial, long seed) {
+		return runTrial(factory, trial, seed, null, null);
+	}
+
+
+	/**
+	 * Same as runTrial(factory, trial, seed), but look in the cache first, and
+	 * store the result there if it had to be computed.  A result from the cache
+	 * reports the time it originally took.
+	 *
+	 * @param factory
+	 * @param trial
+	 * @param seed
+	 * @param cache - may be null
+	 * @param key - TrialCache.key() of the trial
+	 * @return
+	 */
+	static TrialResult runTrial(TrialFactory factory, int trial, long seed, TrialCache cache, byte[] key) {
+		if (cache != null) {
+			TrialCache.Entry c = cache.get(key);
+			if (c != null) {
+				return new TrialResult(trial, seed, c.numPoints, CoverageExperiment.intervalCounts(c.barcodes), c.nanos);
+			}
+		}
+
+		long start = System.nanoTime();
+		CoverageExperiment e = null;
+		synchronized (m4riLock) {
+			e = factory.create(trial, seed);
+		}
+		double[][] bars = e.barcodes();
+		int[] stream = (cache != null) ? e.encodeCoverageStream() : null;
+		int numPoints = e.points.size();
+		synchronized (m4riLock) {
+			e.destroy();
+		}
+		long nanos = System.nanoTime() - start;
+
+		if (cache != null) {
+			cache.put(key, new TrialCache.Entry(numPoints, nanos, bars, stream));
+		}
+		return new TrialResult(trial, seed, numPoints, CoverageExperiment.intervalCounts(bars), nanos);
+	}
+
+
+	/**
+	 * Run trials 0 to numTrials-1 and keep the results, in trial order.
+	 *
+	 * @param numTrials
+	 * @return
+	 */
+	public List<TrialResult> run(int numTrials) {
+		results.clear();
+		if (numThreads == 1) {
+			for (int t=0; t<numTrials; t++) {
+				results.add(runTrial(t));
+			}
+			return results;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			ArrayList<Callable<TrialResult>> tasks = new ArrayList<Callable<TrialResult>>(numTrials);
+			for (int t=0; t<numTrials; t++) {
+				final int trial = t;
+				tasks.add(new Callable<TrialResult>() {
+					public TrialResult call() {
+						return runTrial(trial);
+					}
+				});
+			}
+			for (Future<TrialResult> f : pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			System.out.println("ERROR: BatchRunner.run() interrupted");
+		} catch (ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+
+	/**
+	 * Mean and standard deviation of the finite (or infinite) interval counts in
+	 * dimension d.
+	 *
+	 * @param d
+	 * @param finite
+	 * @return { mean, standard deviation }
+	 */
+	public double[] intervalStats(int d, boolean finite) {
+		double sum = 0.0, sum2 = 0.0;
+		for (TrialResult r : results) {
+			int c = finite ? r.finite[d] : r.infinite[d];
+			sum += c;
+			sum2 += (double)c*c;
+		}
+		int n = results.size();
+		if (n == 0) {
+			return new double[]{ 0.0, 0.0 };
+		}
+		double mean = sum/n;
+		double var = (n > 1) ? (sum2 - n*mean*mean)/(n-1) : 0.0;
+		return new double[]{ mean, Math.sqrt(Math.max(0.0, var)) };
+	}
+
+
+	/**
+	 * Fraction of trials with at least one coverage hole.
+	 *
+	 * @return
+	 */
+	public double holeProbability() {
+		if (results.isEmpty()) {
+			return 0.0;
+		}
+		int n = 0;
+		for (TrialResult r : results) {
+			if (r.coverageHoles() > 0) { n++; }
+		}
+		return n/(double)results.size();
+	}
+
+
+	/**
+	 * A short summary of the batch
+	 *
+	 * @return
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("trials: ").append(results.size()).append('\n');
+		sb.append("P(coverage hole): ").append(holeProbability()).append('\n');
+		for (int d=0; d<2; d++) {
+			double[] f = intervalStats(d, true);
+			double[] i = intervalStats(d, false);
+			sb.append("dim ").append(d).append(": finite intervals mean=").append(f[0]).append(" sd=").append(f[1]);
+			sb.append("  infinite intervals mean=").append(i[0]).append(" sd=").append(i[1]).append('\n');
+		}
+		long total = 0;
+		for (TrialResult r : results) {
+			total += r.nanos;
+		}
+		if (! results.isEmpty()) {
+			sb.append("mean ms/trial: ").append(total/1.0e6/results.size()).append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * One line per trial
+	 *
+	 * @return
+	 */
+	public String toCSV() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(CSV_HEADER).append('\n');
+		for (TrialResult r : results) {
+			sb.append(r.toCSV()).append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * A factory for one of the experiment classes with random layouts, taking the
+	 * same arguments as that class's main().
+	 * Only CoverageGrid and FencedCoverageSquare are supported.  They are the only
+	 * experiments with a seeded constructor, which a batch needs to be reproducible,
+	 * and the argument strings have to be parsed into their constructor parameters.
+	 * Anything else needs its own TrialFactory.
+	 *
+	 * @param name
+	 * @param args
+	 * @param verbose - whether the experiments print their progress
+	 * @return null if the experiment isn't supported
+	 */
+	static TrialFactory factoryFor(String name, final String[] args, final boolean verbose) {
+		if (name.equals("CoverageGrid") && args.length == 6) {
+			return new TrialFactory() {
+				public CoverageExperiment create(int trial, long seed) {
+					return new CoverageGrid(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Double.parseDouble(args[2]),
+							Double.parseDouble(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]), seed, verbose);
+				}
+			};
+		}
+		if (name.equals("FencedCoverageSquare") && args.length == 6) {
+			return new TrialFactory() {
+				public CoverageExperiment create(int trial, long seed) {
+					return new FencedCoverageSquare(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Double.parseDouble(args[2]),
+							Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]), seed, verbose);
+				}
+			};
+		}
+		return null;
+	}
+
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.out.println("usage: BatchRunner <CoverageGrid|FencedCoverageSquare> <numTrials> <numThreads> <seed> [csv file] -- <experiment args>");
+			System.out.println("       only these two experiments have seeded constructors; anything else needs its own TrialFactory\n");
+			System.exit(0);
+		}
+		String name = args[0];
+		int numTrials = Integer.parseInt(args[1]);
+		int numThreads = Integer.parseInt(args[2]);
+		long seed = Long.parseLong(args[3]);
+
+		int sep = Arrays.asList(args).indexOf("--");
+		if (sep < 0) {
+			System.out.println("ERROR: BatchRunner - missing -- before the experiment arguments");
+			System.exit(0);
+		}
+		String csvFile = (sep > 4) ? args[4] : null;
+		String[] expArgs = Arrays.copyOfRange(args, sep+1, args.length);
+
+		TrialFactory factory = factoryFor(name, expArgs, false);
+		if (factory == null) {
+			System.out.println("ERROR: BatchRunner - can't run "+name+" with arguments "+Arrays.toString(expArgs));
+			System.exit(0);
+		}
+
+		BatchRunner runner = new BatchRunner(factory, numThreads, seed);
+		long start = System.nanoTime();
+		runner.run(numTrials);
+		System.out.print(runner.summary());
+		System.out.println("wall time: "+(System.nanoTime()-start)/1.0e9+" s");
+
+		if (csvFile != null) {
+			Writer w = new BufferedWriter(new FileWriter(csvFile));
+			try {
+				w.write(runner.toCSV());
+			} finally {
+				w.close();
+			}
+		}
+	}
+
+}
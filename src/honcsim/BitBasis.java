@@ -0,0 +1,439 @@
+/*
+ * BitBasis.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * A basis for a subspace of GF(2)^D kept entirely on the Java side.
+ *
+ * Vectors are packed 64 columns to a long, column c in bit (c%64) of word c/64.
+ * The basis is stored indexed by pivot, where the pivot of a vector is its
+ * lowest set column.  That is enough to do rank and span computations
+ * without ever fully reducing the basis.
+ *
+ * The point of this class is that it does no m4ri allocations.  The m4ri memory
+ * manager is not thread safe, so anything that wants to do linear algebra from
+ * several threads at once has to do it here.
+ *
+ * It doesn't do many Java allocations either.  Vectors are reduced in a work
+ * array, and the row for pivot c is always stored in the same array, which
+ * clear() keeps for the next use.  A basis that is cleared and refilled in a
+ * loop stops allocating once every pivot has been used.  Rows that have been
+ * handed out by copy() or rows() are never overwritten; clear() starts a new
+ * set of rows instead.
+ */
+
+import java.util.*;
+
+import m4rjni.Mzd;
+
+
+public class BitBasis {
+
+	// dimension of the ambient vector space
+	final int vsDimension;
+
+	// number of longs needed to hold one vector
+	final int words;
+
+	// basis vectors, indexed by their pivot column
+	final long[][] byPivot;
+
+	int rank = 0;
+
+	// pool[c] is the storage for the basis vector with pivot c, allocated the
+	// first time it is needed.  byPivot[c] is null, pool[c], or a row shared
+	// with the basis this one was copied from.
+	private long[][] pool;
+
+	// some rows of pool have been given out, so clear() can't re-use them
+	private boolean shared = false;
+
+	// work space for reducing vectors
+	private long[] scratch = null;
+
+
+	/**
+	 * Constructor
+	 * Creates the zero subspace of GF(2)^D
+	 *
+	 * @param vsDimension
+	 */
+	public BitBasis(int vsDimension) {
+		this.vsDimension = vsDimension;
+		this.words = numWords(vsDimension);
+		this.byPivot = new long[vsDimension][];
+		this.pool = new long[vsDimension][];
+	}
+
+
+	/**
+	 * Number of longs needed to hold a vector of dimension dim
+	 *
+	 * @param dim
+	 * @return
+	 */
+	static int numWords(int dim) {
+		return (dim + 63) >>> 6;
+	}
+
+
+	/**
+	 * Index of the lowest set column of v, or -1 if v is zero.
+	 *
+	 * @param v
+	 * @return
+	 */
+	static int pivot(long[] v) {
+		for (int w=0; w<v.length; w++) {
+			if (v[w] != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros(v[w]);
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Add a vector to the span.
+	 * The vector is copied, so the caller is free to re-use the array.
+	 *
+	 * @param v
+	 * @return true if the rank increased
+	 */
+	public boolean add(long[] v) {
+		if (rank == vsDimension) { return false; }
+		long[] r = load(v, 0, Math.min(v.length, words));
+		return insert(r, reduce(r));
+	}
+
+
+	/**
+	 * Add the vector stored in src[from .. from+words), like the packed
+	 * inventories in a PointStore.
+	 *
+	 * @param src
+	 * @param from
+	 * @return true if the rank increased
+	 */
+	public boolean add(long[] src, int from) {
+		if (rank == vsDimension) { return false; }
+		long[] r = load(src, from, words);
+		return insert(r, reduce(r));
+	}
+
+
+	/**
+	 * Is v in the span?
+	 * Unlike add() this never allocates, so it is the way to test a lot of
+	 * vectors against a span without changing it.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public boolean inSpan(long[] v) {
+		if (rank == vsDimension) { return true; }
+		return reduce(load(v, 0, Math.min(v.length, words))) < 0;
+	}
+
+
+	/**
+	 * Copy n words of src into the work array, padding with zeros.
+	 *
+	 * @param src
+	 * @param from
+	 * @param n
+	 * @return the work array
+	 */
+	private long[] load(long[] src, int from, int n) {
+		if (scratch == null) {
+			scratch = new long[words];
+		}
+		System.arraycopy(src, from, scratch, 0, n);
+		if (n < words) {
+			Arrays.fill(scratch, n, words, 0L);
+		}
+		return scratch;
+	}
+
+
+	/**
+	 * Reduce r against the basis, in place.
+	 *
+	 * @param r
+	 * @return the pivot of what is left, or -1 if r was in the span
+	 */
+	private int reduce(long[] r) {
+		int pv = pivot(r);
+		while (pv >= 0) {
+			long[] b = byPivot[pv];
+			if (b == null) {
+				return pv;
+			}
+			for (int w=(pv >>> 6); w<words; w++) {
+				r[w] ^= b[w];
+			}
+			pv = pivot(r);
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Store a reduced vector as the basis vector for pivot pv.
+	 *
+	 * @param r
+	 * @param pv - from reduce()
+	 * @return true if r was stored
+	 */
+	private boolean insert(long[] r, int pv) {
+		if (pv < 0) {
+			return false;
+		}
+		long[] b = pool[pv];
+		if (b == null) {
+			b = new long[words];
+			pool[pv] = b;
+		}
+		System.arraycopy(r, 0, b, 0, words);
+		byPivot[pv] = b;
+		rank++;
+		return true;
+	}
+
+
+	/**
+	 * Go back to the zero subspace, so the object can be used again.
+	 * The storage for the rows is kept, unless some of them have been given out.
+	 */
+	public void clear() {
+		Arrays.fill(byPivot, null);
+		rank = 0;
+		if (shared) {
+			pool = new long[vsDimension][];
+			shared = false;
+		}
+	}
+
+
+	/**
+	 * Add all the vectors of another basis to this span.
+	 *
+	 * @param B
+	 */
+	public void addAll(BitBasis B) {
+		for (long[] v : B.byPivot) {
+			if (v != null) {
+				add(v);
+			}
+		}
+	}
+
+
+	/**
+	 * The basis vectors in order of increasing pivot.
+	 *
+	 * @return
+	 */
+	public long[][] rows() {
+		shared = true;
+		long[][] rr = new long[rank][];
+		int i = 0;
+		for (long[] v : byPivot) {
+			if (v != null) {
+				rr[i++] = v;
+			}
+		}
+		return rr;
+	}
+
+
+	/**
+	 * Compute the intersection of this span with another one.
+	 *
+	 * This is the Zassenhaus algorithm.  Reduce the rows [u u] for u in this basis
+	 * and [w 0] for w in B.  The reduced rows whose left half is zero have the
+	 * basis of the intersection in their right half.  We put the right half on
+	 * a word boundary so moving vectors around is just array copies.
+	 *
+	 * @param B
+	 * @return
+	 */
+	public BitBasis intersect(BitBasis B) {
+		if (B.vsDimension != vsDimension) {
+			throw new IllegalArgumentException("ERROR: BitBasis.intersect() called with bases of different dimension.");
+		}
+
+		// the easy cases
+		if (rank == 0 || B.rank == 0) {
+			return new BitBasis(vsDimension);
+		}
+		if (rank == vsDimension) {
+			return B.copy();
+		}
+		if (B.rank == vsDimension) {
+			return this.copy();
+		}
+
+		BitBasis Z = new BitBasis(2*words*64);
+		long[] z = new long[2*words];
+		for (long[] u : byPivot) {
+			if (u != null) {
+				System.arraycopy(u, 0, z, 0, words);
+				System.arraycopy(u, 0, z, words, words);
+				Z.add(z);
+			}
+		}
+		Arrays.fill(z, words, 2*words, 0L);
+		for (long[] w : B.byPivot) {
+			if (w != null) {
+				System.arraycopy(w, 0, z, 0, words);
+				Z.add(z);
+			}
+		}
+
+		BitBasis I = new BitBasis(vsDimension);
+		for (int c=words*64; c<Z.byPivot.length; c++) {
+			if (Z.byPivot[c] != null) {
+				I.add(Z.byPivot[c], words);
+			}
+		}
+		return I;
+	}
+
+
+	/**
+	 * Make a copy of this basis.
+	 * The vectors are never modified while they are in a basis, so they can be shared.
+	 *
+	 * @return
+	 */
+	public BitBasis copy() {
+		shared = true;
+		BitBasis B = new BitBasis(vsDimension);
+		System.arraycopy(byPivot, 0, B.byPivot, 0, vsDimension);
+		B.rank = rank;
+		return B;
+	}
+
+
+	/**
+	 * Pack the first nrows rows of an m4ri matrix.
+	 * Reading bits is safe to do from several threads, since it doesn't allocate.
+	 *
+	 * @param M
+	 * @param nrows
+	 * @return
+	 */
+	static long[][] pack(Mzd M, int nrows) {
+		int ncols = M.getNcols();
+		int nw = numWords(ncols);
+		long[][] rr = new long[nrows][];
+		for (int i=0; i<nrows; i++) {
+			long[] v = new long[nw];
+			for (int c=0; c<ncols; c++) {
+				if (M.readBit(i, c) != 0) {
+					v[c >>> 6] |= (1L << c);
+				}
+			}
+			rr[i] = v;
+		}
+		return rr;
+	}
+
+
+	/**
+	 * Build the basis for the span of the rows of an m4ri matrix.
+	 *
+	 * @param M
+	 * @return
+	 */
+	public static BitBasis fromMzd(Mzd M) {
+		BitBasis B = new BitBasis(M.getNcols());
+		for (long[] v : pack(M, M.getNrows())) {
+			B.add(v);
+		}
+		return B;
+	}
+
+
+	/**
+	 * Convert to an m4ri matrix with one row per basis vector, in echelon form.
+	 * This allocates, so don't call it from more than one thread at a time.
+	 *
+	 * @return
+	 */
+	public Mzd toMzd() {
+		return toMzd(rows(), vsDimension);
+	}
+
+
+	/**
+	 * Convert a list of packed vectors to an m4ri matrix with one row per vector.
+	 * This allocates, so don't call it from more than one thread at a time.
+	 *
+	 * @param rr
+	 * @param vsDimension
+	 * @return
+	 */
+	static Mzd toMzd(long[][] rr, int vsDimension) {
+		Mzd M = new Mzd(rr.length, vsDimension);
+		write(rr, M);
+		return M;
+	}
+
+
+	/**
+	 * Set the bits of packed vectors in the first rows of an m4ri matrix.
+	 * Only sets bits, so the rows have to start out zero.
+	 *
+	 * @param rr
+	 * @param M
+	 */
+	static void write(long[][] rr, Mzd M) {
+		int ncols = M.getNcols();
+		for (int i=0; i<rr.length; i++) {
+			long[] v = rr[i];
+			for (int c=0; c<ncols; c++) {
+				if ((v[c >>> 6] & (1L << c)) != 0) {
+					M.writeBit(i, c, 1);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Span of the inventories of a set of points.
+	 *
+	 * @param pts
+	 * @param vsDimension
+	 * @return
+	 */
+	public static BitBasis span(Collection<DPoint> pts, int vsDimension) {
+		BitBasis B = new BitBasis(vsDimension);
+		for (DPoint p : pts) {
+			for (long[] v : p.packedBasis()) {
+				if (! B.add(v) && B.rank == vsDimension) {
+					return B;
+				}
+			}
+		}
+		return B;
+	}
+
+}
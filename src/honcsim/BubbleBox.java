@@ -45,7 +45,7 @@ public class BubbleBox extends CoverageExperiment {
 		super(vsDimension, 1.0);
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(8);
+		points = new PointStore(8);
 		
 		// add the points on the inner square
 		double s2 = 1.0/Math.sqrt(2.0)/2.0;
@@ -42,7 +42,7 @@ public class BubbleBoxDrainage extends DrainageExperiment {
 		super(dim, 1.0);
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(8);
+		points = new PointStore(8);
 		
 		// add the points on the outer square
 		double s2 = 1.0/Math.sqrt(2.0)/2.0;
@@ -117,13 +117,16 @@ public class BubbleBoxDrainage extends DrainageExperiment {
 	 */
 	public static void main(String[] args) {
 
-		if (args.length != 1) {
-			System.out.println("usage: FivePointRingDrainage <vsDimension>");
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("usage: BubbleBoxDrainage <vsDimension> [drainThreads]");
 			System.exit(0);
 		}
 		
 		int dim = Integer.parseInt(args[0]);
 		
+		// with a thread count, drain with the quotient engine on a DrainageScheduler
+		int drainThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+		
 		BubbleBoxDrainage bb = new BubbleBoxDrainage(dim);
 		bb.buildRipsComplex();
 		System.out.println("Size of DComplex: "+bb.maximalSimplices.simplices.size());
@@ -140,22 +143,13 @@ public class BubbleBoxDrainage extends DrainageExperiment {
 		//bb.drawComplex();
 		
 		
-		if (false) {
-			int numDrained = 1;
-			int passnum = 0;
-			Vector<Integer> inventorySizes = new Vector<Integer>();
-			while (numDrained > 0) {
-				System.out.println("\n*************** Pass # "+passnum+" **************");
-				inventorySizes.add(bb.totalInventorySize());
-				numDrained = 0;
-				for (DPoint p : bb.points) {
-					numDrained += bb.drainVertex(p, Math.max(2,BubbleBoxDrainage.vsDimension/10), true);
-				}
-				System.out.println("\n**** pass #"+passnum+": drained "+numDrained+" vectors total\n\n");
-				passnum++;
-			}
+		if (drainThreads > 0) {
+			DrainageScheduler scheduler = new DrainageScheduler(bb, drainThreads);
+			DrainageRun run = scheduler.runDrainage(Math.max(2,BubbleBoxDrainage.vsDimension/10), true, true);
+			scheduler.shutdown();
+			System.out.println(run.toCSV());
 			System.out.println("Total inventory change:");
-			for (Integer x : inventorySizes) {
+			for (Integer x : run.totalSizes) {
 				System.out.println(x);
 			}
 		}		
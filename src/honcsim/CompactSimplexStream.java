@@ -0,0 +1,644 @@
+/*
+ * CompactSimplexStream.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * A filtered simplicial complex stored in primitive arrays, for javaplex.
+ *
+ * ExplicitSimplexStream turns every simplex into a Simplex object and keeps it
+ * in hash tables, which costs over a hundred bytes per simplex, and its
+ * ensureAllFaces() makes more Simplex objects for every face.  Here the simplices
+ * of each dimension are packed into one int array, d+1 vertices each, with a
+ * byte array for the filtration indices.  finalizeStream() sorts each dimension
+ * lexicographically, so lookups are binary searches, and Simplex objects are only
+ * made while javaplex iterates over the stream.
+ *
+ * The stream implements AbstractFilteredStream<Simplex>, so it can be handed to
+ * the javaplex persistence algorithms and to plex-viewer like any other stream.
+ * It has the parts of the ExplicitSimplexStream interface that the complex
+ * builders use.
+ *
+ * finalizeStream() checks that every face of every simplex is in the stream,
+ * and lowers the filtration index of a face to that of its cofaces if needed,
+ * the same as ensureAllFaces() does for the faces it adds.  A builder that
+ * doesn't produce a closed complex has to call ensureAllFaces().
+ * Filtration indices are between 0 and 127.
+ */
+
+import java.util.*;
+
+import edu.stanford.math.plex4.homology.chain_basis.*;
+import edu.stanford.math.plex4.streams.interfaces.*;
+
+
+public class CompactSimplexStream implements AbstractFilteredStream<Simplex> {
+
+	// the simplices of each dimension
+	final ArrayList<Level> levels = new ArrayList<Level>();
+
+	boolean finalized = false;
+	boolean addFaces = false;
+
+	int minFiltration = 0;
+	int maxFiltration = 0;
+
+
+	/*
+	 * All the simplices of one dimension
+	 */
+	static class Level {
+		// number of vertices of each simplex
+		final int k;
+		int[] vertices = new int[0];
+		byte[] filtration = new byte[0];
+		int size = 0;
+
+		// nothing has been added since the last sort()
+		boolean sorted = true;
+
+		Level(int k) {
+			this.k = k;
+		}
+
+		void add(int[] v, int from, int f) {
+			if (size == filtration.length) {
+				int cap = Math.max(16, 2*size);
+				vertices = Arrays.copyOf(vertices, cap*k);
+				filtration = Arrays.copyOf(filtration, cap);
+			}
+			System.arraycopy(v, from, vertices, size*k, k);
+			filtration[size] = (byte)f;
+			size++;
+			sorted = false;
+		}
+
+		// compare simplex i with the k vertices of v starting at from
+		int compare(int i, int[] v, int from) {
+			int base = i*k;
+			for (int j=0; j<k; j++) {
+				int a = vertices[base+j], b = v[from+j];
+				if (a != b) {
+					return (a < b) ? -1 : 1;
+				}
+			}
+			return 0;
+		}
+
+		int compare(int i, int j) {
+			return compare(i, vertices, j*k);
+		}
+
+		// position of the simplex with the k vertices of v, or -1
+		int find(int[] v, int from) {
+			int lo = 0, hi = size-1;
+			while (lo <= hi) {
+				int mid = (lo+hi) >>> 1;
+				int c = compare(mid, v, from);
+				if (c < 0) {
+					lo = mid+1;
+				} else if (c > 0) {
+					hi = mid-1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		// sort lexicographically, and merge duplicates, keeping the lowest filtration
+		void sort() {
+			if (sorted) {
+				return;
+			}
+			sorted = true;
+			if (size == 0) {
+				return;
+			}
+			int[] perm = radixOrder();
+			int[] sv = new int[size*k];
+			byte[] sf = new byte[size];
+			int n = 0;
+			for (int i=0; i<size; i++) {
+				int src = perm[i];
+				if (i > 0 && compare(perm[i-1], src) == 0) {
+					// the first copy has the lowest filtration
+					continue;
+				}
+				System.arraycopy(vertices, src*k, sv, n*k, k);
+				sf[n] = filtration[src];
+				n++;
+			}
+			size = n;
+			vertices = Arrays.copyOf(sv, size*k);
+			filtration = Arrays.copyOf(sf, size);
+		}
+
+		/*
+		 * The order of the simplices sorted by vertices and then filtration, by
+		 * a least-significant-digit radix sort on 16 bit digits.  Passes where all
+		 * the simplices have the same digit, like the high halves of small vertex
+		 * numbers, are skipped.
+		 */
+		private int[] radixOrder() {
+			int[] perm = new int[size];
+			int[] next = new int[size];
+			for (int i=0; i<size; i++) {
+				perm[i] = i;
+			}
+			int[] count = new int[1 << 16];
+
+			// the filtration is the least significant key
+			for (int i=0; i<size; i++) {
+				count[filtration[i]]++;
+			}
+			if (count[filtration[0]] != size) {
+				prefixSums(count);
+				for (int i=0; i<size; i++) {
+					next[count[filtration[i]]++] = i;
+				}
+				int[] t = perm; perm = next; next = t;
+			}
+
+			for (int c=k-1; c>=0; c--) {
+				for (int shift=0; shift<32; shift+=16) {
+					// flip the sign bit so negative numbers sort first
+					int flip = (shift == 16) ? 0x8000 : 0;
+					Arrays.fill(count, 0);
+					for (int i=0; i<size; i++) {
+						count[((vertices[i*k+c] >>> shift) & 0xffff) ^ flip]++;
+					}
+					if (count[((vertices[c] >>> shift) & 0xffff) ^ flip] == size) {
+						continue;
+					}
+					prefixSums(count);
+					for (int i=0; i<size; i++) {
+						int j = perm[i];
+						next[count[((vertices[j*k+c] >>> shift) & 0xffff) ^ flip]++] = j;
+					}
+					int[] t = perm; perm = next; next = t;
+				}
+			}
+			return perm;
+		}
+
+		// turn counts into starting positions
+		private static void prefixSums(int[] count) {
+			int sum = 0;
+			for (int i=0; i<count.length; i++) {
+				int c = count[i];
+				count[i] = sum;
+				sum += c;
+			}
+		}
+	}
+
+
+	private Level level(int dim) {
+		while (levels.size() <= dim) {
+			levels.add(new Level(levels.size()+1));
+		}
+		return levels.get(dim);
+	}
+
+
+	/**
+	 * Add a vertex
+	 *
+	 * @param v
+	 * @param filtrationIndex
+	 */
+	public void addVertex(int v, int filtrationIndex) {
+		addElement(new int[]{ v }, filtrationIndex);
+	}
+
+
+	/**
+	 * Add a simplex.  The vertices don't have to be in order.
+	 *
+	 * @param vertices
+	 * @param filtrationIndex
+	 */
+	public void addElement(int[] vertices, int filtrationIndex) {
+		if (finalized) {
+			throw new IllegalStateException("CompactSimplexStream: can't add to a finalized stream");
+		}
+		if (filtrationIndex < 0 || filtrationIndex > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("CompactSimplexStream: filtration index out of range: "+filtrationIndex);
+		}
+		int[] v = vertices;
+		for (int i=1; i<v.length; i++) {
+			if (v[i] <= v[i-1]) {
+				v = vertices.clone();
+				Arrays.sort(v);
+				break;
+			}
+		}
+		level(v.length-1).add(v, 0, filtrationIndex);
+	}
+
+
+	/**
+	 * Add a simplex.
+	 *
+	 * @param s
+	 * @param filtrationIndex
+	 */
+	public void addElement(Simplex s, int filtrationIndex) {
+		addElement(s.getVertices(), filtrationIndex);
+	}
+
+
+	/**
+	 * Have finalizeStream() add any missing faces, with the filtration index of
+	 * the coface.
+	 */
+	public void ensureAllFaces() {
+		addFaces = true;
+	}
+
+
+	/**
+	 * Sort the simplices, add missing faces if ensureAllFaces() was called, and
+	 * fix up the filtration.  Nothing can be added after this.
+	 * Throws IllegalStateException if a face is missing.
+	 */
+	public void finalizeStream() {
+		if (finalized) {
+			return;
+		}
+
+		if (addFaces) {
+			// from the top down, so faces of added faces get added too.
+			// Each level is merged before its faces are made, otherwise every
+			// duplicate adds its faces again, and theirs, and so on down.
+			int[] face = new int[levels.size()];
+			for (int d=levels.size()-1; d>0; d--) {
+				Level L = levels.get(d);
+				L.sort();
+				Level F = level(d-1);
+				for (int i=0; i<L.size; i++) {
+					int base = i*L.k;
+					for (int skip=0; skip<L.k; skip++) {
+						int n = 0;
+						for (int t=0; t<L.k; t++) {
+							if (t != skip) {
+								face[n++] = L.vertices[base+t];
+							}
+						}
+						F.add(face, 0, L.filtration[i]);
+					}
+				}
+			}
+		}
+		for (Level L : levels) {
+			L.sort();
+		}
+
+		// every face has to be there, and a face comes in no later than its cofaces
+		int[] face = new int[levels.size()];
+		for (int d=levels.size()-1; d>0; d--) {
+			Level L = levels.get(d);
+			Level F = levels.get(d-1);
+			for (int i=0; i<L.size; i++) {
+				int base = i*L.k;
+				for (int skip=0; skip<L.k; skip++) {
+					int n = 0;
+					for (int t=0; t<L.k; t++) {
+						if (t != skip) {
+							face[n++] = L.vertices[base+t];
+						}
+					}
+					int j = F.find(face, 0);
+					if (j < 0) {
+						throw new IllegalStateException("CompactSimplexStream: a face of "+Arrays.toString(Arrays.copyOfRange(L.vertices, base, base+L.k))+" is missing");
+					}
+					if (F.filtration[j] > L.filtration[i]) {
+						F.filtration[j] = L.filtration[i];
+					}
+				}
+			}
+		}
+		computeFiltrationRange();
+		finalized = true;
+	}
+
+
+	/**
+	 * Set minFiltration and maxFiltration from the simplices.
+	 */
+	private void computeFiltrationRange() {
+		minFiltration = Integer.MAX_VALUE;
+		maxFiltration = Integer.MIN_VALUE;
+		for (Level L : levels) {
+			for (int i=0; i<L.size; i++) {
+				minFiltration = Math.min(minFiltration, L.filtration[i]);
+				maxFiltration = Math.max(maxFiltration, L.filtration[i]);
+			}
+		}
+		if (minFiltration > maxFiltration) {
+			minFiltration = 0;
+			maxFiltration = 0;
+		}
+	}
+
+
+	public boolean isFinalized() {
+		return finalized;
+	}
+
+
+	/**
+	 * Whether the stream contains a simplex.  The stream has to be finalized.
+	 *
+	 * @param s
+	 * @return
+	 */
+	public boolean containsElement(Simplex s) {
+		return position(s.getVertices()) >= 0;
+	}
+
+
+	// position of a simplex in its level, or -1
+	private int position(int[] v) {
+		if (! finalized) {
+			throw new IllegalStateException("CompactSimplexStream: stream is not finalized");
+		}
+		if (v.length == 0 || v.length > levels.size()) {
+			return -1;
+		}
+		return levels.get(v.length-1).find(v, 0);
+	}
+
+
+	public int getFiltrationIndex(Simplex s) {
+		int[] v = s.getVertices();
+		int i = position(v);
+		if (i < 0) {
+			throw new IllegalArgumentException("CompactSimplexStream: "+s+" is not in the stream");
+		}
+		return levels.get(v.length-1).filtration[i];
+	}
+
+
+	public int getMinimumFiltrationIndex() {
+		return minFiltration;
+	}
+
+
+	public int getMaximumFiltrationIndex() {
+		return maxFiltration;
+	}
+
+
+	public Simplex[] getBoundary(Simplex s) {
+		return s.getBoundaryArray();
+	}
+
+
+	public int[] getBoundaryCoefficients(Simplex s) {
+		return s.getBoundaryCoefficients();
+	}
+
+
+	public Comparator<Simplex> getBasisComparator() {
+		return SimplexComparator.getInstance();
+	}
+
+
+	/**
+	 * Total number of simplices
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		int n = 0;
+		for (Level L : levels) {
+			n += L.size;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Number of simplices of one dimension
+	 *
+	 * @param dim
+	 * @return
+	 */
+	public int getSize(int dim) {
+		return (dim < levels.size()) ? levels.get(dim).size : 0;
+	}
+
+
+	/**
+	 * Number of dimensions with simplices in them, counting from 0.
+	 *
+	 * @return
+	 */
+	public int numDimensions() {
+		return levels.size();
+	}
+
+
+	/**
+	 * Where a dimension starts in the enumeration of the whole stream.
+	 * A finalized stream is enumerated one dimension after the other, and each
+	 * dimension in lexicographic order, so simplex i of dimension dim is at
+	 * offset(dim)+i.  These positions can index bitmaps over the stream.
+	 *
+	 * @param dim
+	 * @return
+	 */
+	public int offset(int dim) {
+		int n = 0;
+		for (int d=0; d<dim && d<levels.size(); d++) {
+			n += levels.get(d).size;
+		}
+		return n;
+	}
+
+
+	/**
+	 * The vertices of simplex i of dimension dim, in increasing order.
+	 * The stream has to be finalized.
+	 *
+	 * @param dim
+	 * @param i
+	 * @param v - array of length at least dim+1 to put them in
+	 * @return v
+	 */
+	public int[] getVertices(int dim, int i, int[] v) {
+		if (! finalized) {
+			throw new IllegalStateException("CompactSimplexStream: stream is not finalized");
+		}
+		Level L = levels.get(dim);
+		System.arraycopy(L.vertices, i*L.k, v, 0, L.k);
+		return v;
+	}
+
+
+	/**
+	 * Position of a simplex within its dimension, or -1 if it isn't in the stream.
+	 *
+	 * @param v - the vertices, in increasing order
+	 * @return
+	 */
+	public int indexOf(int[] v) {
+		return position(v);
+	}
+
+
+	/**
+	 * Mark the simplices of sub in a bitmap over the enumeration of this stream.
+	 * Both streams are sorted, so this is one merge pass over each dimension.
+	 * Throws IllegalArgumentException if sub has a simplex this stream doesn't.
+	 *
+	 * @param sub
+	 * @return
+	 */
+	public BitSet positionsOf(CompactSimplexStream sub) {
+		if (! finalized || ! sub.finalized) {
+			throw new IllegalStateException("CompactSimplexStream: stream is not finalized");
+		}
+		BitSet marked = new BitSet(getSize());
+		int base = 0;
+		for (int d=0; d<sub.levels.size(); d++) {
+			Level S = sub.levels.get(d);
+			if (S.size > 0 && d >= levels.size()) {
+				throw new IllegalArgumentException("CompactSimplexStream: sub-stream has a simplex of dimension "+d+" and this one doesn't");
+			}
+			if (S.size == 0) { continue; }
+			Level L = levels.get(d);
+			int i = 0;
+			for (int j=0; j<S.size; j++) {
+				while (i < L.size && L.compare(i, S.vertices, j*S.k) < 0) {
+					i++;
+				}
+				if (i == L.size || L.compare(i, S.vertices, j*S.k) != 0) {
+					throw new IllegalArgumentException("CompactSimplexStream: "+Arrays.toString(Arrays.copyOfRange(S.vertices, j*S.k, (j+1)*S.k))+" is not in this stream");
+				}
+				marked.set(base + i);
+			}
+			base += L.size;
+		}
+		return marked;
+	}
+
+
+	/**
+	 * A new finalized stream made from this one in a single pass, without sorting
+	 * or looking anything up.  It has the simplices whose bit is set in keep (all
+	 * of them if keep is null), with filtration index low if their bit in lowBits
+	 * is set, and high if not.  The bitmaps are indexed by position, see offset().
+	 *
+	 * Nothing is checked, so the caller has to make sure that the kept simplices
+	 * are closed under taking faces, and that lowBits contains every kept face of
+	 * a simplex in lowBits.
+	 *
+	 * @param keep
+	 * @param lowBits
+	 * @param low
+	 * @param high
+	 * @return
+	 */
+	public CompactSimplexStream select(BitSet keep, BitSet lowBits, int low, int high) {
+		if (! finalized) {
+			throw new IllegalStateException("CompactSimplexStream: stream is not finalized");
+		}
+		if (low < 0 || low > Byte.MAX_VALUE || high < 0 || high > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("CompactSimplexStream: filtration index out of range");
+		}
+		CompactSimplexStream result = new CompactSimplexStream();
+		int base = 0;
+		for (Level L : levels) {
+			int n = (keep == null) ? L.size : keep.get(base, base + L.size).cardinality();
+			Level R = result.level(L.k - 1);
+			R.vertices = new int[n*L.k];
+			R.filtration = new byte[n];
+			for (int i=0; i<L.size; i++) {
+				if (keep != null && ! keep.get(base + i)) { continue; }
+				System.arraycopy(L.vertices, i*L.k, R.vertices, R.size*L.k, L.k);
+				R.filtration[R.size] = (byte)(lowBits.get(base + i) ? low : high);
+				R.size++;
+			}
+			base += L.size;
+		}
+		// trailing empty dimensions would change numDimensions()
+		while (! result.levels.isEmpty() && result.levels.get(result.levels.size()-1).size == 0) {
+			result.levels.remove(result.levels.size()-1);
+		}
+		result.computeFiltrationRange();
+		result.finalized = true;
+		return result;
+	}
+
+
+	/**
+	 * The simplices in filtration order, and within a filtration index by
+	 * dimension, so every face comes before its cofaces.
+	 */
+	public Iterator<Simplex> iterator() {
+		if (! finalized) {
+			throw new IllegalStateException("CompactSimplexStream: stream is not finalized");
+		}
+		return new Iterator<Simplex>() {
+			int f = minFiltration;
+			int d = 0;
+			int i = -1;
+
+			{ advance(); }
+
+			// move to the next simplex with filtration index f
+			private void advance() {
+				while (f <= maxFiltration) {
+					while (d < levels.size()) {
+						Level L = levels.get(d);
+						for (i++; i<L.size; i++) {
+							if (L.filtration[i] == f) {
+								return;
+							}
+						}
+						d++;
+						i = -1;
+					}
+					f++;
+					d = 0;
+				}
+			}
+
+			public boolean hasNext() {
+				return f <= maxFiltration;
+			}
+
+			public Simplex next() {
+				if (! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Level L = levels.get(d);
+				Simplex s = new Simplex(Arrays.copyOfRange(L.vertices, i*L.k, (i+1)*L.k));
+				advance();
+				return s;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -52,35 +52,85 @@ public class CoverageExperiment {
     Mzd V = null;
     Mzd[] basis = null;
     
-    // data structure containing DPoints
-    Vector<DPoint> points = null;
+    // the points, numbered 0..n-1 (see PointStore)
+    PointStore points = null;
     
     // javaplex objects
-    ExplicitSimplexStream ripsComplexStream = null;
-    ExplicitSimplexStream coverageComplexStream = null;
+    CompactSimplexStream ripsComplexStream = null;
+    CompactSimplexStream coverageComplexStream = null;
     ExplicitSimplexStream cycleStream = null;           // the cycles only in coverage complex (finite intervals)
     ExplicitSimplexStream ripsCycleStream = null;       // the cycles also in Rips complex (infinite intervals)
-    ExplicitSimplexStream coverageRipsComplexStream = null;
+    CompactSimplexStream coverageRipsComplexStream = null;
 
     // plex-viewer information
     double[][] domainPoints = null;
 
+    // where the randomness comes from.  Each experiment has its own generator,
+    // split into independent streams for the layout and for the inventories, so
+    // changing the inventory size doesn't move the points.
+    long seed = 0;
+    SplittableRandom layoutRng = null;
+    SplittableRandom inventoryRng = null;
+
+    // print progress while building the complexes.  Batch runs build their
+    // experiments with this turned off (see the seeded constructors).
+    boolean verbose = true;
+
+    // renumber the points along a Hilbert curve before computing the neighbor sets
+    // (see PointStore.sortHilbert()).  Off by default, since some scenarios pick out
+    // particular points by index afterwards.  Turn it on with -Dhoncsim.hilbert=true
+    static boolean hilbertOrder = Boolean.getBoolean("honcsim.hilbert");
+
     /**
      * Constructor.
-     * Just the basics
+     * Just the basics.  The seed is picked at random and kept in the seed
+     * field, so the run can be repeated.
      * 
      * @param vsDim
      * @param r
      */
     public CoverageExperiment(int vsDim, double r) {
+        this(vsDim, r, new Random().nextLong());
+
+        // seed the m4ri random number generator, for subclasses that still
+        // use DPoint.addRandomInventoryVector() or Mzd.randomize()
+        Mzd.srandom((int)seed);
+    }
+
+
+    /**
+     * Constructor for reproducible experiments.
+     * Doesn't touch the m4ri random number generator, which is shared by
+     * everything, so subclasses should take all their randomness from
+     * layoutRng and inventoryRng.
+     * 
+     * @param vsDim
+     * @param r
+     * @param seed
+     */
+    public CoverageExperiment(int vsDim, double r, long seed) {
+        this(vsDim, r, seed, true);
+    }
+
+
+    /**
+     * Constructor for reproducible experiments, choosing whether the subclass
+     * prints its progress.
+     * 
+     * @param vsDim
+     * @param r
+     * @param seed
+     * @param verbose
+     */
+    public CoverageExperiment(int vsDim, double r, long seed, boolean verbose) {
+        this.verbose = verbose;
         this.vsDimension = vsDim;
         this.radius = r;
+        this.seed = seed;
+        SplittableRandom root = new SplittableRandom(seed);
+        this.layoutRng = root.split();
+        this.inventoryRng = root.split();
 
-        // seed the m4ri random number generator
-        Random generator = new Random();
-        Mzd.srandom(generator.nextInt());
-        //Mzd.srandom(1);
-        
         // construct the identity matrix for the full vector space V
         this.V = new Mzd(vsDimension, vsDimension);
         for (int i=0; i<vsDimension; i++) {
@@ -100,13 +150,61 @@ public class CoverageExperiment {
      */
     public void computeNeighborSet() {
         double r2 = this.radius*this.radius;
+        if (hilbertOrder) {
+            points.sortHilbert();
+        }
 
-        for (int i=0; i<points.size(); i++) {
-            DPoint p1 = points.get(i);
-            for (int j=(i+1); j<points.size(); j++) {
-                DPoint p2 = points.get(j);
-                double d2 = (p1.x-p2.x)*(p1.x-p2.x) + (p1.y-p2.y)*(p1.y-p2.y);
+        // compare the packed coordinates, and only touch the DPoints for actual neighbors
+        points.packCoordinates();
+        double[] xs = points.xs;
+        double[] ys = points.ys;
+        int n = points.size();
+        for (int i=0; i<n; i++) {
+            double x1 = xs[i];
+            double y1 = ys[i];
+            for (int j=(i+1); j<n; j++) {
+                double d2 = (x1-xs[j])*(x1-xs[j]) + (y1-ys[j])*(y1-ys[j]);
                 if (d2 <= r2) {
+                    DPoint p1 = points.get(i);
+                    DPoint p2 = points.get(j);
+                    p1.nbrsUp.add(p2);
+                    p1.nbrs.add(p2);
+                    p2.nbrs.add(p1);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Same as computeNeighborSet(), but only looks at the points near each point,
+     * using a SpatialGrid that holds all the points.  For big layouts this is
+     * much faster than comparing every pair.
+     * 
+     * @param grid - the cells have to be at least as big as the radius
+     */
+    public void computeNeighborSet(SpatialGrid grid) {
+        if (grid.cellSize < this.radius) {
+            throw new IllegalArgumentException("computeNeighborSet(): grid cells are smaller than the radius");
+        }
+        if (hilbertOrder) {
+            points.sortHilbert();
+        }
+        linkNeighbors(grid);
+    }
+
+
+    /**
+     * The neighbor search of computeNeighborSet(grid), without renumbering the
+     * points first.  For callers that have already put the points in the order
+     * they want.
+     * 
+     * @param grid - the cells have to be at least as big as the radius
+     */
+    void linkNeighbors(SpatialGrid grid) {
+        for (DPoint p1 : points) {
+            for (DPoint p2 : grid.within(p1.x, p1.y, this.radius)) {
+                if (p2.index > p1.index) {
                     p1.nbrsUp.add(p2);
                     p1.nbrs.add(p2);
                     p2.nbrs.add(p1);
@@ -122,7 +220,7 @@ public class CoverageExperiment {
      * Include no filtration information right now
      */
     void buildRipsComplex() {
-        ripsComplexStream = Plex4.createExplicitSimplexStream();
+        ripsComplexStream = new CompactSimplexStream();
 
         // add the 0-simplices
         for (DPoint p1 : points) {
@@ -166,8 +264,7 @@ public class CoverageExperiment {
             }
         }
 
-        // in case we made a mistake...
-        ripsComplexStream.ensureAllFaces();
+        // the complex is closed already.  finalizeStream() checks.
         ripsComplexStream.finalizeStream();
     }
 
@@ -268,110 +365,111 @@ public class CoverageExperiment {
      * 
      */
     void buildCoverageComplex(Mzd U, boolean excludeCoverageChords) {
-        //System.out.println("buildCoverageComplex\n  U:");
-        //U.print();
-        //System.out.println("  rank="+U.echelonize(false));
-
-        coverageComplexStream = Plex4.createExplicitSimplexStream();
-        HashSet<DPoint> vertices = new HashSet<DPoint>(10);
-
-        // the initial rank of the basis for U
-        //int rk = U.echelonize(false);
-
-        // add the 0-simplices
-        for (DPoint p1 : points) {
-            vertices.add(p1);
-            if (isSimplexCovered(U, vertices, p1.nbrs)) {
-                //System.out.println("COVERAGE: addSimplex [ "+p1.index+" ]");
-                coverageComplexStream.addVertex(p1.index, 0);
-            }
-            vertices.remove(p1);
+        if (ripsComplexStream == null) {
+            this.buildRipsComplex();
         }
+        BitSet covered = coverageVerdicts(U, excludeCoverageChords);
+        coverageComplexStream = ripsComplexStream.select(covered, covered, 0, 0);
+    }
 
-        // add the 1-simplices (unless we are excluding coverage chords)
-        // if we exclude the 1-simplices, the ones that are faces of a covered
-        // 2-simplex will be added at the end anyway.
-        if (! excludeCoverageChords) {
-            for (DPoint p1 : points) {
-                vertices.add(p1);
-                for (DPoint p2 : p1.nbrsUp) {
-                    vertices.add(p2);
-
-                    // compute the intersection of their neighbor sets
-                    HashSet<DPoint> common_nbrs = (HashSet<DPoint>)p1.nbrs.clone();
-                    common_nbrs.retainAll(p2.nbrs);
 
-                    if (isSimplexCovered(U, vertices, common_nbrs)) {
-                        //System.out.println("COVERAGE: addSimplex [ "+p1.index+"  "+p2.index+" ]");
-                        coverageComplexStream.addElement(new int[]{p1.index, p2.index}, 0);
-                    }
-                    vertices.remove(p2);
-                }
-                vertices.remove(p1);
+    /**
+     * Decide which simplices of the Rips complex are in the coverage complex.
+     * 
+     * This goes through ripsComplexStream in its own order and records the verdicts
+     * in a bitmap indexed by each simplex's position in the stream (see
+     * CompactSimplexStream.offset()), so the coverage streams can be cut out of the
+     * Rips stream in one pass afterwards.
+     * 
+     * The faces of a covered simplex are always covered: they have fewer vertices,
+     * but the missing vertices and all the common neighbors of the simplex are common
+     * neighbors of the face.  So the bitmap is closed under faces.  If we are
+     * excluding coverage chords, the edges are marked only if they are a face of a
+     * covered 2-simplex, which is what ensureAllFaces() used to do for us.
+     * 
+     * The test is the same as isSimplexCovered(), but done on the packed copy of the
+     * points (see PointStore.pack()): the common neighbors come from merging sorted
+     * adjacency lists, and the span is built up in one BitBasis that is cleared for
+     * each simplex, so nothing is allocated per simplex and m4ri isn't involved.
+     * 
+     * @param U
+     * @param excludeCoverageChords
+     * @return
+     */
+    BitSet coverageVerdicts(Mzd U, boolean excludeCoverageChords) {
+        CompactSimplexStream rips = ripsComplexStream;
+
+        PointStore store = points;
+        store.pack(vsDimension);
+        long[][] u = BitBasis.pack(U, U.getNrows());
+        BitSet covered = new BitSet(rips.getSize());
+        BitBasis span = new BitBasis(vsDimension);
+        int[] common_nbrs = new int[store.size()];
+        int[] v = new int[rips.numDimensions()];
+        for (int d=0; d<rips.numDimensions(); d++) {
+            if (d == 1 && excludeCoverageChords) {
+                continue;
             }
-        }
-
-        // add the 2-simplices
-        for (DPoint p1 : points) {
-            vertices.add(p1);
-            for (DPoint p2 : p1.nbrsUp) {
-                vertices.add(p2);
-                HashSet<DPoint> nbrs2 = new HashSet<DPoint>(p2.nbrsUp);
-                nbrs2.retainAll(p1.nbrsUp);
-                for (DPoint p3 : nbrs2) {
-                    vertices.add(p3);
+            int base = rips.offset(d);
+            for (int i=0; i<rips.getSize(d); i++) {
+                rips.getVertices(d, i, v);
+                int start = store.adjStart[v[0]];
+                int nc = store.adjStart[v[0]+1] - start;
+                System.arraycopy(store.adj, start, common_nbrs, 0, nc);
+                for (int j=1; j<=d; j++) {
+                    nc = store.intersectNeighbors(v[j], common_nbrs, nc, common_nbrs);
+                }
 
-                    // compute the intersection of their neighbor sets
-                    HashSet<DPoint> common_nbrs = (HashSet<DPoint>)p1.nbrs.clone();
-                    common_nbrs.retainAll(p2.nbrs);
-                    common_nbrs.retainAll(p3.nbrs);
+                span.clear();
+                for (int j=0; j<=d; j++) {
+                    store.addBasis(v[j], span);
+                }
+                for (int k=0; k<nc; k++) {
+                    store.addBasis(common_nbrs[k], span);
+                }
 
-                    if (isSimplexCovered(U, vertices, common_nbrs)) {
-                        //System.out.println("COVERAGE: addSimplex [ "+p1.index+"  "+p2.index+"  "+p3.index+" ]");
-                        coverageComplexStream.addElement(new int[]{p1.index, p2.index, p3.index}, 0);
+                // covered if all the rows of U are in the span
+                boolean isCovered = true;
+                for (long[] row : u) {
+                    if (! span.inSpan(row)) {
+                        isCovered = false;
+                        break;
                     }
-                    vertices.remove(p3);
                 }
-                vertices.remove(p2);
+                if (isCovered) {
+                    covered.set(base + i);
+                }
             }
-            vertices.remove(p1);
         }
 
-        // add the 3-simplices
-        for (DPoint p1 : points) {
-            vertices.add(p1);
-            for (DPoint p2 : p1.nbrsUp) {
-                vertices.add(p2);
-                HashSet<DPoint> nbrs2 = new HashSet<DPoint>(p2.nbrsUp);
-                nbrs2.retainAll(p1.nbrsUp);
-                for (DPoint p3 : nbrs2) {
-                    vertices.add(p3);
-                    HashSet<DPoint> nbrs3 = new HashSet<DPoint>(p3.nbrsUp);
-                    nbrs3.retainAll(nbrs2);
-                    for (DPoint p4 : nbrs3) {
-                        vertices.add(p4);
+        if (excludeCoverageChords && rips.numDimensions() > 2) {
+            markTriangleEdges(covered, covered);
+        }
+        return covered;
+    }
 
-                        // compute the intersection of their neighbor sets
-                        HashSet<DPoint> common_nbrs = (HashSet<DPoint>)p1.nbrs.clone();
-                        common_nbrs.retainAll(p2.nbrs);
-                        common_nbrs.retainAll(p3.nbrs);
-                        common_nbrs.retainAll(p4.nbrs);
 
-                        if (isSimplexCovered(U, vertices, common_nbrs)) {
-                            //System.out.println("COVERAGE: addSimplex [ "+p1.index+"  "+p2.index+"  "+p3.index+"  "+p4.index+" ]");
-                            coverageComplexStream.addElement(new int[]{p1.index, p2.index, p3.index, p4.index}, 0);
-                        }
-                        vertices.remove(p4);
-                    }
-                    vertices.remove(p3);
-                }
-                vertices.remove(p2);
+    /**
+     * Set the bits of the edges of some 2-simplices of the Rips stream.
+     * 
+     * @param triangles - bitmap over the Rips stream giving the 2-simplices, or null for all of them
+     * @param edges - bitmap over the Rips stream to set the bits in
+     */
+    private void markTriangleEdges(BitSet triangles, BitSet edges) {
+        CompactSimplexStream rips = ripsComplexStream;
+        int edgeBase = rips.offset(1);
+        int triangleBase = rips.offset(2);
+        int[] v = new int[3];
+        int[] edge = new int[2];
+        for (int i=0; i<rips.getSize(2); i++) {
+            if (triangles != null && ! triangles.get(triangleBase + i)) { continue; }
+            rips.getVertices(2, i, v);
+            for (int skip=0; skip<3; skip++) {
+                edge[0] = v[(skip == 0) ? 1 : 0];
+                edge[1] = v[(skip == 2) ? 1 : 2];
+                edges.set(edgeBase + rips.indexOf(edge));
             }
-            vertices.remove(p1);
         }
-
-        coverageComplexStream.ensureAllFaces();
-        coverageComplexStream.finalizeStream();
     }
     
     
@@ -379,9 +477,9 @@ public class CoverageExperiment {
      * Build the filtered complex where the coverage complex is the first stage of the
      * filtration and the Rips complex is the 2nd stage.
      * 
-     * This version uses the (probably inefficient) method of iterating
-     * over all simplices in the Rips complex, and checking if each one
-     * is also in the coverage complex.
+     * The coverage verdicts are a bitmap over the Rips stream, so the filtered
+     * stream is cut out of the Rips stream in one pass.  If the coverage complex
+     * already exists, the bitmap is read off it with one merge pass instead.
      * 
      * If the Rips or coverage complexes have not already been computed, this
      * method will call the appropriate methods to compute them.
@@ -407,23 +505,27 @@ public class CoverageExperiment {
             this.buildRipsComplex();
         }
         
+        // the coverage verdicts, as a bitmap over the Rips stream
+        BitSet covered = null;
         if (coverageComplexStream == null) {
-            this.buildCoverageComplex(U, excludeCoverageChords);
+            covered = coverageVerdicts(U, excludeCoverageChords);
+            coverageComplexStream = ripsComplexStream.select(covered, covered, 0, 0);
+        } else {
+            covered = ripsComplexStream.positionsOf(coverageComplexStream);
         }
-        
-        coverageRipsComplexStream = Plex4.createExplicitSimplexStream();
 
-        for (Simplex s : ripsComplexStream) {
-            if (! excludeCoverageChords || s.getDimension() != 1) {
-                if (coverageComplexStream.containsElement(s)) {
-                    coverageRipsComplexStream.addElement(s, 0);
-                } else {
-                    coverageRipsComplexStream.addElement(s, 1);
-                }
-            }
+        // Without the coverage chords, the Rips stage only gets the edges that
+        // are faces of 2-simplices, as it always has.
+        BitSet keep = null;
+        if (excludeCoverageChords && ripsComplexStream.numDimensions() > 1) {
+            keep = new BitSet(ripsComplexStream.getSize());
+            keep.set(0, ripsComplexStream.getSize());
+            int edgeBase = ripsComplexStream.offset(1);
+            keep.clear(edgeBase, edgeBase + ripsComplexStream.getSize(1));
+            markTriangleEdges(null, keep);
         }
-        coverageRipsComplexStream.ensureAllFaces();
-        coverageRipsComplexStream.finalizeStream();
+
+        coverageRipsComplexStream = ripsComplexStream.select(keep, covered, 0, 1);
     }
         
     
@@ -459,9 +561,9 @@ public class CoverageExperiment {
         //U.print();
         //System.out.println("  rank="+U.echelonize(false));
         
-        ripsComplexStream = Plex4.createExplicitSimplexStream();
-        coverageComplexStream = Plex4.createExplicitSimplexStream();
-        coverageRipsComplexStream = Plex4.createExplicitSimplexStream();
+        ripsComplexStream = new CompactSimplexStream();
+        coverageComplexStream = new CompactSimplexStream();
+        coverageRipsComplexStream = new CompactSimplexStream();
         HashSet<DPoint> vertices = new HashSet<DPoint>(10);
 
         
@@ -580,7 +682,6 @@ public class CoverageExperiment {
             vertices.remove(p1);
         }
         
-        ripsComplexStream.ensureAllFaces();
         ripsComplexStream.finalizeStream();
         
         coverageComplexStream.ensureAllFaces();
@@ -601,7 +702,7 @@ public class CoverageExperiment {
      */
     //public Vector<ExplicitSimplexStream> computePersistentHomology() {
     public void computePersistentHomology() {
-        ExplicitSimplexStream stream = coverageRipsComplexStream;
+        CompactSimplexStream stream = coverageRipsComplexStream;
         stream.finalizeStream();
 
         AbstractPersistenceBasisAlgorithm<Simplex,IntSparseFormalSum<Simplex>> persistence = new IntAbsoluteHomology<Simplex>(ModularIntField.getInstance(2), SimplexComparator.getInstance(), 1, 2);
@@ -674,6 +775,117 @@ public class CoverageExperiment {
     }
 
 
+    /**
+     * The persistence intervals of coverageRipsComplexStream in dimensions 0 and 1.
+     * Each dimension is a flat array of (start, end) pairs.  Infinite intervals
+     * end at Double.POSITIVE_INFINITY.
+     * 
+     * @return
+     */
+    public double[][] barcodes() {
+        CompactSimplexStream stream = coverageRipsComplexStream;
+        stream.finalizeStream();
+
+        AbstractPersistenceBasisAlgorithm<Simplex,IntSparseFormalSum<Simplex>> persistence = new IntAbsoluteHomology<Simplex>(ModularIntField.getInstance(2), SimplexComparator.getInstance(), 0, 2);
+        BarcodeCollection<Double> intervals = persistence.computeIntervals(stream);
+
+        double[][] bars = new double[2][];
+        for (int d=0; d<2; d++) {
+            List<Interval<Double>> ii = intervals.getIntervalsAtDimension(d);
+            if (ii == null) {
+                bars[d] = new double[0];
+                continue;
+            }
+            bars[d] = new double[2*ii.size()];
+            int k = 0;
+            for (Interval<Double> i : ii) {
+                bars[d][k++] = i.getStart();
+                bars[d][k++] = i.isRightInfinite() ? Double.POSITIVE_INFINITY : i.getEnd();
+            }
+        }
+        return bars;
+    }
+
+
+    /**
+     * Count the finite and infinite intervals in each dimension of barcodes().
+     * 
+     * @param bars
+     * @return { finite counts, infinite counts }
+     */
+    static int[][] intervalCounts(double[][] bars) {
+        int[][] counts = new int[2][2];
+        for (int d=0; d<2; d++) {
+            for (int k=1; k<bars[d].length; k+=2) {
+                if (Double.isInfinite(bars[d][k])) {
+                    counts[1][d]++;
+                } else {
+                    counts[0][d]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+
+    /**
+     * Count the intervals of the persistent homology of the RC-->R filtration,
+     * without printing anything or keeping the cycles.
+     * Finite intervals in dimension 1 are coverage holes, the ones that get filled
+     * in by the Rips complex.  Infinite ones are holes in the Rips complex itself.
+     * 
+     * @return { finite counts, infinite counts }, each indexed by dimension 0 and 1
+     */
+    public int[][] intervalCounts() {
+        return intervalCounts(barcodes());
+    }
+
+
+    /**
+     * The simplices of coverageRipsComplexStream packed into one int array:
+     * for each simplex the number of vertices, the vertices and the filtration
+     * index.  The points are numbered 0..n-1 by the PointStore, so the same
+     * layout always gives the same array.
+     * 
+     * @return
+     */
+    public int[] encodeCoverageStream() {
+        ArrayList<Integer> data = new ArrayList<Integer>();
+        for (Simplex s : coverageRipsComplexStream) {
+            int[] v = s.getVertices();
+            data.add(v.length);
+            for (int i=0; i<v.length; i++) {
+                data.add(v[i]);
+            }
+            data.add(coverageRipsComplexStream.getFiltrationIndex(s));
+        }
+        int[] result = new int[data.size()];
+        for (int i=0; i<result.length; i++) {
+            result[i] = data.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * Free the m4ri objects held by the experiment and its points.
+     */
+    public void destroy() {
+        if (points != null) {
+            for (DPoint p : points) {
+                p.destroy();
+            }
+        }
+        if (V != null) { V.destroy(); V = null; }
+        if (basis != null) {
+            for (Mzd b : basis) {
+                b.destroy();
+            }
+            basis = null;
+        }
+    }
+
+
     /**
      * Compute the homology of the coverage complex
      * 
@@ -681,7 +893,7 @@ public class CoverageExperiment {
      */
     //public Vector<ExplicitSimplexStream> computeHomology() {
     public void computeHomology() {
-        ExplicitSimplexStream stream = coverageComplexStream;
+        CompactSimplexStream stream = coverageComplexStream;
         stream.finalizeStream();
 
         AbstractPersistenceBasisAlgorithm<Simplex,IntSparseFormalSum<Simplex>> persistence = new IntAbsoluteHomology<Simplex>(ModularIntField.getInstance(2), SimplexComparator.getInstance(), 0, 2);
@@ -71,7 +71,49 @@ public class CoverageGrid extends CoverageExperiment {
 	public CoverageGrid(int width, int height, double spacing, double prob, int D, int inventorySize) {
 		// call CoverageExperiment constructor
 		super(D, 1.0);
+		build(width, height, spacing, prob, inventorySize);
+	}
+
+
+	/**
+	 * Constructor for reproducible runs.
+	 * All the randomness comes from seed, so the same seed gives the same run.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param spacing
+	 * @param prob
+	 * @param D
+	 * @param inventorySize
+	 * @param seed
+	 */
+	public CoverageGrid(int width, int height, double spacing, double prob, int D, int inventorySize, long seed) {
+		this(width, height, spacing, prob, D, inventorySize, seed, true);
+	}
+
 
+	/**
+	 * Constructor for reproducible runs, without the progress output if verbose is false.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param spacing
+	 * @param prob
+	 * @param D
+	 * @param inventorySize
+	 * @param seed
+	 * @param verbose
+	 */
+	public CoverageGrid(int width, int height, double spacing, double prob, int D, int inventorySize, long seed, boolean verbose) {
+		super(D, 1.0, seed, verbose);
+		build(width, height, spacing, prob, inventorySize);
+	}
+
+
+	/**
+	 * Lay out the grid and build the complexes.
+	 */
+	private void build(int width, int height, double spacing, double prob, int inventorySize) {
 		this.gridWidth = width;
 		this.gridHeight = height;
 		this.gridSpacing = spacing;
@@ -79,7 +121,7 @@ public class CoverageGrid extends CoverageExperiment {
 		this.inventorySize = inventorySize;
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(width*height);
+		points = new PointStore(width*height);
 		pGrid = new DPoint[width][];
 		for (int i=0; i<width; i++) {
 			pGrid[i] = new DPoint[height];
@@ -89,11 +131,11 @@ public class CoverageGrid extends CoverageExperiment {
 		    for (int i=0; i<width; i++) {
 			// exclude interior points with some probability
 			// just so we can get a more interesting Rips complex.
-			if (i==0 || j==0 || i==(width-1) || j==(height-1) || (Math.random() >= missingPointProbability)) {
+			if (i==0 || j==0 || i==(width-1) || j==(height-1) || (layoutRng.nextDouble() >= missingPointProbability)) {
 			    pGrid[i][j] = new DPoint(j*spacing, i*spacing, vsDimension);
 			    points.add(pGrid[i][j]);
 			} else {
-			    System.out.println("Excluding point "+i+","+j);
+			    if (verbose) { System.out.println("Excluding point "+i+","+j); }
 			    pGrid[i][j] = null;
 			}
 		    }
@@ -108,22 +150,22 @@ public class CoverageGrid extends CoverageExperiment {
 		// build the Rips complex
 		// In our case the rips complex is a javaplex object, and javaplex uses streams
 		this.buildRipsComplex();
-		System.out.println("Built Rips complex with "+ripsComplexStream.getSize()+" faces");
+		if (verbose) { System.out.println("Built Rips complex with "+ripsComplexStream.getSize()+" faces"); }
 		
 		// add a bunch of random vectors to the points' inventories
 		for (int i=0; i<points.size(); i++) {
 			for (int j=0; j<inventorySize; j++) {
-				points.get(i).addRandomInventoryVector();
+				points.get(i).addRandomInventoryVector(inventoryRng);
 			}
 		}
 
 		// build the filtered RC-->R complex
 		this.buildCoverageRipsComplex(V);
-		System.out.println("Built filtered coverage-->Rips complex with "+coverageRipsComplexStream.getSize()+" faces");
+		if (verbose) { System.out.println("Built filtered coverage-->Rips complex with "+coverageRipsComplexStream.getSize()+" faces"); }
 
 		// build the coverage complex
 		this.buildCoverageComplex(V);
-		System.out.println("Built coverage complex with "+coverageComplexStream.getSize()+" faces");
+		if (verbose) { System.out.println("Built coverage complex with "+coverageComplexStream.getSize()+" faces"); }
 		
 	}
 
@@ -0,0 +1,72 @@
+/*
+ * CoverageLayout.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * A coverage experiment on a layout of points that was made somewhere else,
+ * for example loaded from a ScenarioSnapshot.
+ *
+ * The points come with their inventories, and possibly with their neighbor sets
+ * already filled in.  buildComplexes() does whatever is still missing.
+ */
+
+import java.util.*;
+
+
+public class CoverageLayout extends CoverageExperiment {
+
+	/**
+	 * Constructor
+	 * The points are renumbered 0..n-1 in the order of the list, so they
+	 * can't have any neighbors yet.
+	 *
+	 * @param vsDim
+	 * @param r
+	 * @param seed - recorded with the experiment; a layout has no randomness of its own
+	 * @param pts
+	 */
+	public CoverageLayout(int vsDim, double r, long seed, List<DPoint> pts) {
+		super(vsDim, r, seed);
+		this.points = new PointStore(pts);
+	}
+
+
+	/**
+	 * Compute the neighbor sets, if none of the points have any, and build
+	 * whichever of the complexes haven't been built yet.
+	 */
+	public void buildComplexes() {
+		boolean haveNeighbors = false;
+		for (DPoint p : points) {
+			if (! p.nbrs.isEmpty()) {
+				haveNeighbors = true;
+				break;
+			}
+		}
+		if (! haveNeighbors) {
+			computeNeighborSet();
+		}
+		if (ripsComplexStream == null) {
+			buildRipsComplex();
+		}
+		if (coverageRipsComplexStream == null) {
+			buildCoverageRipsComplex(V);
+		}
+	}
+
+}
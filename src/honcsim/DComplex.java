@@ -27,6 +27,9 @@ package honcsim;
  */
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import m4rjni.Mzd;
 import edu.stanford.math.plex4.api.Plex4;
@@ -43,7 +46,12 @@ import edu.stanford.math.plex_viewer.*;
 public class DComplex {
 	
 	public int vsDimension = 0;
-	public HashSet<DSimplex> simplices = new HashSet<DSimplex>();
+	public SimplexSet simplices = new SimplexSet();
+	
+	// if set, vsCover() is answered from a segment tree of neighborhood spans
+	// that is kept up to date through inventoryChanged()
+	boolean incrementalCover = false;
+	VsCoverTree coverTree = null;
 
 	
 	/**
@@ -82,9 +90,132 @@ public class DComplex {
 	 * 
 	 * @param ss
 	 */
-	public void addSimplex(DSimplex ss) {
+	public synchronized void addSimplex(DSimplex ss) {
 		//System.out.println("DComplex.add("+ss+")");
 		simplices.add(ss);
+		coverTree = null;
+	}
+	
+	
+	/**
+	 * Remove a simplex from the complex.
+	 * 
+	 * @param ss
+	 * @return true if the simplex was in the complex
+	 */
+	public synchronized boolean removeSimplex(DSimplex ss) {
+		coverTree = null;
+		return simplices.remove(ss);
+	}
+	
+	
+	/**
+	 * Turn incremental maintenance of vsCover() on or off.
+	 * 
+	 * When it is on, the first call to vsCover() builds a VsCoverTree, and after
+	 * that the caller has to report every inventory change with inventoryChanged().
+	 * Adding simplices throws the tree away and it gets rebuilt on the next call.
+	 * 
+	 * @param on
+	 */
+	public synchronized void setIncrementalCover(boolean on) {
+		incrementalCover = on;
+		coverTree = null;
+	}
+	
+	
+	/**
+	 * Tell the complex that the inventory of p has changed.
+	 * Only the neighborhoods containing p are recomputed.
+	 * Does nothing unless incremental cover maintenance is on.
+	 * 
+	 * @param p
+	 */
+	public synchronized void inventoryChanged(DPoint p) {
+		if (coverTree != null) {
+			coverTree.update(p);
+		}
+	}
+	
+	
+	/**
+	 * The dimension of vsCover().
+	 * Returns -1 if the covering space isn't defined.
+	 * With incremental cover maintenance on this is read off the VsCoverTree without
+	 * building an m4ri matrix, so it is cheap enough to call after every drainVertex()
+	 * to see if the coverable space changed.  Otherwise it computes vsCover() and
+	 * throws the matrix away.
+	 * 
+	 * @return
+	 */
+	public int vsCoverRank() {
+		if (this.vsDimension == 0) {
+			return -1;
+		}
+		if (! incrementalCover) {
+			Mzd U = vsCover();
+			if (U == null) {
+				return -1;
+			}
+			int rk = U.getNrows();
+			U.destroy();
+			return rk;
+		}
+		
+		// same shortcut as vsCover()
+		for (DSimplex ds : simplices) {
+			if (ds.inventoriesEmpty()) {
+				return 0;
+			}
+		}
+		return trackedRank();
+	}
+	
+	
+	/**
+	 * The segment tree, building it first if needed.
+	 * Only call this while holding the lock.
+	 * 
+	 * @return
+	 */
+	private VsCoverTree coverTree() {
+		if (coverTree == null) {
+			coverTree = new VsCoverTree(minimalNeighborhoods(), vsDimension);
+		}
+		return coverTree;
+	}
+	
+	
+	/**
+	 * Answer vsCoverRank() from the segment tree.
+	 * 
+	 * @return
+	 */
+	private synchronized int trackedRank() {
+		VsCoverTree T = coverTree();
+		if (T.undefined) {
+			return -1;
+		}
+		BitBasis R = T.root();
+		return (R == null) ? vsDimension : R.rank;
+	}
+	
+	
+	/**
+	 * Answer vsCover() from the segment tree, building it first if needed.
+	 * 
+	 * @return
+	 */
+	private synchronized Mzd trackedCover() {
+		VsCoverTree T = coverTree();
+		if (T.undefined) {
+			return null;
+		}
+		BitBasis R = T.root();
+		if (R == null) {
+			return Mzd.identityMatrix(vsDimension);
+		}
+		return R.toMzd();
 	}
 	
 	
@@ -101,85 +232,421 @@ public class DComplex {
 	 * @return
 	 */
 	public Mzd vsCover() {
+		return vsCover(true);
+	}
+	
+	
+	/**
+	 * Compute the largest vector space such that all my DSimplex are in it.
+	 * 
+	 * If prune is set we first reduce the simplices to the distinct common neighbor
+	 * sets that do not contain any other one (see minimalNeighborhoods()), and skip
+	 * neighborhoods that span the whole space.  This gives the same vector space;
+	 * the un-pruned version is kept around for comparison.
+	 * 
+	 * With incremental cover maintenance on, the pruned version is read off the
+	 * VsCoverTree instead of being recomputed.
+	 * 
+	 * The loop here stays on m4ri, as the reference version.  A DComplex isn't tied
+	 * to a PointStore (the DynamicNetwork doesn't have one), and the versions of the
+	 * same loop on packed bases are vsCoverParallel() and the VsCoverTree.
+	 * 
+	 * @param prune
+	 * @return
+	 */
+	public Mzd vsCover(boolean prune) {
 		if (this.vsDimension == 0) {
 			return null;
 		}
 		
-		// initialize the process with the standard basis
-		Mzd U = Mzd.identityMatrix(vsDimension);
-		
+		// if any simplex has rank 0 then it's going to kill the whole
+		// intersection.  Just return.
+		// ds.rank isn't updated when inventories change, so look at the vertices.
 		for (DSimplex ds : simplices) {
-			//System.out.println("vsCover(): processing "+ds);
-			
-			// if this simplex has rank 0 then it's going to kill the whole
-			// intersection.  Just return.
-			if (ds.rank == 0) {
-				//System.out.println("total rank of this simplex is 0 (rank="+ds.rank+")  -  returning");
-				U.destroy();
+			if (ds.inventoriesEmpty()) {
+				//System.out.println("total rank of this simplex is 0  -  returning");
 				return new Mzd(0,this.vsDimension);
 			}
-			
-			// if the simplex has full rank then there is no point in computing the intersection.
-			// it has no effect.
-			if (ds.rank == vsDimension) {
-				//continue;
+		}
+		
+		if (prune && incrementalCover) {
+			return trackedCover();
+		}
+		
+		// gather the common neighbor sets to intersect over
+		List<HashSet<DPoint>> neighborhoods = null;
+		if (prune) {
+			neighborhoods = minimalNeighborhoods();
+		} else {
+			neighborhoods = new ArrayList<HashSet<DPoint>>(simplices.size());
+			for (DSimplex ds : simplices) {
+				neighborhoods.add(ds.neighbors);
 			}
-			
+		}
+		
+		// the running intersection.  null stands for the whole space, so we don't
+		// have to do a real intersection with the standard basis to get started.
+		Mzd U = null;
+		
+		for (HashSet<DPoint> neighbors : neighborhoods) {
 			// gather the full inventory covering this simplex
-			
-			// compute the common neighbors
-			// one obvious optimization here is if we kept track of common neighbor
-			// sets we had already used, skip processing this loop if:
-			// - this common neighbor set was already examined in connection with a different DSimplex
-			// - this common neighbor set contains any other common neighbor set we've looked at
-			// 
-			HashSet<DPoint> neighbors = ds.neighbors;
-			
-			// collect all the inventories and reduce
-			if (neighbors==null || neighbors.size()==0) { return null; }
-			int numVectors = 0;
-			for (DPoint p : neighbors) {
-				numVectors += p.rank;
-			}
-			Mzd W = new Mzd(numVectors, vsDimension);
-			int rowi = 0;
-			for (DPoint p : neighbors) {
-				Mzd.copyRows(W, rowi, p.reducedBasis, 0, p.rank);
-				rowi += p.rank;
-			}
-			int total_rank = W.echelonize(false);
-			
-			if (total_rank > 0) {
-				Mzd Wr = W.submatrix(null, 0, 0, total_rank, vsDimension);
-				W.destroy();
-				W = Wr;
-			} else {
+			Mzd W = neighborhoodSpan(neighbors);
+			if (W == null) {
+				if (U != null) { U.destroy(); }
+				return null;
+			}
+			if (W.getNrows() == 0) {
 				//System.out.println("rank of the intersection has been reduced to 0  -  returning");
-				//W.print();
+				if (U != null) { U.destroy(); }
+				return W;
+			}
+			
+			// if the neighborhood has full rank then there is no point in computing the intersection.
+			// it has no effect.
+			if (prune && W.getNrows() == vsDimension) {
 				W.destroy();
-				U.destroy();
-				return new Mzd(0,this.vsDimension);
+				continue;
+			}
+			
+			// the first real neighborhood is the intersection so far
+			if (U == null) {
+				U = W;
+				continue;
 			}
 			
 			// compute the running intersection
-			Mzd newVsI = Mzd.vsIntersect(U, W);
+			Mzd newVsI = vsIntersect(U, W);
 			U.destroy();
-			if (newVsI == null) {
-				System.out.println("WARNING: Mzd.vsIntersect() returned null!");
-				System.exit(-1);
-			}
-			if (newVsI.isZero()) {
-				return new Mzd(0,this.vsDimension);
+			W.destroy();
+			if (newVsI.getNrows() == 0) {
+				return newVsI;
 			}
 			U = newVsI;
 		}
 		
+		if (U == null) {
+			return Mzd.identityMatrix(vsDimension);
+		}
 		return U;
 	}
 	
 	
+	/**
+	 * Return a matrix whose rows span the intersection of the rowspaces of U and W.
+	 * 
+	 * This replaces Mzd.vsIntersect(), which computes a left kernel of the stacked
+	 * and transposed matrices and multiplies back out, for 7 native allocations per
+	 * call.  Here we use the Zassenhaus algorithm instead.  Put the rows [u u] for u
+	 * in U and [w 0] for w in W in one block and echelonize it in place.  The rows
+	 * whose left half is zero come last, and their right halves are an echelon basis
+	 * for the intersection.
+	 * 
+	 * The m4ri wrapper can only copy whole rows starting at column 0, and can only
+	 * take submatrices starting at column 0, so the right half of the [u u] rows is
+	 * filled in bit by bit, and the intersection is read back out the same way.
+	 * Reading and writing bits doesn't allocate, so the only native allocations are
+	 * the block and the result.
+	 * 
+	 * @param U
+	 * @param W
+	 * @return  - a new matrix containing the basis for the intersection in its rows.
+	 */
+	static Mzd vsIntersect(Mzd U, Mzd W) {
+		if (U==null || W==null) {
+			throw new NullPointerException("ERROR: DComplex.vsIntersect() called with null matrix.");
+		}
+		if (U.getNcols() != W.getNcols()) {
+			throw new IllegalArgumentException("ERROR: vsIntersect() called with matrices of different dimension.");
+		}
+		int numcols = U.getNcols();
+		int u = U.getNrows();
+		int w = W.getNrows();
+		if (u == 0 || w == 0) {
+			return new Mzd(0, numcols);
+		}
+		
+		// build the block [U U; W 0]
+		Mzd Z = new Mzd(u+w, 2*numcols);
+		Mzd.copyRows(Z, 0, U, 0, u);
+		Mzd.copyRows(Z, u, W, 0, w);
+		for (int i=0; i<u; i++) {
+			for (int c=0; c<numcols; c++) {
+				if (U.readBit(i, c) != 0) {
+					Z.writeBit(i, numcols+c, 1);
+				}
+			}
+		}
+		int r = Z.echelonize(false);
+		
+		// binary search for the first row with a zero left half
+		int lo = 0;
+		int hi = r;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (leftHalfIsZero(Z, mid, numcols)) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		
+		// the right halves of rows lo..r-1 are the intersection
+		Mzd result = new Mzd(r-lo, numcols);
+		for (int i=lo; i<r; i++) {
+			for (int c=0; c<numcols; c++) {
+				if (Z.readBit(i, numcols+c) != 0) {
+					result.writeBit(i-lo, c, 1);
+				}
+			}
+		}
+		Z.destroy();
+		return result;
+	}
+	
+	
+	/**
+	 * Check if the first numcols bits of a row are all zero.
+	 * Reading bits doesn't allocate anything on the m4ri side.
+	 * 
+	 * @param Z
+	 * @param row
+	 * @param numcols
+	 * @return
+	 */
+	private static boolean leftHalfIsZero(Mzd Z, int row, int numcols) {
+		for (int c=0; c<numcols; c++) {
+			if (Z.readBit(row, c) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
 	
 	
+	/**
+	 * Reduce the simplices to the common neighbor sets that actually matter for vsCover().
+	 * 
+	 * Lots of simplices share the same common neighbor set (all the faces of a maximal
+	 * simplex, for example), and those only need to be looked at once.  Also if one
+	 * common neighbor set contains another, its span contains the other's span, so
+	 * intersecting with it has no effect.  This returns the distinct neighbor sets
+	 * that do not contain any other one.
+	 * 
+	 * To avoid comparing all pairs, the sets are processed smallest first, and each
+	 * kept set is indexed under one of its points.  A kept set can only be contained
+	 * in N if its index point is in N, so we only check the kept sets indexed under
+	 * the points of N.
+	 * 
+	 * @return
+	 */
+	List<HashSet<DPoint>> minimalNeighborhoods() {
+		// group simplices with identical neighbor sets
+		HashSet<HashSet<DPoint>> distinct = new HashSet<HashSet<DPoint>>();
+		ArrayList<HashSet<DPoint>> candidates = new ArrayList<HashSet<DPoint>>();
+		for (DSimplex ds : simplices) {
+			if (ds.neighbors == null || ds.neighbors.isEmpty()) {
+				// leave it in so the caller sees it and bails out
+				candidates.add(ds.neighbors);
+			} else if (distinct.add(ds.neighbors)) {
+				candidates.add(ds.neighbors);
+			}
+		}
+		
+		// smallest first, so anything a set could contain has already been seen
+		Collections.sort(candidates, new Comparator<HashSet<DPoint>>() {
+			public int compare(HashSet<DPoint> a, HashSet<DPoint> b) {
+				int sa = (a == null) ? 0 : a.size();
+				int sb = (b == null) ? 0 : b.size();
+				return Integer.compare(sa, sb);
+			}
+		});
+		
+		ArrayList<HashSet<DPoint>> kept = new ArrayList<HashSet<DPoint>>();
+		HashMap<DPoint,ArrayList<HashSet<DPoint>>> index = new HashMap<DPoint,ArrayList<HashSet<DPoint>>>();
+		for (HashSet<DPoint> N : candidates) {
+			if (N == null || N.isEmpty()) {
+				kept.add(N);
+				continue;
+			}
+			boolean dominated = false;
+			for (DPoint p : N) {
+				ArrayList<HashSet<DPoint>> ll = index.get(p);
+				if (ll == null) { continue; }
+				for (HashSet<DPoint> K : ll) {
+					if (N.containsAll(K)) {
+						dominated = true;
+						break;
+					}
+				}
+				if (dominated) { break; }
+			}
+			if (dominated) { continue; }
+			
+			kept.add(N);
+			DPoint rep = N.iterator().next();
+			ArrayList<HashSet<DPoint>> ll = index.get(rep);
+			if (ll == null) {
+				ll = new ArrayList<HashSet<DPoint>>();
+				index.put(rep, ll);
+			}
+			ll.add(N);
+		}
+		
+		return kept;
+	}
+	
+	
+	/**
+	 * Collect the inventories of a set of points and reduce them to a basis
+	 * for the space they span.
+	 * 
+	 * Returns a matrix with one row per basis vector, which has zero rows if
+	 * the points span nothing.  Returns null if the set is null or empty.
+	 * 
+	 * @param neighbors
+	 * @return
+	 */
+	Mzd neighborhoodSpan(HashSet<DPoint> neighbors) {
+		if (neighbors==null || neighbors.size()==0) { return null; }
+		int numVectors = 0;
+		for (DPoint p : neighbors) {
+			numVectors += p.rank;
+		}
+		if (numVectors == 0) {
+			return new Mzd(0, vsDimension);
+		}
+		Mzd W = new Mzd(numVectors, vsDimension);
+		int rowi = 0;
+		for (DPoint p : neighbors) {
+			Mzd.copyRows(W, rowi, p.reducedBasis, 0, p.rank);
+			rowi += p.rank;
+		}
+		int total_rank = W.echelonize(false);
+		
+		if (total_rank == 0) {
+			W.destroy();
+			return new Mzd(0, vsDimension);
+		}
+		if (total_rank < numVectors) {
+			Mzd Wr = W.submatrix(null, 0, 0, total_rank, vsDimension);
+			W.destroy();
+			W = Wr;
+		}
+		return W;
+	}
+	
+	
+	/**
+	 * Parallel version of vsCover().
+	 * 
+	 * Intersection is associative, so instead of folding the simplices in one at
+	 * a time we split the (pruned) neighborhoods in half recursively, compute the
+	 * span of each neighborhood at the leaves, and intersect pairwise back up a
+	 * balanced tree.  The two halves of each node run as separate fork/join tasks.
+	 * 
+	 * As soon as any partial intersection is 0-dimensional the whole result must be,
+	 * so the remaining tasks bail out without doing any linear algebra.
+	 * 
+	 * The m4ri memory manager is not thread safe, so the tasks do their linear algebra
+	 * with BitBasis.  Only the final conversion back to an Mzd touches m4ri.
+	 * 
+	 * Uses the common fork/join pool.
+	 * 
+	 * @return
+	 */
+	public Mzd vsCoverParallel() {
+		return vsCoverParallel(ForkJoinPool.commonPool());
+	}
+	public Mzd vsCoverParallel(ForkJoinPool pool) {
+		if (this.vsDimension == 0) {
+			return null;
+		}
+		if (simplices.isEmpty()) {
+			return Mzd.identityMatrix(vsDimension);
+		}
+		for (DSimplex ds : simplices) {
+			if (ds.inventoriesEmpty()) {
+				return new Mzd(0,this.vsDimension);
+			}
+		}
+		
+		List<HashSet<DPoint>> nl = minimalNeighborhoods();
+		CoverTask root = new CoverTask(nl, 0, nl.size(), new AtomicInteger(COVER_OK));
+		BitBasis U = pool.invoke(root);
+		
+		int status = root.status.get();
+		if (status == COVER_UNDEFINED) {
+			return null;
+		}
+		if (status == COVER_ZERO || U == null) {
+			return new Mzd(0, this.vsDimension);
+		}
+		return U.toMzd();
+	}
+	
+	
+	// shared status of a parallel vsCover computation
+	private static final int COVER_OK = 0;
+	private static final int COVER_ZERO = 1;
+	private static final int COVER_UNDEFINED = 2;
+	
+	
+	/**
+	 * One node of the reduction tree in vsCoverParallel().
+	 * Returns the intersection of the spans of the neighborhoods at positions lo..hi-1 of sa, or null
+	 * if the computation was cut short.
+	 */
+	private class CoverTask extends RecursiveTask<BitBasis> {
+		private static final long serialVersionUID = 1L;
+		
+		final List<HashSet<DPoint>> sa;
+		final int lo, hi;
+		final AtomicInteger status;
+		
+		CoverTask(List<HashSet<DPoint>> sa, int lo, int hi, AtomicInteger status) {
+			this.sa = sa;
+			this.lo = lo;
+			this.hi = hi;
+			this.status = status;
+		}
+		
+		protected BitBasis compute() {
+			if (status.get() != COVER_OK) { return null; }
+			
+			// leaf: the span of a single neighborhood
+			if (hi - lo == 1) {
+				HashSet<DPoint> neighbors = sa.get(lo);
+				if (neighbors == null || neighbors.size() == 0) {
+					status.compareAndSet(COVER_OK, COVER_UNDEFINED);
+					return null;
+				}
+				BitBasis W = BitBasis.span(neighbors, vsDimension);
+				if (W.rank == 0) {
+					status.compareAndSet(COVER_OK, COVER_ZERO);
+					return null;
+				}
+				return W;
+			}
+			
+			int mid = (lo + hi) >>> 1;
+			CoverTask left = new CoverTask(sa, lo, mid, status);
+			CoverTask right = new CoverTask(sa, mid, hi, status);
+			left.fork();
+			BitBasis R = right.compute();
+			BitBasis L = left.join();
+			
+			if (L == null || R == null || status.get() != COVER_OK) {
+				return null;
+			}
+			
+			BitBasis I = L.intersect(R);
+			if (I.rank == 0) {
+				status.compareAndSet(COVER_OK, COVER_ZERO);
+				return null;
+			}
+			return I;
+		}
+	}
 	
 	
 }
@@ -22,6 +22,7 @@ package honcsim;
  */
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import m4rjni.Mzd;
 
@@ -30,15 +31,17 @@ public class DPoint {
 
 	/*
 	 * static variable to keep track of global point index
+	 * atomic, since experiments may be built on several threads at once
 	 */
-	private static int indexCounter = 0;
+	private static final AtomicInteger indexCounter = new AtomicInteger(0);
 	
 	/*
 	 * class variables
 	 */
 	
-	// global unique index for this DPoint
-	int index = indexCounter++;
+	// index of this DPoint.  Unique in the JVM to start with; an experiment's
+	// PointStore renumbers its points 0..n-1.
+	int index = indexCounter.getAndIncrement();
 
 	// location
 	double x, y;
@@ -55,7 +58,7 @@ public class DPoint {
 	HashSet<DPoint> nbrsUp = null;
 
 	// array of sets containing the 2-maximal (or whatever) cofaces of this point
-	HashSet<DSimplex> ripsCofaces = null;
+	SimplexSet ripsCofaces = null;
 	
 	// m4ri objects.
 	// M is the inventory of vectors
@@ -65,6 +68,10 @@ public class DPoint {
 	Mzd reducedBasis = null;
 	// the current rank of the reduced basis
 	int rank = 0;
+	
+	// the rows of reducedBasis packed into longs, for doing linear algebra on
+	// the Java side.  Computed lazily, and cleared whenever the inventory changes.
+	private volatile long[][] packedBasis = null;
 
 	// whether or not to draw this point slightly above the rest of the complex
 	protected boolean elevated = false;
@@ -82,7 +89,7 @@ public class DPoint {
 		this.vsDimension = vsDimension;
 		nbrs = new HashSet<DPoint>();
 		nbrsUp = new HashSet<DPoint>();
-		ripsCofaces = new HashSet<DSimplex>();
+		ripsCofaces = new SimplexSet();
 		M = new Vector<Mzd>();
 		reducedBasis = new Mzd(vsDimension,vsDimension);
 	}
@@ -125,6 +132,8 @@ public class DPoint {
 	 */
 	public boolean removeNeighbor(DPoint p) {
 	    nbrsUp.remove(p);
+	    p.nbrsUp.remove(this);
+	    p.nbrs.remove(this);
 	    return nbrs.remove(p);
 	}
 
@@ -162,6 +171,7 @@ public class DPoint {
 		//reducedBasis.print();
 		
 		M.add(new Mzd(v));
+		packedBasis = null;
 		
 		// update the reduced basis matrix
 		int oldrank = rank;
@@ -220,6 +230,33 @@ public class DPoint {
 	}
 	
 	
+	/**
+	 * Same as addRandomInventoryVector(), but the bits come from a Java-side
+	 * generator instead of the m4ri random number generator.  The m4ri generator
+	 * is one global state shared by everything, so it can't give reproducible
+	 * results when several experiments run at once.
+	 * 
+	 * @param rng
+	 * @return 1 if rank was increased, 0 if rank stayed the same
+	 */
+	public int addRandomInventoryVector(SplittableRandom rng) {
+	    Mzd v = new Mzd(1,vsDimension);
+	    boolean zero = true;
+	    while (zero) {
+	        long bits = 0;
+	        for (int c=0; c<vsDimension; c++) {
+	            if ((c & 63) == 0) { bits = rng.nextLong(); }
+	            int bit = (int)((bits >>> (c & 63)) & 1L);
+	            v.writeBit(0, c, bit);
+	            if (bit == 1) { zero = false; }
+	        }
+	    }
+	    int dRank = addInventoryVector(v);
+	    v.destroy();
+	    return dRank;
+	}
+	
+	
 	/**
 	 * Clear out the vectors in the inventory
 	 */
@@ -231,6 +268,7 @@ public class DPoint {
 		reducedBasis.destroy();
 		reducedBasis = new Mzd(vsDimension,vsDimension);
 		this.rank = 0;
+		packedBasis = null;
 	}
 
 	
@@ -240,13 +278,25 @@ public class DPoint {
 	 * @param BB
 	 */
 	public void setInventory(Mzd BB) {
+		setInventory(BB, BB.getNrows());
+	}
+	
+	
+	/**
+	 * Set the point's inventory from the first nrows rows of a matrix.
+	 * Useful when BB is scratch space that is bigger than it needs to be.
+	 * 
+	 * @param BB
+	 * @param nrows
+	 */
+	public void setInventory(Mzd BB, int nrows) {
 		//System.out.println("setInventory()");
 		clearInventory();
 		if (BB.getNcols() != this.vsDimension) {
 			System.out.println("ERROR: setInventory() passed in a matrix of vectors of the wrong dimension");
 			return;
 		}
-		for (int i=0; i<BB.getNrows(); i++) {
+		for (int i=0; i<nrows; i++) {
 			Mzd v = new Mzd(1,this.vsDimension);
 			Mzd.copyRow(v, 0, BB, i);
 			if (v.isZero()) {
@@ -255,7 +305,7 @@ public class DPoint {
 				M.add(v);
 			}
 		}
-		for (int i=0; i<BB.getNrows(); i++) {
+		for (int i=0; i<nrows; i++) {
 			if (this.rank == vsDimension) { break; }
 			Mzd.copyRow(reducedBasis, rank, BB, i);
 			this.rank = reducedBasis.echelonize(false);
@@ -264,6 +314,24 @@ public class DPoint {
 	}
 	
 	
+	/**
+	 * The rows of the reduced basis, packed into longs.
+	 * 
+	 * This only reads bits out of the m4ri matrix, so it is safe to call from
+	 * several threads as long as nobody is changing the inventory.
+	 * 
+	 * @return
+	 */
+	long[][] packedBasis() {
+		long[][] pb = packedBasis;
+		if (pb == null) {
+			pb = BitBasis.pack(reducedBasis, rank);
+			packedBasis = pb;
+		}
+		return pb;
+	}
+	
+	
 	/**
 	 * This method allocates Mzd objects, so we need to explicitly destroy them.
 	 * This will also clear this DPoint from all of its neighbors.
@@ -275,6 +343,7 @@ public class DPoint {
 	    M.clear();
 	    reducedBasis.destroy();
 	    reducedBasis = null;
+	    packedBasis = null;
 	    this.clearNeighbors();
 	}
 	
@@ -58,7 +58,8 @@ public class DSimplex {
 	// m4ri objects.
 	//
 	// reducedBasis is a square reduced matrix representing the vector
-	// space spanned by the vectors in M
+	// space spanned by the vectors in M.
+	// It is only computed when the vertices change, not when their inventories do.
 	Mzd reducedBasis = null;
 	int rank = 0;
 
@@ -67,6 +68,10 @@ public class DSimplex {
 	Mzd exclusiveReducedBasis = null;
 	int exclusiveRank = 0;
 
+	// canonical key of the vertex set, see SimplexKey.  Kept up to date as
+	// vertices are added and removed.
+	long key = SimplexKey.EMPTY;
+
 	
 	/**
 	 * Blank constructor
@@ -104,6 +109,7 @@ public class DSimplex {
 		}
 		
 		vertices = new HashSet<DPoint>(verts);
+		key = SimplexKey.of(vertices);
 		
 		if (verts.size()==0) { return; }
 		
@@ -128,11 +134,34 @@ public class DSimplex {
 	}
 	
 
+	/**
+	 * The canonical key of this simplex's vertex set.
+	 * 
+	 * @return
+	 */
+	public long key() {
+		return key;
+	}
+	
+	
 	/**
 	 * we want a DSimplex to be uniquely identified by its vertices
 	 */
 	public int hashCode() {
-		return this.vertices.hashCode();
+		return (int)SimplexKey.mix(key);
+	}
+	
+	
+	/**
+	 * Two DSimplex are equal if they have the same vertices.
+	 * Exact keys decide that on their own; hashed keys have to compare the vertices.
+	 */
+	public boolean equals(Object o) {
+		if (o == this) { return true; }
+		if (! (o instanceof DSimplex)) { return false; }
+		DSimplex s = (DSimplex)o;
+		if (key != s.key) { return false; }
+		return SimplexKey.isExact(key) || vertices.equals(s.vertices);
 	}
 	
 	
@@ -184,6 +213,30 @@ public class DSimplex {
 	}	
 	
 	
+	/**
+	 * Same as exclusiveBasis(p), but write the basis into a D x D matrix passed in
+	 * by the caller instead of allocating a new one.  EB has to be all zeros.
+	 * 
+	 * @param p
+	 * @param EB
+	 * @return the rank of the exclusive basis
+	 */
+	public int exclusiveBasis(DPoint p, Mzd EB) {
+		int ebRank = 0;
+		for (DPoint q : neighbors) {
+			if (q == p) { continue; }
+			for (Mzd v : q.M) {
+				// only try adding if we aren't already at full rank
+				if (ebRank < vsDimension) {
+					Mzd.copyRow(EB, ebRank, v, 0);
+					ebRank = EB.echelonize(false);
+				}
+			}
+		}
+		return ebRank;
+	}
+	
+	
 	/**
 	 * (re)build the reduced basis
 	 * this could be optimized a little by adding the vectors more than one at a time,
@@ -237,6 +290,23 @@ public class DSimplex {
 	}
 	
 
+	/**
+	 * Are the inventories of all the vertices empty?
+	 * This reads the current inventories, so unlike rank it stays right after
+	 * the vertices have been drained or filled.
+	 * 
+	 * @return
+	 */
+	public boolean inventoriesEmpty() {
+		for (DPoint p : vertices) {
+			if (p.rank > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+
 	/**
 	 * Add a list of vertices to the DSimplex
 	 * Updates the common neighbors HashSets
@@ -268,6 +338,7 @@ public class DSimplex {
 			neighbors.retainAll(p.nbrs);
 		}
 		neighbors.addAll(verts);
+		key = SimplexKey.of(vertices);
 		
 		// recompute the reduced bases
 		computeReducedBasis();
@@ -299,6 +370,7 @@ public class DSimplex {
 	 */
 	public void delVertices(List<DPoint> verts) {
 		vertices.removeAll(verts);
+		key = SimplexKey.of(vertices);
 		
 		if (vertices.size() == 0) {
 		    if (reducedBasis != null) { reducedBasis.destroy(); }
@@ -51,13 +51,17 @@ public class DrainageExperiment {
 	Mzd V = null;
 	Mzd[] basis = null;
 
-	// data structure containing DPoints
-	Vector<DPoint> points = null;
+	// the points, numbered 0..n-1 (see PointStore)
+	PointStore points = null;
 
 	// maintain our own list of simplices that are either 2-simplices or maximal 0 or 1-simplices
 	// this will get filled in whcn we compute the coverage complex...?
 	DComplex maximalSimplices = null;
 	
+	// where drainVertex() reports what it's doing, and its re-usable scratch space
+	DrainageListener drainageListener = DrainageListener.NONE;
+	DrainageScratch drainScratch = null;
+	
 	// javaplex objects
 	ExplicitSimplexStream ripsComplexStream = null;
 	ExplicitSimplexStream coverageComplexStream = null;
@@ -113,6 +117,33 @@ public class DrainageExperiment {
 	}
 	
 	
+	/**
+	 * Drain every vertex with drainVertex(), in order, and keep making passes
+	 * until a pass doesn't drain anything.
+	 * 
+	 * @param nVectors
+	 * @param fillVertices
+	 * @param checkCoverage - record the dimension of vsCover() after each pass
+	 * @return
+	 */
+	public DrainageRun runDrainage(int nVectors, boolean fillVertices, boolean checkCoverage) {
+		DrainageRun run = new DrainageRun(this, checkCoverage);
+		int invocations = 0;
+		int numDrained = 1;
+		while (numDrained > 0) {
+			long start = System.nanoTime();
+			numDrained = 0;
+			for (DPoint p : points) {
+				numDrained += drainVertex(p, nVectors, fillVertices);
+				invocations++;
+			}
+			run.recordPass(numDrained, System.nanoTime() - start);
+		}
+		run.invocations = invocations;
+		return run;
+	}
+	
+	
 	/**
 	 * Note: Must construct the Rips complex before you call this function!!
 	 * 
@@ -139,13 +170,8 @@ public class DrainageExperiment {
 		return drainVertex(p, nVectors, false);
 	}
 	public int drainVertex(DPoint p, int nVectors, boolean fillVertices) {
-		System.out.println("----------------\ndrainVertex("+p+")");
 	    if (p==null) { return 0; }
-	    
-	    System.out.println("initial inventory:");
-	    for (Mzd v : p.M){
-	    	v.print();
-	    }
+		drainageListener.drainStarted(p, "drainVertex");
 	    
 		// an argument of 0 means drain the maximum possible
 		if (nVectors == 0) {
@@ -154,137 +180,330 @@ public class DrainageExperiment {
 		}
 		
 		// if p has no neighbors there's nothing we can do.
-		if (p.nbrs.isEmpty()) { return 0; }
+		if (p.nbrs.isEmpty()) {
+			drainageListener.drainFinished(p, null, 0);
+			return 0;
+		}
+		
+		DrainageScratch scratch = drainageScratch(p.vsDimension);
 		
 		// CRUNCH!!!
 		// start with the full inventory and reduce it subject to the constraint that is complements U
-		Mzd BB = new Mzd(p.M.size(), p.vsDimension);
-		for (int i=0; i<p.M.size(); i++) {
+		// BB can be bigger than the inventory, but the rows past n are always zero.
+		int n = p.M.size();
+		Mzd BB = scratch.inventory(Math.max(n, p.vsDimension));
+		for (int i=0; i<n; i++) {
 			Mzd.copyRow(BB, i, p.M.get(i), 0);
 		}
 		
-		/*
-		// figure out how much of the space is spanned to start with
-		Mzd tst = new Mzd(2*p.vsDimension, p.vsDimension);
-		Mzd.copyRows(tst, 0, U, 0, U.getNrows());
-		Mzd.copyRows(tst, p.vsDimension, BB, 0, BB.getNrows());
-		int initialRank = tst.echelonize(false);
-		tst.destroy();
-		*/
+		// the exclusive bases of the cofaces don't change while we work on p's inventory,
+		// so compute them once up front.  A coface that is spanned without p puts no
+		// constraint on p at all, so those are left out.
+		ArrayList<BitBasis> cofaceSpans = new ArrayList<BitBasis>(p.ripsCofaces.size());
+		for (DSimplex sigma : p.ripsCofaces) {
+			BitBasis U = new BitBasis(p.vsDimension);
+			for (DPoint q : sigma.neighbors) {
+				if (q == p) { continue; }
+				for (long[] v : q.packedBasis()) {
+					U.add(v);
+				}
+				if (U.rank == p.vsDimension) { break; }
+			}
+			if (U.rank < p.vsDimension) {
+				cofaceSpans.add(U);
+			}
+		}
+		
+		// the inventory, packed.  Kept in step with BB.
+		long[][] rows = BitBasis.pack(BB, n);
+		scratch.setCofaces(cofaceSpans, n);
+		boolean covered = scratch.reduce(rows);
 		
 		// if we're supposed to fill incomplete simplices...
-		if (fillVertices) {
-			for (DSimplex sigma : p.ripsCofaces) {
-				//Mzd tst = new Mzd(2*p.vsDimension, p.vsDimension);
-				Mzd U = sigma.exclusiveBasis(p);
-				Mzd tst = Mzd.stack(U, BB);
-				//System.out.println("U:");
-				//U.print();
-				//System.out.println("BB:");
-				//BB.print();
-				//System.out.println("tst:");
-				//tst.print();
-				//Mzd.copyRows(tst, 0, U, 0, U.getNrows());
-				//Mzd.copyRows(tst, p.vsDimension, BB, 0, BB.getNrows());
-				int newrank = tst.echelonize(false);
-				tst.destroy();
-				U.destroy();
-				
-				// if the rank was reduced bail out
-				if (newrank != p.vsDimension) {
-					BB.destroy();
-					BB = Mzd.identityMatrix(p.vsDimension);
-					p.setInventory(BB);
-					System.out.println("WARNING: drainVertex() - simplex has unsupported cofaces - filling with standard basis");
-					break;
-				}
+		if (fillVertices && ! covered) {
+			scratch.clearRows(BB, 0, n);
+			for (int k=0; k<p.vsDimension; k++) {
+				BB.writeBit(k, k, 1);
 			}
+			n = p.vsDimension;
+			drainageListener.vertexFilled(p);
+			rows = BitBasis.pack(BB, n);
+			scratch.setCofaces(cofaceSpans, n);
+			scratch.reduce(rows);
 		}
-		//System.out.println("done testing for uncovered cofaces.");
 		
 		int numDrained = 0;
-		//Mzd tst = new Mzd(2*p.vsDimension, p.vsDimension);
-		Mzd iRow = new Mzd(1, p.vsDimension);
 		
-		for (int i=0; i<BB.getNrows(); i++) {
+		for (int i=0; i<n; i++) {
 			// try adding it to each other vector.
 			// move on to next if we succeed
 			
-			// this is the row we will be trying to add to other things
-			// make a back-up copy of it
-			Mzd.copyRow(iRow, 0, BB, i);
-			
 			// if this row is zero don't bother with it
-			//System.out.println("iRow(i="+i+"):");
-			//iRow.print();
-			if (iRow.isZero()) {
-				System.out.println("skipping row "+i+" because it is zero");
+			if (BitBasis.pivot(rows[i]) < 0) {
+				drainageListener.zeroRowSkipped(p, i);
 				continue;
 			}
 			
 			// when i=j we are testing the case of just removing row i
-			for (int j=i; j<BB.getNrows(); j++) {
+			for (int j=i; j<n; j++) {
 				
-				//System.out.println("Test-adding "+i+"+"+j+" ...");
-				BB.rowAdd(i, j);
-				BB.rowClearOffset(i, 0);
-
-				// test all the possible cofaces to see if this change leaves them less covered
-				boolean addFail = false;
-				for (DSimplex sigma : p.ripsCofaces) {
-					
-					//Mzd tst = new Mzd(2*p.vsDimension, p.vsDimension);
-					Mzd U = sigma.exclusiveBasis(p);
-					Mzd tst = Mzd.stack(U, BB);
-					//Mzd.copyRows(tst, 0, U, 0, U.getNrows());
-					//Mzd.copyRows(tst, p.vsDimension, BB, 0, BB.getNrows());
-					int newrank = tst.echelonize(false);
-					tst.destroy();
-					U.destroy();
-					
-					// if the rank was reduced bail out
-					if (newrank != p.vsDimension) {
-						addFail = true;
-						break;
+				// test all the possible cofaces to see if adding row i to row j and
+				// clearing row i leaves them less covered
+				if (scratch.canReplace(i, j)) {
+					// if none of the cofaces were destroyed we have success.
+					// lock it in and bail out of this loop
+					BB.rowAdd(i, j);
+					BB.rowClearOffset(i, 0);
+					if (i != j) {
+						for (int w=0; w<rows[j].length; w++) {
+							rows[j][w] ^= rows[i][w];
+						}
 					}
-					
-				}
-				
-				// if non of the cofaces were destoyed we have success
-				// lock it in by bailing out of this loop
-				if (! addFail) {
+					Arrays.fill(rows[i], 0L);
+					scratch.reduce(rows);
 					numDrained++;
 					break;
 				}
-				
-				// otherwise try adding to the next row, but first undo the change
-				Mzd.copyRow(BB, i, iRow, 0);
-				if (i!=j) {
-					BB.rowAdd(i, j);
-				}
 			}
 			if (numDrained >= nVectors) {
 				break;
 			}
 		}
 		
-		// clean up before letting it go out of scope
-		iRow.destroy();
-		//tst.destroy();
-		
-		System.out.println("new inventory:");
-		BB.print();
+		drainageListener.drainFinished(p, BB, numDrained);
 		
 		// Note: BB may have several zero rows at the top.
 		// That is accounted for in setInventory()
 		p.clearInventory();
-		p.setInventory(BB);
+		p.setInventory(BB, n);
+		maximalSimplices.inventoryChanged(p);
 		
-		BB.destroy();
 		return numDrained;
 	}
 	
 	
+	/**
+	 * The scratch matrices used by drainVertex(), allocated the first time
+	 * they are needed.
+	 * 
+	 * @param dim
+	 * @return
+	 */
+	DrainageScratch drainageScratch(int dim) {
+		if (drainScratch == null || drainScratch.vsDimension != dim) {
+			if (drainScratch != null) {
+				drainScratch.destroy();
+			}
+			drainScratch = new DrainageScratch(dim);
+		}
+		return drainScratch;
+	}
+	
+	
+	/**
+	 * Note: Must construct the Rips complex before you call this function!!
+	 * 
+	 * Alternative to drainVertex() that works in the quotient spaces V/U_sigma instead
+	 * of trying row operations one at a time.
+	 * 
+	 * For each coface sigma of p let U_sigma be the span of the inventories of its
+	 * neighbors other than p.  The new inventory B of p has to satisfy U_sigma + span(B) = V
+	 * for every sigma, i.e. the image of B has to span every quotient V/U_sigma.  That
+	 * needs at least max(codim U_sigma) vectors.  We build B greedily, taking the cofaces
+	 * in order of decreasing codimension and adding vectors from the span of p's current
+	 * inventory until U_sigma + span(B) is everything.  Vectors picked for one coface
+	 * count towards all the later ones, so B usually ends up at or near the lower bound.
+	 * Over GF(2) a single set that is minimal for every quotient at once doesn't always
+	 * exist, so this is not guaranteed to be optimal, but it is one pass of linear algebra
+	 * per vertex instead of a quadratic number of trials.
+	 * 
+	 * Everything is done with BitBasis on the Java side, and the only m4ri work is
+	 * writing the new inventory back.
+	 * 
+	 * Like drainVertex() it drains at most nVectors vectors, and nVectors=0 means
+	 * drain the maximum possible.  Dependent vectors in the old inventory are always
+	 * dropped though, so that can push it over.  The new inventory is only installed
+	 * if it is smaller than the old one.
+	 * 
+	 * It returns the number of vectors drained.
+	 * 
+	 * @param p
+	 * @param nVectors
+	 * @param fillVertices
+	 * @return
+	 */
+	public int drainVertexQuotient(DPoint p, int nVectors) {
+		return drainVertexQuotient(p, nVectors, false);
+	}
+	public int drainVertexQuotient(DPoint p, int nVectors, boolean fillVertices) {
+		return applyDrainPlan(planDrainQuotient(p, nVectors, fillVertices));
+	}
+	
+	
+	/**
+	 * The result of planning the drainage of one vertex.
+	 * inventory is the new inventory of p, packed, or null if p should be left alone.
+	 */
+	static class DrainPlan {
+		final DPoint p;
+		long[][] inventory = null;
+		int numDrained = 0;
+		boolean filled = false;
+		
+		DrainPlan(DPoint p) {
+			this.p = p;
+		}
+	}
+	
+	
+	/**
+	 * The linear algebra part of drainVertexQuotient().
+	 * 
+	 * This only reads the inventories of p and its neighbors, and does no m4ri
+	 * allocations, so it is safe to plan several vertices at once from different
+	 * threads as long as none of them is a neighbor of another.  Nothing changes
+	 * until the plan is passed to applyDrainPlan().
+	 * 
+	 * @param p
+	 * @param nVectors
+	 * @param fillVertices
+	 * @return
+	 */
+	DrainPlan planDrainQuotient(DPoint p, int nVectors, boolean fillVertices) {
+		DrainPlan plan = new DrainPlan(p);
+		if (p==null) { return plan; }
+		
+		// an argument of 0 means drain the maximum possible
+		if (nVectors == 0) {
+			nVectors = p.vsDimension;
+		}
+		
+		// if p has no neighbors there's nothing we can do.
+		if (p.nbrs.isEmpty()) { return plan; }
+		
+		// the spans U_sigma of the cofaces that p actually has to help cover.
+		// The greedy choice below depends on the order of the cofaces, and the
+		// order of a SimplexSet depends on the order things were added, so go
+		// through them in key order to get the same result every time.
+		ArrayList<DSimplex> cofaces = new ArrayList<DSimplex>(p.ripsCofaces);
+		Collections.sort(cofaces, new Comparator<DSimplex>() {
+			public int compare(DSimplex a, DSimplex b) {
+				return Long.compare(a.key(), b.key());
+			}
+		});
+		ArrayList<BitBasis> cofaceSpans = new ArrayList<BitBasis>(cofaces.size());
+		for (DSimplex sigma : cofaces) {
+			BitBasis U = new BitBasis(p.vsDimension);
+			for (DPoint q : sigma.neighbors) {
+				if (q == p) { continue; }
+				for (long[] v : q.packedBasis()) {
+					U.add(v);
+				}
+				if (U.rank == p.vsDimension) { break; }
+			}
+			if (U.rank < p.vsDimension) {
+				cofaceSpans.add(U);
+			}
+		}
+		
+		// largest quotient first.  The sort is stable, so ties stay in key order.
+		Collections.sort(cofaceSpans, new Comparator<BitBasis>() {
+			public int compare(BitBasis a, BitBasis b) {
+				return Integer.compare(a.rank, b.rank);
+			}
+		});
+		
+		// the vectors we get to choose from
+		long[][] available = p.packedBasis();
+		int oldSize = p.M.size();
+		
+		// make sure p can support its cofaces at all
+		boolean filled = false;
+		for (BitBasis U : cofaceSpans) {
+			BitBasis T = U.copy();
+			for (long[] v : available) {
+				T.add(v);
+			}
+			if (T.rank < p.vsDimension) {
+				if (! fillVertices) {
+					// same as drainVertex(), where every trial would fail
+					return plan;
+				}
+				// fill with the standard basis
+				available = new long[p.vsDimension][];
+				for (int c=0; c<p.vsDimension; c++) {
+					available[c] = new long[BitBasis.numWords(p.vsDimension)];
+					available[c][c >>> 6] = (1L << c);
+				}
+				oldSize = p.vsDimension;
+				filled = true;
+				break;
+			}
+		}
+		
+		// greedily pick vectors to span each quotient
+		BitBasis chosenSpan = new BitBasis(p.vsDimension);
+		ArrayList<long[]> chosen = new ArrayList<long[]>();
+		for (BitBasis U : cofaceSpans) {
+			BitBasis T = U.copy();
+			T.addAll(chosenSpan);
+			for (long[] v : available) {
+				if (T.rank == p.vsDimension) { break; }
+				if (T.add(v)) {
+					chosen.add(v);
+					chosenSpan.add(v);
+				}
+			}
+		}
+		
+		// respect the limit on how much to drain by putting some vectors back
+		for (long[] v : available) {
+			if (oldSize - chosen.size() <= nVectors) { break; }
+			if (chosenSpan.add(v)) {
+				chosen.add(v);
+			}
+		}
+		
+		// a filled vertex gets its new inventory even if nothing was drained
+		int numDrained = oldSize - chosen.size();
+		if (numDrained > 0 || filled) {
+			plan.inventory = chosen.toArray(new long[chosen.size()][]);
+			plan.numDrained = Math.max(0, numDrained);
+			plan.filled = filled;
+		}
+		return plan;
+	}
+	
+	
+	/**
+	 * Install the new inventory from a DrainPlan.
+	 * This is where the m4ri work happens, so only call it from one thread at a time.
+	 * 
+	 * @param plan
+	 * @return the number of vectors drained
+	 */
+	int applyDrainPlan(DrainPlan plan) {
+		if (plan.p == null) {
+			return 0;
+		}
+		drainageListener.drainStarted(plan.p, "drainVertexQuotient");
+		if (plan.inventory == null) {
+			drainageListener.drainFinished(plan.p, null, 0);
+			return 0;
+		}
+		if (plan.filled) {
+			drainageListener.vertexFilled(plan.p);
+		}
+		int n = plan.inventory.length;
+		Mzd BB = drainageScratch(plan.p.vsDimension).inventory(n);
+		BitBasis.write(plan.inventory, BB);
+		drainageListener.drainFinished(plan.p, BB, plan.numDrained);
+		plan.p.setInventory(BB, n);
+		maximalSimplices.inventoryChanged(plan.p);
+		return plan.numDrained;
+	}
+	
+	
 	/**
 	 * Does what it says
 	 * The neighbor set info is local and is stored inside each DPoint
@@ -0,0 +1,113 @@
+/*
+ * DrainageListener.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Callbacks for what the drainage code is doing.
+ *
+ * drainVertex() used to print the whole inventory before and after every call,
+ * which on big networks takes longer than the drainage itself.  Now it reports
+ * to a DrainageListener instead.  NONE ignores everything and is the default.
+ * PRINT gives the old output.
+ *
+ * Every drainStarted() is matched by a drainFinished(), including when p is
+ * left alone because it has no neighbors or nothing could be drained.
+ *
+ * The Mzd passed to drainFinished() is scratch space that gets re-used by the
+ * next call, so copy it if you want to keep it.  It can have zero rows, and it
+ * is null if p's inventory was not touched.
+ */
+
+import m4rjni.Mzd;
+
+
+public interface DrainageListener {
+
+	/**
+	 * Called before anything is done to p.
+	 *
+	 * @param p
+	 * @param engine the method doing the draining, e.g. "drainVertex"
+	 */
+	void drainStarted(DPoint p, String engine);
+
+	/**
+	 * Called when a row of the inventory is zero, and so isn't worth draining.
+	 *
+	 * @param p
+	 * @param row
+	 */
+	void zeroRowSkipped(DPoint p, int row);
+
+	/**
+	 * Called when p had to be filled with the standard basis because it
+	 * couldn't support one of its cofaces.
+	 *
+	 * @param p
+	 */
+	void vertexFilled(DPoint p);
+
+	/**
+	 * Called with the new inventory, just before it is installed.
+	 *
+	 * @param p
+	 * @param inventory the new inventory, or null if p is left as it was
+	 * @param numDrained
+	 */
+	void drainFinished(DPoint p, Mzd inventory, int numDrained);
+
+
+	/*
+	 * Ignore everything
+	 */
+	DrainageListener NONE = new DrainageListener() {
+		public void drainStarted(DPoint p, String engine) { }
+		public void zeroRowSkipped(DPoint p, int row) { }
+		public void vertexFilled(DPoint p) { }
+		public void drainFinished(DPoint p, Mzd inventory, int numDrained) { }
+	};
+
+
+	/*
+	 * Print everything to stdout, the way drainVertex() always used to
+	 */
+	DrainageListener PRINT = new DrainageListener() {
+		public void drainStarted(DPoint p, String engine) {
+			System.out.println("----------------\n"+engine+"("+p+")");
+			System.out.println("initial inventory:");
+			for (Mzd v : p.M){
+				v.print();
+			}
+		}
+		public void zeroRowSkipped(DPoint p, int row) {
+			System.out.println("skipping row "+row+" because it is zero");
+		}
+		public void vertexFilled(DPoint p) {
+			System.out.println("WARNING: drainVertex() - simplex has unsupported cofaces - filling with standard basis");
+		}
+		public void drainFinished(DPoint p, Mzd inventory, int numDrained) {
+			if (inventory == null) {
+				System.out.println("inventory unchanged");
+				return;
+			}
+			System.out.println("new inventory:");
+			inventory.print();
+		}
+	};
+
+}
@@ -0,0 +1,248 @@
+/*
+ * DrainageRun.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Record of one drainage run, pass by pass.
+ *
+ * For each pass we keep the number of vectors drained, the time it took, the total
+ * inventory size and a histogram of the per-vertex inventory sizes afterwards, and
+ * optionally the dimension of vsCover() so we can check that draining didn't shrink
+ * the space the complex covers.  Entry 0 of the size and cover lists is the state
+ * before the first pass.
+ *
+ * This replaces collecting inventorySizes in the mains and scraping stdout.
+ * It can be written out as CSV (one line per pass) or JSON.
+ */
+
+import java.io.*;
+import java.util.*;
+
+
+public class DrainageRun {
+
+	final DrainageExperiment experiment;
+
+	// whether to compute vsCover() after every pass.  That can be expensive unless
+	// incremental cover maintenance is on.
+	final boolean checkCoverage;
+
+	// per pass
+	final ArrayList<Integer> drained = new ArrayList<Integer>();
+	final ArrayList<Long> passNanos = new ArrayList<Long>();
+
+	// per pass, plus the initial state in entry 0
+	final ArrayList<Integer> totalSizes = new ArrayList<Integer>();
+	final ArrayList<int[]> sizeHistograms = new ArrayList<int[]>();
+	final ArrayList<Integer> coverRanks = new ArrayList<Integer>();
+
+	// number of calls to drainVertex(), if the scheduler keeps track
+	int invocations = -1;
+
+
+	/**
+	 * Constructor
+	 * Records the state of the experiment before anything is drained.
+	 *
+	 * @param experiment
+	 * @param checkCoverage
+	 */
+	public DrainageRun(DrainageExperiment experiment, boolean checkCoverage) {
+		this.experiment = experiment;
+		this.checkCoverage = checkCoverage;
+		recordState();
+	}
+
+
+	/**
+	 * Snapshot the inventory sizes and coverage.
+	 */
+	private void recordState() {
+		int maxSize = 0;
+		for (DPoint p : experiment.points) {
+			maxSize = Math.max(maxSize, p.M.size());
+		}
+		int[] hist = new int[maxSize+1];
+		int total = 0;
+		for (DPoint p : experiment.points) {
+			hist[p.M.size()]++;
+			total += p.M.size();
+		}
+		totalSizes.add(total);
+		sizeHistograms.add(hist);
+		if (checkCoverage) {
+			coverRanks.add(experiment.maximalSimplices.vsCoverRank());
+		}
+	}
+
+
+	/**
+	 * Record the end of a pass.
+	 *
+	 * @param numDrained
+	 * @param nanos
+	 */
+	public void recordPass(int numDrained, long nanos) {
+		drained.add(numDrained);
+		passNanos.add(nanos);
+		recordState();
+	}
+
+
+	/**
+	 * Number of passes recorded.
+	 *
+	 * @return
+	 */
+	public int numPasses() {
+		return drained.size();
+	}
+
+
+	/**
+	 * Total number of vectors drained over all the passes.
+	 *
+	 * @return
+	 */
+	public int totalDrained() {
+		int t = 0;
+		for (int d : drained) {
+			t += d;
+		}
+		return t;
+	}
+
+
+	/**
+	 * Total time over all the passes in ms.
+	 *
+	 * @return
+	 */
+	public double totalMillis() {
+		long t = 0;
+		for (long n : passNanos) {
+			t += n;
+		}
+		return t/1.0e6;
+	}
+
+
+	/**
+	 * Check that the dimension of vsCover() never dropped below where it started.
+	 * Returns true if coverage wasn't checked.
+	 *
+	 * @return
+	 */
+	public boolean coveragePreserved() {
+		if (coverRanks.isEmpty()) {
+			return true;
+		}
+		int initial = coverRanks.get(0);
+		for (int r : coverRanks) {
+			if (r < initial) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * One line per pass, plus line 0 for the initial state.
+	 * The histogram is written as counts separated by semicolons, where the k-th
+	 * count is the number of vertices with k vectors.
+	 *
+	 * @return
+	 */
+	public String toCSV() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("pass,drained,millis,totalInventorySize,coverRank,sizeHistogram\n");
+		for (int i=0; i<totalSizes.size(); i++) {
+			sb.append(i).append(',');
+			if (i > 0) {
+				sb.append(drained.get(i-1)).append(',');
+				sb.append(passNanos.get(i-1)/1.0e6).append(',');
+			} else {
+				sb.append(",,");
+			}
+			sb.append(totalSizes.get(i)).append(',');
+			if (checkCoverage) {
+				sb.append(coverRanks.get(i));
+			}
+			sb.append(',');
+			int[] hist = sizeHistograms.get(i);
+			for (int k=0; k<hist.length; k++) {
+				if (k > 0) { sb.append(';'); }
+				sb.append(hist[k]);
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * The whole record as a JSON object.
+	 *
+	 * @return
+	 */
+	public String toJSON() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"vsDimension\": ").append(DrainageExperiment.vsDimension).append(",\n");
+		sb.append("  \"numPoints\": ").append(experiment.points.size()).append(",\n");
+		sb.append("  \"invocations\": ").append(invocations).append(",\n");
+		sb.append("  \"coveragePreserved\": ").append(coveragePreserved()).append(",\n");
+		sb.append("  \"drained\": ").append(drained).append(",\n");
+		sb.append("  \"passMillis\": [");
+		for (int i=0; i<passNanos.size(); i++) {
+			if (i > 0) { sb.append(", "); }
+			sb.append(passNanos.get(i)/1.0e6);
+		}
+		sb.append("],\n");
+		sb.append("  \"totalInventorySize\": ").append(totalSizes).append(",\n");
+		if (checkCoverage) {
+			sb.append("  \"coverRank\": ").append(coverRanks).append(",\n");
+		}
+		sb.append("  \"sizeHistograms\": [");
+		for (int i=0; i<sizeHistograms.size(); i++) {
+			if (i > 0) { sb.append(", "); }
+			sb.append(Arrays.toString(sizeHistograms.get(i)));
+		}
+		sb.append("]\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+
+	/**
+	 * Write the CSV or JSON version to a file, depending on whether the name ends in .json
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void write(String filename) throws IOException {
+		Writer w = new BufferedWriter(new FileWriter(filename));
+		try {
+			w.write(filename.endsWith(".json") ? toJSON() : toCSV());
+		} finally {
+			w.close();
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * DrainageScheduler.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Drain the vertices of a DrainageExperiment in parallel.
+ *
+ * Draining p reads the inventories of p's neighbors and writes the inventory of p.
+ * So two vertices at distance more than 2 can be drained at the same time without
+ * seeing each other's changes.  We compute a greedy distance-2 coloring of the
+ * neighbor graph, and each pass drains the color classes one after the other, with
+ * the vertices of one class planned in parallel on a thread pool.
+ *
+ * The planning uses DrainageExperiment.planDrainQuotient(), which does its linear
+ * algebra on the Java side.  The m4ri memory manager is not thread safe, so the
+ * plans are applied one at a time, in class order, after the whole class has been
+ * planned.  Since no plan in a class depends on another one in the same class,
+ * the result is exactly what you get from draining the vertices sequentially in
+ * color order, which is what drainPassSequential() does.
+ */
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class DrainageScheduler {
+
+	final DrainageExperiment experiment;
+
+	// the vertices, grouped by color, in the order they get drained
+	final ArrayList<ArrayList<DPoint>> colorClasses = new ArrayList<ArrayList<DPoint>>();
+
+	final int numThreads;
+	ExecutorService pool = null;
+
+
+	/**
+	 * Constructor
+	 * Call this after the neighbor sets and the Rips complex have been built.
+	 *
+	 * @param experiment
+	 * @param numThreads
+	 */
+	public DrainageScheduler(DrainageExperiment experiment, int numThreads) {
+		this.experiment = experiment;
+		this.numThreads = Math.max(1, numThreads);
+		if (this.numThreads > 1) {
+			this.pool = Executors.newFixedThreadPool(this.numThreads);
+		}
+		computeColoring();
+	}
+
+
+	/**
+	 * Greedy distance-2 coloring of the neighbor graph.
+	 * Each vertex gets the smallest color not used by anything within distance 2.
+	 */
+	void computeColoring() {
+		colorClasses.clear();
+		HashMap<DPoint,Integer> color = new HashMap<DPoint,Integer>();
+		BitSet used = new BitSet();
+		for (DPoint p : experiment.points) {
+			used.clear();
+			for (DPoint q : p.nbrs) {
+				Integer cq = color.get(q);
+				if (cq != null) { used.set(cq); }
+				for (DPoint r : q.nbrs) {
+					Integer cr = color.get(r);
+					if (cr != null && r != p) { used.set(cr); }
+				}
+			}
+			int c = used.nextClearBit(0);
+			color.put(p, c);
+			if (c == colorClasses.size()) {
+				colorClasses.add(new ArrayList<DPoint>());
+			}
+			colorClasses.get(c).add(p);
+		}
+	}
+
+
+	/**
+	 * Number of colors used by the schedule.
+	 *
+	 * @return
+	 */
+	public int numColors() {
+		return colorClasses.size();
+	}
+
+
+	/**
+	 * Drain every vertex once, one color class at a time.
+	 *
+	 * @param nVectors
+	 * @param fillVertices
+	 * @return the number of vectors drained
+	 */
+	public int drainPass(final int nVectors, final boolean fillVertices) {
+		if (pool == null) {
+			return drainPassSequential(nVectors, fillVertices);
+		}
+
+		int numDrained = 0;
+		for (ArrayList<DPoint> cc : colorClasses) {
+			ArrayList<Callable<DrainageExperiment.DrainPlan>> tasks = new ArrayList<Callable<DrainageExperiment.DrainPlan>>(cc.size());
+			for (final DPoint p : cc) {
+				tasks.add(new Callable<DrainageExperiment.DrainPlan>() {
+					public DrainageExperiment.DrainPlan call() {
+						return experiment.planDrainQuotient(p, nVectors, fillVertices);
+					}
+				});
+			}
+
+			List<Future<DrainageExperiment.DrainPlan>> plans = null;
+			try {
+				plans = pool.invokeAll(tasks);
+				for (Future<DrainageExperiment.DrainPlan> f : plans) {
+					numDrained += experiment.applyDrainPlan(f.get());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.out.println("ERROR: DrainageScheduler.drainPass() interrupted");
+				return numDrained;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return numDrained;
+	}
+
+
+	/**
+	 * The same pass as drainPass(), done in the calling thread.
+	 *
+	 * @param nVectors
+	 * @param fillVertices
+	 * @return the number of vectors drained
+	 */
+	public int drainPassSequential(int nVectors, boolean fillVertices) {
+		int numDrained = 0;
+		for (ArrayList<DPoint> cc : colorClasses) {
+			for (DPoint p : cc) {
+				numDrained += experiment.drainVertexQuotient(p, nVectors, fillVertices);
+			}
+		}
+		return numDrained;
+	}
+
+
+	/**
+	 * Keep making passes until a pass doesn't drain anything.
+	 *
+	 * @param nVectors
+	 * @param fillVertices
+	 * @param checkCoverage - record the dimension of vsCover() after each pass
+	 * @return
+	 */
+	public DrainageRun runDrainage(int nVectors, boolean fillVertices, boolean checkCoverage) {
+		DrainageRun run = new DrainageRun(experiment, checkCoverage);
+		int numDrained = 1;
+		while (numDrained > 0) {
+			long start = System.nanoTime();
+			numDrained = drainPass(nVectors, fillVertices);
+			run.recordPass(numDrained, System.nanoTime() - start);
+		}
+		run.invocations = run.numPasses() * experiment.points.size();
+		return run;
+	}
+
+
+	/**
+	 * Stop the thread pool.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * DrainageScratch.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Scratch matrices for drainVertex(), kept around between calls so the
+ * drainage loop doesn't have to go through the m4ri allocator for every vertex.
+ *
+ * The matrices only ever grow.  Instead of re-allocating we keep track of which
+ * rows might be non-zero and clear just those, by copying from a zero matrix.
+ * Zero rows don't change the rank of anything, so a matrix with extra zero rows
+ * at the bottom is as good as one of exactly the right size.
+ *
+ * The trials in drainVertex() are tested on the Java side.  Each coface sigma
+ * has a cached echelon basis of U_sigma, the span of its neighbors other than p.
+ * The inventory rows are reduced against it once, and we remember which
+ * combinations of rows reduce to zero, i.e. the kernel of the map from GF(2)^n to
+ * the quotient V/U_sigma.  A trial replaces rows i and j by row i + row j (or just
+ * drops row i when i=j), which keeps the rows spanning the quotient iff some kernel
+ * vector has different coefficients on i and j (a coefficient 1 on i when i=j).
+ * So a trial is a few bit tests per coface, and the reduction only has to be
+ * redone when a trial succeeds and the inventory really changes.
+ *
+ * Not thread safe.  Use one per thread, and remember that m4ri itself isn't
+ * thread safe either.
+ */
+
+import java.util.*;
+
+import m4rjni.Mzd;
+
+
+public class DrainageScratch {
+
+	final int vsDimension;
+
+	// the working copy of the inventory, and how many rows of it might be non-zero
+	Mzd BB = null;
+	int bbUsed = 0;
+
+	// the exclusive bases of the cofaces of the vertex being drained.  The rows
+	// are widened so the inventory rows can carry a tag after the vector part.
+	final ArrayList<BitBasis> cofaces = new ArrayList<BitBasis>();
+
+	// number of inventory rows, and where their tag bits start in a wide row
+	int numRows = 0;
+	int tagBase = 0;
+
+	// for each coface, the kernel vectors, as wide rows whose tags give the coefficients
+	final ArrayList<long[][]> kernels = new ArrayList<long[][]>();
+
+	// did the inventory, together with U_sigma, span V for every coface?
+	boolean allCovered = false;
+
+	// one wide row, for building the tagged inventory rows
+	private long[] wide = null;
+
+	// all zeros, for clearing rows of the others
+	Mzd zero = null;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param vsDimension
+	 */
+	public DrainageScratch(int vsDimension) {
+		this.vsDimension = vsDimension;
+		this.zero = new Mzd(vsDimension, vsDimension);
+	}
+
+
+	/**
+	 * Zero out rows [from, to) of M.
+	 *
+	 * @param M
+	 * @param from
+	 * @param to
+	 */
+	void clearRows(Mzd M, int from, int to) {
+		if (to <= from) { return; }
+		if (zero.getNrows() < to - from) {
+			zero.destroy();
+			zero = new Mzd(Math.max(to - from, 2*zero.getNrows()), vsDimension);
+		}
+		Mzd.copyRows(M, from, zero, 0, to - from);
+	}
+
+
+	/**
+	 * An all-zero matrix with room for at least nrows rows, to hold an inventory.
+	 * Its contents are only good until the next call.
+	 *
+	 * @param nrows
+	 * @return
+	 */
+	Mzd inventory(int nrows) {
+		if (BB == null || BB.getNrows() < nrows) {
+			int cap = (BB == null) ? nrows : Math.max(nrows, 2*BB.getNrows());
+			if (BB != null) { BB.destroy(); }
+			BB = new Mzd(Math.max(1, cap), vsDimension);
+		} else {
+			clearRows(BB, 0, bbUsed);
+		}
+		bbUsed = nrows;
+		return BB;
+	}
+
+
+	/**
+	 * Set up the trials for an inventory of n rows, against the exclusive bases
+	 * of the cofaces.  Call reduce() before the first trial.
+	 *
+	 * @param spans - the exclusive bases, each a BitBasis of dimension vsDimension
+	 * @param n
+	 */
+	void setCofaces(List<BitBasis> spans, int n) {
+		int words = BitBasis.numWords(vsDimension);
+		int wideWords = words + BitBasis.numWords(n);
+		numRows = n;
+		tagBase = 64*words;
+		wide = new long[wideWords];
+
+		cofaces.clear();
+		for (BitBasis U : spans) {
+			BitBasis W = new BitBasis(64*wideWords);
+			for (long[] u : U.rows()) {
+				Arrays.fill(wide, 0L);
+				System.arraycopy(u, 0, wide, 0, words);
+				W.add(wide);
+			}
+			cofaces.add(W);
+		}
+	}
+
+
+	/**
+	 * Reduce the inventory against every coface, and record the kernels.
+	 * This has to be redone whenever the inventory changes.
+	 *
+	 * @param rows - the packed inventory, numRows rows
+	 * @return true if the inventory supports every coface
+	 */
+	boolean reduce(long[][] rows) {
+		int words = BitBasis.numWords(vsDimension);
+		kernels.clear();
+		allCovered = true;
+		for (BitBasis W : cofaces) {
+			// tag row k with bit k after the vector part
+			BitBasis T = W.copy();
+			for (int k=0; k<numRows; k++) {
+				Arrays.fill(wide, 0L);
+				System.arraycopy(rows[k], 0, wide, 0, words);
+				wide[(tagBase+k) >>> 6] |= (1L << (tagBase+k));
+				T.add(wide, 0);
+			}
+
+			// the pivot of a row is its lowest bit, so the rows whose vector part
+			// reduced to zero have their pivot among the tags
+			int spanned = 0;
+			ArrayList<long[]> K = new ArrayList<long[]>();
+			for (int c=0; c<T.byPivot.length; c++) {
+				if (T.byPivot[c] == null) { continue; }
+				if (c < tagBase) {
+					spanned++;
+				} else {
+					K.add(T.byPivot[c]);
+				}
+			}
+			if (spanned < vsDimension) {
+				allCovered = false;
+			}
+			kernels.add(K.toArray(new long[K.size()][]));
+		}
+		return allCovered;
+	}
+
+
+	/**
+	 * Would the inventory still support every coface if rows i and j were
+	 * replaced by their sum, or if row i was dropped when i=j?
+	 * Uses the kernels from the last reduce().
+	 *
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	boolean canReplace(int i, int j) {
+		if (! allCovered) {
+			return false;
+		}
+		int bi = tagBase + i;
+		int bj = tagBase + j;
+		for (long[][] K : kernels) {
+			boolean found = false;
+			for (long[] a : K) {
+				long ai = (a[bi >>> 6] >>> bi) & 1L;
+				long aj = (i == j) ? 0L : ((a[bj >>> 6] >>> bj) & 1L);
+				if (ai != aj) {
+					found = true;
+					break;
+				}
+			}
+			if (! found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Free all the m4ri objects.
+	 */
+	public void destroy() {
+		if (BB != null) { BB.destroy(); BB = null; }
+		if (zero != null) { zero.destroy(); zero = null; }
+		cofaces.clear();
+		kernels.clear();
+	}
+
+}
@@ -0,0 +1,771 @@
+/*
+ * DynamicNetwork.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * A network where points can join, leave and move, with the Rips complex, the
+ * coverage complex and the DComplex of maximal simplices kept up to date as it
+ * changes, instead of being rebuilt from scratch.
+ *
+ * Whether a simplex is in the Rips complex depends on the edges between its
+ * vertices, and whether it is covered depends on the inventories of its vertices
+ * and their common neighbors.  So when p joins, leaves or moves, or its inventory
+ * changes, the only simplices that can change are the ones all of whose vertices
+ * are in the closed neighborhood of p (before or after the change).  Those are the
+ * only ones that get re-tested.  Everything is up to dimension 3, like
+ * CoverageExperiment.buildRipsComplex().
+ *
+ * The DComplex follows DrainageExperiment.buildRipsComplex(): all the 2-simplices,
+ * plus any 0 or 1-simplices that are maximal.  The ripsCofaces of the points are
+ * kept up to date too, so drainVertex() can be used on the network.
+ *
+ * The coverage test is done with BitBasis, so it doesn't allocate any m4ri matrices.
+ *
+ * javaplex streams can't be changed after finalizeStream(), so the streams are
+ * regenerated from the maintained simplex sets, and only when one is asked for
+ * after something changed.  That is linear in the size of the complex, with no
+ * neighbor set intersections or rank computations.
+ */
+
+import java.util.*;
+
+import m4rjni.Mzd;
+
+
+public class DynamicNetwork {
+
+	final int vsDimension;
+	final double radius;
+
+	// the points currently in the network
+	final Vector<DPoint> points = new Vector<DPoint>();
+	final HashMap<Integer,DPoint> byIndex = new HashMap<Integer,DPoint>();
+	final SpatialGrid grid;
+
+	// the space to be covered
+	final long[][] target;
+
+	// every simplex of the Rips complex, and whether it is in the coverage complex
+	final HashMap<Face,Boolean> covered = new HashMap<Face,Boolean>();
+
+	// the DComplex of maximal simplices.  The DSimplex of a face is looked up in
+	// its SimplexSet by the vertex indices.
+	// Building the DSimplex objects is most of the cost of an update, so this
+	// can be turned off when the network isn't going to be drained.
+	boolean maintainDComplex = true;
+	final DComplex maximalSimplices;
+
+	// streams generated from the sets above.  Null when out of date.
+	CompactSimplexStream ripsComplexStream = null;
+	CompactSimplexStream coverageComplexStream = null;
+	CompactSimplexStream coverageRipsComplexStream = null;
+
+	// number of Rips and coverage simplices of each dimension
+	final int[] numRips = new int[4];
+	final int[] numCovered = new int[4];
+
+	// statistics
+	long numRetested = 0;
+
+
+	/*
+	 * The sorted vertex indices of a simplex, for use as a hash key
+	 */
+	static final class Face {
+		final int[] v;
+
+		// the vertices, when the face was made from them.  Not part of the key.
+		final DPoint[] pts;
+
+		Face(int[] v) {
+			this.v = v;
+			this.pts = null;
+		}
+
+		Face(List<DPoint> verts) {
+			pts = verts.toArray(new DPoint[verts.size()]);
+			v = new int[pts.length];
+			for (int i=0; i<v.length; i++) {
+				v[i] = pts[i].index;
+			}
+			Arrays.sort(v);
+		}
+
+		int dimension() {
+			return v.length - 1;
+		}
+
+		// Arrays.hashCode() collides a lot on small indices that are close
+		// together, so mix each one in with a big odd multiplier
+		public int hashCode() {
+			long h = 0;
+			for (int i : v) {
+				h = (h + i) * 0x9E3779B97F4A7C15L;
+			}
+			return (int)(h ^ (h >>> 32));
+		}
+
+		public boolean equals(Object o) {
+			return (o instanceof Face) && Arrays.equals(v, ((Face)o).v);
+		}
+
+		public String toString() {
+			return Arrays.toString(v);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param vsDimension
+	 * @param radius
+	 * @param U - the vector space to be covered.  If null, the whole space.
+	 */
+	public DynamicNetwork(int vsDimension, double radius, Mzd U) {
+		this.vsDimension = vsDimension;
+		this.radius = radius;
+		this.grid = new SpatialGrid(radius);
+		this.maximalSimplices = new DComplex(vsDimension);
+		if (U == null) {
+			BitBasis V = new BitBasis(vsDimension);
+			long[] e = new long[BitBasis.numWords(vsDimension)];
+			for (int i=0; i<vsDimension; i++) {
+				e[i >>> 6] = (1L << i);
+				V.add(e);
+				e[i >>> 6] = 0;
+			}
+			this.target = V.rows();
+		} else {
+			this.target = BitBasis.fromMzd(U).rows();
+		}
+	}
+
+
+	/**
+	 * Turn maintenance of the DComplex and the points' ripsCofaces on or off.
+	 * Turning it back on rebuilds them from the current network.
+	 *
+	 * @param on
+	 */
+	public void setMaintainDComplex(boolean on) {
+		if (on == maintainDComplex) { return; }
+		maintainDComplex = on;
+		if (on) {
+			refresh(new ArrayList<Face>(covered.keySet()), true);
+		} else {
+			for (DSimplex ds : new ArrayList<DSimplex>(maximalSimplices.simplices)) {
+				removeDSimplex(ds);
+			}
+		}
+	}
+
+
+	/**
+	 * Add a point to the network.
+	 * Its neighbor set is filled in from the points already in the network.
+	 *
+	 * @param p
+	 */
+	public void addPoint(DPoint p) {
+		if (p.vsDimension != vsDimension) {
+			throw new IllegalArgumentException("DynamicNetwork.addPoint() - point has the wrong vector space dimension");
+		}
+		if (byIndex.containsKey(p.index)) {
+			System.out.println("WARNING: DynamicNetwork.addPoint() - point "+p.index+" is already in the network");
+			return;
+		}
+		for (DPoint q : grid.within(p.x, p.y, radius)) {
+			p.addNeighbor(q);
+		}
+		points.add(p);
+		byIndex.put(p.index, p);
+		grid.add(p);
+		refresh(closedStar(p), true);
+	}
+
+
+	/**
+	 * Remove a point from the network.
+	 * Its neighbor set is cleared, and it is removed from its neighbors' sets.
+	 *
+	 * @param p
+	 */
+	public void removePoint(DPoint p) {
+		if (byIndex.get(p.index) != p) {
+			System.out.println("WARNING: DynamicNetwork.removePoint() - point "+p.index+" is not in the network");
+			return;
+		}
+		HashSet<Face> affected = closedStar(p);
+		grid.remove(p);
+		byIndex.remove(p.index);
+		points.remove(p);
+		p.clearNeighbors();
+		refresh(affected, true);
+	}
+
+
+	/**
+	 * Move a point in the network to (x,y).
+	 *
+	 * @param p
+	 * @param x
+	 * @param y
+	 */
+	public void movePoint(DPoint p, double x, double y) {
+		moveAll(Collections.singletonList(p), new double[]{ x }, new double[]{ y });
+	}
+
+
+	/**
+	 * Move a set of points at once, point i going to (x[i],y[i]).
+	 * 
+	 * Only the edges that crossed the radius threshold are changed, and only the
+	 * simplices around their endpoints are re-tested.  A point that moved without
+	 * gaining or losing a neighbor costs nothing but the grid lookup.  Re-testing
+	 * is done once for the whole batch, so a simplex around several moving points
+	 * only gets tested once.
+	 *
+	 * @param pts
+	 * @param x
+	 * @param y
+	 * @return the number of edges that were added or removed
+	 */
+	public int moveAll(List<DPoint> pts, double[] x, double[] y) {
+		for (int i=0; i<pts.size(); i++) {
+			DPoint p = pts.get(i);
+			if (byIndex.get(p.index) != p) {
+				System.out.println("WARNING: DynamicNetwork.moveAll() - point "+p.index+" is not in the network");
+				continue;
+			}
+			grid.move(p, x[i], y[i]);
+		}
+
+		// find the edges that changed, from the moved points' side.
+		// If both ends moved, only record the edge from the one with the lower index.
+		HashSet<DPoint> moved = new HashSet<DPoint>(pts);
+		ArrayList<DPoint[]> lost = new ArrayList<DPoint[]>();
+		ArrayList<DPoint[]> gained = new ArrayList<DPoint[]>();
+		for (DPoint p : moved) {
+			if (byIndex.get(p.index) != p) { continue; }
+			ArrayList<DPoint> near = grid.neighborsOf(p, radius);
+			int numGained = 0;
+			for (DPoint q : near) {
+				if (! p.nbrs.contains(q)) {
+					numGained++;
+					if (p.index < q.index || ! moved.contains(q)) {
+						gained.add(new DPoint[]{ p, q });
+					}
+				}
+			}
+			// the old neighbors that are still near are near minus the ones gained
+			if (near.size() - numGained != p.nbrs.size()) {
+				HashSet<DPoint> nearSet = new HashSet<DPoint>(near);
+				for (DPoint q : p.nbrs) {
+					if (! nearSet.contains(q) && (p.index < q.index || ! moved.contains(q))) {
+						lost.add(new DPoint[]{ p, q });
+					}
+				}
+			}
+		}
+		if (lost.isEmpty() && gained.isEmpty()) {
+			// the complexes only depend on the neighbor graph
+			return 0;
+		}
+
+		// the removed edges are looked at before they are removed, and the added
+		// edges after they are added
+		HashSet<Face> affected = new HashSet<Face>();
+		for (DPoint[] e : lost) {
+			edgeStar(e[0], e[1], affected);
+		}
+		int changed = 0;
+		for (DPoint[] e : lost) {
+			if (e[0].removeNeighbor(e[1])) { changed++; }
+		}
+		for (DPoint[] e : gained) {
+			if (e[0].addNeighbor(e[1])) { changed++; }
+		}
+		for (DPoint[] e : gained) {
+			edgeStar(e[0], e[1], affected);
+		}
+		refresh(affected, true);
+		return changed;
+	}
+
+
+	/**
+	 * Add the edge between two points in the network, whatever their positions.
+	 * For callers that track the distances themselves, like KineticNeighborQueue.
+	 *
+	 * @param p
+	 * @param q
+	 * @return true if the edge wasn't already there
+	 */
+	public boolean addEdge(DPoint p, DPoint q) {
+		if (p == q || p.nbrs.contains(q)) {
+			return false;
+		}
+		p.addNeighbor(q);
+		HashSet<Face> affected = new HashSet<Face>();
+		edgeStar(p, q, affected);
+		refresh(affected, true);
+		return true;
+	}
+
+
+	/**
+	 * Remove the edge between two points in the network.
+	 *
+	 * @param p
+	 * @param q
+	 * @return true if the edge was there
+	 */
+	public boolean removeEdge(DPoint p, DPoint q) {
+		if (! p.nbrs.contains(q)) {
+			return false;
+		}
+		HashSet<Face> affected = new HashSet<Face>();
+		edgeStar(p, q, affected);
+		p.removeNeighbor(q);
+		refresh(affected, true);
+		return true;
+	}
+
+
+	/**
+	 * Tell the network that the inventory of p has changed.
+	 * The coverage of the simplices around p is re-tested.  The simplices
+	 * themselves don't change.
+	 *
+	 * @param p
+	 */
+	public void inventoryChanged(DPoint p) {
+		refresh(closedStar(p), false);
+		maximalSimplices.inventoryChanged(p);
+	}
+
+
+	/**
+	 * All the simplices, up to dimension 3, whose vertices are in the closed
+	 * neighborhood of p.  These are the only simplices whose membership in the
+	 * Rips or coverage complexes depends on p.
+	 *
+	 * @param p
+	 * @return
+	 */
+	HashSet<Face> closedStar(DPoint p) {
+		HashSet<Face> faces = new HashSet<Face>();
+		closedStar(p, faces);
+		return faces;
+	}
+
+
+	/**
+	 * Add the faces of closedStar(p) to a set.
+	 *
+	 * @param p
+	 * @param faces
+	 */
+	void closedStar(DPoint p, HashSet<Face> faces) {
+		ArrayList<DPoint> nbhd = new ArrayList<DPoint>(p.nbrs.size()+1);
+		nbhd.add(p);
+		nbhd.addAll(p.nbrs);
+		addCliques(nbhd, nbhd.size(), new ArrayList<DPoint>(4), 0, faces);
+	}
+
+
+	/**
+	 * Add the simplices that can change when the edge between u and w is added
+	 * or removed, as seen from the graph where the edge is present.
+	 * 
+	 * Those are the simplices containing u or w, all of whose other vertices are
+	 * neighbors of both.  Either the simplex contains the edge, or the other
+	 * endpoint is one of its common neighbors.
+	 *
+	 * @param u
+	 * @param w
+	 * @param faces
+	 */
+	void edgeStar(DPoint u, DPoint w, HashSet<Face> faces) {
+		ArrayList<DPoint> cand = new ArrayList<DPoint>();
+		cand.add(u);
+		cand.add(w);
+		DPoint small = (u.nbrs.size() < w.nbrs.size()) ? u : w;
+		DPoint big = (small == u) ? w : u;
+		for (DPoint q : small.nbrs) {
+			if (q != big && big.nbrs.contains(q)) {
+				cand.add(q);
+			}
+		}
+		// a clique starts with its first vertex in cand order, so requiring
+		// it to start with u or w gives exactly the cliques containing one of them
+		addCliques(cand, 2, new ArrayList<DPoint>(4), 0, faces);
+	}
+
+
+	/**
+	 * Add all the cliques of up to 4 points in cand, that extend clique and only
+	 * use points from position start on.  The first vertex of a clique has to be
+	 * before position firstEnd.
+	 *
+	 * @param cand
+	 * @param firstEnd
+	 * @param clique
+	 * @param start
+	 * @param faces
+	 */
+	private static void addCliques(ArrayList<DPoint> cand, int firstEnd, ArrayList<DPoint> clique, int start, HashSet<Face> faces) {
+		int end = clique.isEmpty() ? Math.min(firstEnd, cand.size()) : cand.size();
+		for (int i=start; i<end; i++) {
+			DPoint q = cand.get(i);
+			boolean adjacent = true;
+			for (DPoint c : clique) {
+				if (! c.nbrs.contains(q)) {
+					adjacent = false;
+					break;
+				}
+			}
+			if (! adjacent) { continue; }
+			clique.add(q);
+			faces.add(new Face(clique));
+			if (clique.size() < 4) {
+				addCliques(cand, firstEnd, clique, i+1, faces);
+			}
+			clique.remove(clique.size()-1);
+		}
+	}
+
+
+	/**
+	 * Re-test a set of faces against the current neighbor graph and inventories.
+	 *
+	 * @param faces
+	 * @param neighborsChanged - if false, only the coverage verdicts can have changed
+	 */
+	void refresh(Collection<Face> faces, boolean neighborsChanged) {
+		ArrayList<DPoint> verts = new ArrayList<DPoint>(4);
+		ArrayList<DPoint> common = new ArrayList<DPoint>();
+		for (Face f : faces) {
+			numRetested++;
+			if (! lookup(f, verts)) {
+				Boolean old = covered.remove(f);
+				if (old != null) {
+					count(f, old, -1);
+					streamsChanged();
+				}
+				removeDSimplex(f);
+				continue;
+			}
+
+			// the common neighbors.  nbrs never includes the point itself.
+			DPoint smallest = verts.get(0);
+			for (DPoint q : verts) {
+				if (q.nbrs.size() < smallest.nbrs.size()) { smallest = q; }
+			}
+			common.clear();
+			for (DPoint r : smallest.nbrs) {
+				boolean isCommon = true;
+				for (DPoint q : verts) {
+					if (q != smallest && ! q.nbrs.contains(r)) {
+						isCommon = false;
+						break;
+					}
+				}
+				if (isCommon) { common.add(r); }
+			}
+
+			Boolean c = isCovered(verts, common);
+			Boolean old = covered.put(f, c);
+			if (! c.equals(old)) {
+				if (old != null) {
+					count(f, old, -1);
+				}
+				count(f, c, 1);
+				streamsChanged();
+			}
+
+			if (! neighborsChanged || ! maintainDComplex) {
+				continue;
+			}
+			int dim = f.dimension();
+			if (dim == 2 || (dim < 2 && common.isEmpty())) {
+				DSimplex ds = maximalSimplices.simplices.getSimplex(f.v);
+				if (ds != null && ds.exclusiveNeighbors.size() == common.size()
+						&& ds.exclusiveNeighbors.containsAll(common)) {
+					continue;
+				}
+				// the common neighbors of the DSimplex changed
+				removeDSimplex(f);
+				ds = new DSimplex(verts);
+				maximalSimplices.addSimplex(ds);
+				for (DPoint q : verts) {
+					q.ripsCofaces.add(ds);
+				}
+			} else {
+				removeDSimplex(f);
+			}
+		}
+	}
+
+
+	/**
+	 * Update the simplex counts.
+	 *
+	 * @param f
+	 * @param isCovered
+	 * @param delta
+	 */
+	private void count(Face f, boolean isCovered, int delta) {
+		numRips[f.dimension()] += delta;
+		if (isCovered) {
+			numCovered[f.dimension()] += delta;
+		}
+	}
+
+
+	/**
+	 * Find the vertices of a face.
+	 *
+	 * @param f
+	 * @param verts - filled in with the vertices
+	 * @return false if the face isn't a simplex of the current Rips complex
+	 */
+	private boolean lookup(Face f, ArrayList<DPoint> verts) {
+		verts.clear();
+		for (int j=0; j<f.v.length; j++) {
+			DPoint q = (f.pts != null) ? f.pts[j] : byIndex.get(f.v[j]);
+			if (q == null) {
+				return false;
+			}
+			// a removed point has no neighbors, so it only needs checking on its own
+			if (f.v.length == 1 && byIndex.get(q.index) != q) {
+				return false;
+			}
+			for (DPoint r : verts) {
+				if (! r.nbrs.contains(q)) {
+					return false;
+				}
+			}
+			verts.add(q);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Do the vertices and their common neighbors together span the target space?
+	 * The same test as CoverageExperiment.isSimplexCovered().
+	 *
+	 * @param verts
+	 * @param common
+	 * @return
+	 */
+	boolean isCovered(List<DPoint> verts, Collection<DPoint> common) {
+		BitBasis span = BitBasis.span(verts, vsDimension);
+		if (span.rank < vsDimension) {
+			for (DPoint q : common) {
+				for (long[] v : q.packedBasis()) {
+					span.add(v);
+				}
+				if (span.rank == vsDimension) { break; }
+			}
+		}
+		for (long[] u : target) {
+			if (! span.inSpan(u)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Take a face out of the DComplex, if it is there.
+	 *
+	 * @param f
+	 */
+	private void removeDSimplex(Face f) {
+		DSimplex ds = maximalSimplices.simplices.getSimplex(f.v);
+		if (ds != null) {
+			removeDSimplex(ds);
+		}
+	}
+
+
+	/**
+	 * Take a simplex out of the DComplex and the ripsCofaces of its vertices.
+	 *
+	 * @param ds
+	 */
+	private void removeDSimplex(DSimplex ds) {
+		maximalSimplices.removeSimplex(ds);
+		for (DPoint q : ds.vertices) {
+			q.ripsCofaces.remove(ds);
+		}
+		ds.destroy();
+	}
+
+
+	/**
+	 * Throw away the generated streams.
+	 */
+	private void streamsChanged() {
+		ripsComplexStream = null;
+		coverageComplexStream = null;
+		coverageRipsComplexStream = null;
+	}
+
+
+	/**
+	 * Is this set of point indices a simplex of the Rips complex?
+	 *
+	 * @param indices
+	 * @return
+	 */
+	public boolean isRipsSimplex(int... indices) {
+		int[] v = indices.clone();
+		Arrays.sort(v);
+		return covered.containsKey(new Face(v));
+	}
+
+
+	/**
+	 * Is this set of point indices a simplex of the coverage complex?
+	 *
+	 * @param indices
+	 * @return
+	 */
+	public boolean isCoverageSimplex(int... indices) {
+		int[] v = indices.clone();
+		Arrays.sort(v);
+		return Boolean.TRUE.equals(covered.get(new Face(v)));
+	}
+
+
+	/**
+	 * Number of simplices in the Rips complex
+	 *
+	 * @return
+	 */
+	public int numRipsSimplices() {
+		return covered.size();
+	}
+
+
+	/**
+	 * Number of simplices of dimension dim in the Rips complex
+	 *
+	 * @param dim
+	 * @return
+	 */
+	public int numRipsSimplices(int dim) {
+		return numRips[dim];
+	}
+
+
+	/**
+	 * Number of simplices in the coverage complex
+	 *
+	 * @return
+	 */
+	public int numCoverageSimplices() {
+		int n = 0;
+		for (int c : numCovered) {
+			n += c;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Number of simplices of dimension dim in the coverage complex
+	 *
+	 * @param dim
+	 * @return
+	 */
+	public int numCoverageSimplices(int dim) {
+		return numCovered[dim];
+	}
+
+
+	/**
+	 * The Rips complex as a javaplex stream.
+	 *
+	 * @return
+	 */
+	public CompactSimplexStream ripsComplexStream() {
+		if (ripsComplexStream == null) {
+			ripsComplexStream = new CompactSimplexStream();
+			for (Face f : covered.keySet()) {
+				ripsComplexStream.addElement(f.v, 0);
+			}
+			ripsComplexStream.finalizeStream();
+		}
+		return ripsComplexStream;
+	}
+
+
+	/**
+	 * The coverage complex as a javaplex stream.
+	 *
+	 * @return
+	 */
+	public CompactSimplexStream coverageComplexStream() {
+		if (coverageComplexStream == null) {
+			coverageComplexStream = new CompactSimplexStream();
+			for (Map.Entry<Face,Boolean> e : covered.entrySet()) {
+				if (e.getValue()) {
+					coverageComplexStream.addElement(e.getKey().v, 0);
+				}
+			}
+			coverageComplexStream.finalizeStream();
+		}
+		return coverageComplexStream;
+	}
+
+
+	/**
+	 * The filtered complex with the coverage complex at filtration 0 and the
+	 * rest of the Rips complex at filtration 1.
+	 * The faces of a covered simplex are always covered, so no faces are missing.
+	 *
+	 * @return
+	 */
+	public CompactSimplexStream coverageRipsComplexStream() {
+		if (coverageRipsComplexStream == null) {
+			coverageRipsComplexStream = new CompactSimplexStream();
+			for (Map.Entry<Face,Boolean> e : covered.entrySet()) {
+				coverageRipsComplexStream.addElement(e.getKey().v, e.getValue() ? 0 : 1);
+			}
+			coverageRipsComplexStream.finalizeStream();
+		}
+		return coverageRipsComplexStream;
+	}
+
+
+	/**
+	 * Number of simplices re-tested so far.
+	 *
+	 * @return
+	 */
+	public long getNumRetested() {
+		return numRetested;
+	}
+
+}
@@ -23,9 +23,11 @@ package honcsim;
  */
 
 
-import java.util.Random;
+import java.util.ArrayList;
 import java.util.Vector;
 
+import m4rjni.Mzd;
+
 public class FencedCoverageSquare extends CoverageExperiment {
 
 	/*
@@ -36,7 +38,6 @@ public class FencedCoverageSquare extends CoverageExperiment {
 	double gridSpacing = 0.0;
 	int numPoints = 0;
 	int inventorySize = 0;
-	Random rng = null;
 
 	// add a parameter to keep the 'uniformly random' points from being too close together
 	double minSpacing = this.radius/3.0;
@@ -49,17 +50,43 @@ public class FencedCoverageSquare extends CoverageExperiment {
 	public FencedCoverageSquare(int height, int width, double spacing, int vsDimension, int npoints, int inventorySize) {
 		// call CoverageExperiment constructor
 		super(vsDimension, 1.0);
-
+		build(height, width, spacing, vsDimension, npoints, inventorySize);
+	}
+	
+	
+	/**
+	 * Constructor for reproducible runs.
+	 * All the randomness comes from seed, so the same seed gives the same run.
+	 * 
+	 */
+	public FencedCoverageSquare(int height, int width, double spacing, int vsDimension, int npoints, int inventorySize, long seed) {
+		this(height, width, spacing, vsDimension, npoints, inventorySize, seed, true);
+	}
+	
+	
+	/**
+	 * Constructor for reproducible runs, without the progress output if verbose is false.
+	 * 
+	 */
+	public FencedCoverageSquare(int height, int width, double spacing, int vsDimension, int npoints, int inventorySize, long seed, boolean verbose) {
+		super(vsDimension, 1.0, seed, verbose);
+		build(height, width, spacing, vsDimension, npoints, inventorySize);
+	}
+	
+	
+	/**
+	 * Place the points and build the complexes.
+	 */
+	private void build(int height, int width, double spacing, int vsDimension, int npoints, int inventorySize) {
 		this.vsDimension = vsDimension;
 		this.gridHeight = height;
 		this.gridWidth = width;
 		this.gridSpacing = spacing;
 		this.numPoints = npoints;
 		this.inventorySize = inventorySize;
-		this.rng = new Random();
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(2*gridHeight + 2*gridWidth - 2 + numPoints);
+		points = new PointStore(2*gridHeight + 2*gridWidth - 2 + numPoints);
 		
 		placeFullBasisFenceGrid(gridHeight, gridWidth, gridSpacing);
 		
@@ -73,15 +100,15 @@ public class FencedCoverageSquare extends CoverageExperiment {
 		// build the Rips complex
 		// In our case the rips complex is a javaplex object, and javaplex uses streams
 		this.buildRipsComplex();
-		System.out.println("Built Rips complex with "+ripsComplexStream.getSize()+" faces");
+		if (verbose) { System.out.println("Built Rips complex with "+ripsComplexStream.getSize()+" faces"); }
 		
 		// build the filtered RC-->R complex
 		this.buildCoverageRipsComplex(V);
-		System.out.println("Built filtered coverage-->Rips complex with "+coverageRipsComplexStream.getSize()+" faces");
+		if (verbose) { System.out.println("Built filtered coverage-->Rips complex with "+coverageRipsComplexStream.getSize()+" faces"); }
 
 		// build the coverage complex
 		this.buildCoverageComplex(V);
-		System.out.println("Built coverage complex with "+coverageComplexStream.getSize()+" faces");
+		if (verbose) { System.out.println("Built coverage complex with "+coverageComplexStream.getSize()+" faces"); }
 	}
 	
 	
@@ -99,8 +126,8 @@ public class FencedCoverageSquare extends CoverageExperiment {
 			// also this is REALLY inefficient, but this part not really worth optimizing
 			double xx = 0.0;  double yy = 0.0;
 			for (int t=0; t<100; t++) {
-				xx = origin[0]+rng.nextDouble()*width;
-				yy = origin[1]+rng.nextDouble()*height;
+				xx = origin[0]+layoutRng.nextDouble()*width;
+				yy = origin[1]+layoutRng.nextDouble()*height;
 				boolean tooClose = false;
 				for (DPoint p : points) {
 					if ((xx-p.x)*(xx-p.x)+(yy-p.y)*(yy-p.y) < r2) {
@@ -111,34 +138,56 @@ public class FencedCoverageSquare extends CoverageExperiment {
 				if (! tooClose) {
 					break;
 				}
-				if (t==99) {
+				if (t==99 && verbose) {
 					System.out.println("used up all the trial placements!!");
 				}
 			}
 			points.add(new DPoint(xx , yy, vsDimension));
 			for (int j=0; j<numVectors; j++) {
-				points.lastElement().addRandomInventoryVector();
+				points.lastElement().addRandomInventoryVector(inventoryRng);
 			}
 		}
 	}
 	
 	
 	private void placeFullBasisFenceGrid(int height, int width, double spacing) {
+		for (DPoint p : fullBasisFence(height, width, spacing, vsDimension, this.basis)) {
+			points.add(p);
+		}
+	}
+	
+	
+	/**
+	 * The fence around a height x width grid: the top and bottom rows, and then the
+	 * sides, each point holding the full basis.
+	 * Shared with MobilitySimulation, which puts the same fence in a DynamicNetwork.
+	 * 
+	 * @param height - number of fence nodes along a side
+	 * @param width
+	 * @param spacing - distance between fence nodes
+	 * @param vsDimension
+	 * @param basis - the vectors every fence node gets
+	 * @return
+	 */
+	static ArrayList<DPoint> fullBasisFence(int height, int width, double spacing, int vsDimension, Mzd[] basis) {
+		ArrayList<DPoint> fence = new ArrayList<DPoint>(2*height + 2*width);
+		
 		// add top and bottom rows
 		for (int i=0; i<width; i++) {
-			points.add(new DPoint(0, i*spacing, vsDimension));
-			points.lastElement().addInventoryVectors(this.basis);
-			points.add(new DPoint((height-1)*spacing, i*spacing, vsDimension));
-			points.lastElement().addInventoryVectors(this.basis);
+			fence.add(new DPoint(0, i*spacing, vsDimension));
+			fence.add(new DPoint((height-1)*spacing, i*spacing, vsDimension));
 		}
 		
 		// add sides
 		for (int i=1; i<(height-1); i++) {
-			points.add(new DPoint(i*spacing, 0, vsDimension));
-			points.lastElement().addInventoryVectors(this.basis);
-			points.add(new DPoint(i*spacing, (width-1)*spacing, vsDimension));
-			points.lastElement().addInventoryVectors(this.basis);
+			fence.add(new DPoint(i*spacing, 0, vsDimension));
+			fence.add(new DPoint(i*spacing, (width-1)*spacing, vsDimension));
+		}
+		
+		for (DPoint p : fence) {
+			p.addInventoryVectors(basis);
 		}
+		return fence;
 	}
 	
 	
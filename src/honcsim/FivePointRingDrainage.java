@@ -28,7 +28,7 @@ public class FivePointRingDrainage extends DrainageExperiment {
 	public FivePointRingDrainage(int dim) {
 		super(dim, 1.0);
 		
-		points = new Vector<DPoint>(5);
+		points = new PointStore(5);
 		double RADIUS = 0.8;
 		for (int i=0; i<5; i++) {
 			points.add(new DPoint(RADIUS*Math.cos(i*2.0*Math.PI/5.0), RADIUS*Math.sin(i*2.0*Math.PI/5.0), FivePointRingDrainage.vsDimension));
@@ -78,14 +78,18 @@ public class FivePointRingDrainage extends DrainageExperiment {
 	 */
 	public static void main(String[] args) {
 		
-		if (args.length != 1) {
-			System.out.println("usage: FivePointRingDrainage <vsDimension>");
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("usage: FivePointRingDrainage <vsDimension> [drainThreads]");
 			System.exit(0);
 		}
 		
 		int dim = Integer.parseInt(args[0]);
 		
+		// with a thread count, drain with the quotient engine on a DrainageScheduler
+		int drainThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+		
 		FivePointRingDrainage fprd = new FivePointRingDrainage(dim);
+		fprd.drainageListener = DrainageListener.PRINT;
 		
 		fprd.buildRipsComplex();
 		fprd.buildCoverageComplex(fprd.V);
@@ -102,21 +106,17 @@ public class FivePointRingDrainage extends DrainageExperiment {
 		}
 		*/
 		
-		int numDrained = 1;
-		int passnum = 0;
-		Vector<Integer> inventorySizes = new Vector<Integer>();
-		while (numDrained > 0) {
-			System.out.println("\n*************** Pass # "+passnum+" **************");
-			inventorySizes.add(fprd.totalInventorySize());
-			numDrained = 0;
-			for (DPoint p : fprd.points) {
-				numDrained += fprd.drainVertex(p,Math.max(1, fprd.vsDimension/10), true);
-			}
-			System.out.println("\n**** pass #"+passnum+": drained "+numDrained+" vectors total\n\n");
-			passnum++;
+		DrainageRun run = null;
+		if (drainThreads > 0) {
+			DrainageScheduler scheduler = new DrainageScheduler(fprd, drainThreads);
+			run = scheduler.runDrainage(Math.max(1, DrainageExperiment.vsDimension/10), true, true);
+			scheduler.shutdown();
+		} else {
+			run = fprd.runDrainage(Math.max(1, DrainageExperiment.vsDimension/10), true, true);
 		}
+		System.out.println(run.toCSV());
 		System.out.println("Total inventory change:");
-		for (Integer x : inventorySizes) {
+		for (Integer x : run.totalSizes) {
 			System.out.println(x);
 		}
 	}
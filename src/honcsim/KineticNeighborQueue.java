@@ -0,0 +1,410 @@
+/*
+ * KineticNeighborQueue.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Kinetic maintenance of the neighbor graph of a DynamicNetwork whose points move
+ * in straight lines at constant velocity.
+ *
+ * For two points moving linearly, the squared distance between them is a quadratic
+ * in time, so the times when they come within radius of each other or leave it are
+ * the roots of a quadratic.  We compute these crossing times for every pair that
+ * could possibly meet within a time horizon and keep them in a priority queue.
+ * Advancing the clock processes the crossings in time order, each one adding or
+ * removing a single edge with DynamicNetwork.addEdge()/removeEdge(), which re-tests
+ * the coverage of just the simplices around that edge.  Nothing looks at a pair of
+ * points between their crossings, so a slowly moving network costs next to nothing
+ * per tick, where the time-stepped MobilitySimulation re-scans everyone's
+ * neighbors every step.
+ *
+ * The candidate pairs are the ones within radius + 2*maxSpeed*horizon of each
+ * other, found with a SpatialGrid of that cell size.  When the clock reaches the end
+ * of the horizon everything is rebuilt from the current positions, which also
+ * fixes any edges that floating point error may have gotten wrong.
+ *
+ * Changing a point's velocity invalidates its pending events through a version
+ * number, and schedules new ones with its candidates.  The points' x and y, and
+ * their cells in the network's grid, are brought up to date by advanceTo().
+ * Points added to the network only get events after the next rebuild.
+ */
+
+import java.util.*;
+
+
+public class KineticNeighborQueue {
+
+	final DynamicNetwork network;
+	final double radius;
+	final double horizon;
+
+	// the largest speed of any point.  Candidate pairs depend on this.
+	double maxSpeed = 0.0;
+
+	double now = 0.0;
+	double horizonEnd = 0.0;
+
+	// bumped on every rebuild, so all the old events become stale
+	int epoch = 0;
+
+	final HashMap<DPoint,Motion> motions = new HashMap<DPoint,Motion>();
+	final HashMap<DPoint,ArrayList<DPoint>> candidates = new HashMap<DPoint,ArrayList<DPoint>>();
+	final PriorityQueue<Event> queue = new PriorityQueue<Event>();
+
+	// statistics
+	long numEvents = 0;
+	long numStale = 0;
+	int numRebuilds = 0;
+
+
+	/*
+	 * The trajectory of one point: at time t0 it was at (x0,y0), moving at (vx,vy)
+	 */
+	static class Motion {
+		double x0, y0, t0;
+		double vx, vy;
+		int version = 0;
+
+		double x(double t) {
+			return x0 + vx*(t - t0);
+		}
+
+		double y(double t) {
+			return y0 + vy*(t - t0);
+		}
+	}
+
+
+	/*
+	 * A predicted crossing of the radius by a pair of points
+	 */
+	static class Event implements Comparable<Event> {
+		final DPoint p, q;
+		final double time;
+		final boolean entering;
+		final int pVersion, qVersion, epoch;
+
+		Event(DPoint p, DPoint q, double time, boolean entering, int pVersion, int qVersion, int epoch) {
+			this.p = p;
+			this.q = q;
+			this.time = time;
+			this.entering = entering;
+			this.pVersion = pVersion;
+			this.qVersion = qVersion;
+			this.epoch = epoch;
+		}
+
+		// earliest first, then by index so the order is reproducible
+		public int compareTo(Event e) {
+			if (time != e.time) {
+				return Double.compare(time, e.time);
+			}
+			if (p.index != e.p.index) {
+				return Integer.compare(p.index, e.p.index);
+			}
+			return Integer.compare(q.index, e.q.index);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * All the points in the network start out standing still at time 0.
+	 *
+	 * @param network
+	 * @param horizon - how far ahead to predict events before rebuilding
+	 */
+	public KineticNeighborQueue(DynamicNetwork network, double horizon) {
+		if (horizon <= 0) {
+			throw new IllegalArgumentException("KineticNeighborQueue horizon must be positive");
+		}
+		this.network = network;
+		this.radius = network.radius;
+		this.horizon = horizon;
+		rebuild();
+	}
+
+
+	/**
+	 * The motion of p, creating one for a point that is standing still if needed.
+	 *
+	 * @param p
+	 * @return
+	 */
+	Motion motion(DPoint p) {
+		Motion m = motions.get(p);
+		if (m == null) {
+			m = new Motion();
+			m.x0 = p.x;
+			m.y0 = p.y;
+			m.t0 = now;
+			motions.put(p, m);
+		}
+		return m;
+	}
+
+
+	/**
+	 * Give p a new velocity, starting now.
+	 *
+	 * @param p
+	 * @param vx
+	 * @param vy
+	 */
+	public void setVelocity(DPoint p, double vx, double vy) {
+		Motion m = motion(p);
+		syncPosition(p);
+		m.x0 = m.x(now);
+		m.y0 = m.y(now);
+		m.t0 = now;
+		m.vx = vx;
+		m.vy = vy;
+		m.version++;
+
+		double speed = Math.sqrt(vx*vx + vy*vy);
+		if (speed > maxSpeed) {
+			// the candidate pairs aren't good enough any more
+			maxSpeed = speed;
+			rebuild();
+			return;
+		}
+		ArrayList<DPoint> cands = candidates.get(p);
+		if (cands != null) {
+			for (DPoint q : cands) {
+				schedule(p, q);
+			}
+		}
+	}
+
+
+	/**
+	 * Predict the crossings of p and q between now and the end of the horizon,
+	 * and put them in the queue.
+	 *
+	 * @param p
+	 * @param q
+	 */
+	void schedule(DPoint p, DPoint q) {
+		Motion mp = motion(p);
+		Motion mq = motion(q);
+
+		// relative position now, and relative velocity
+		double dx = mq.x(now) - mp.x(now);
+		double dy = mq.y(now) - mp.y(now);
+		double dvx = mq.vx - mp.vx;
+		double dvy = mq.vy - mp.vy;
+
+		// |d + dv*s|^2 = r^2
+		double a = dvx*dvx + dvy*dvy;
+		if (a == 0) { return; }
+		double b = 2*(dx*dvx + dy*dvy);
+		double c = dx*dx + dy*dy - radius*radius;
+		double disc = b*b - 4*a*c;
+		if (disc <= 0) { return; }
+		double sq = Math.sqrt(disc);
+		double s1 = (-b - sq)/(2*a);
+		double s2 = (-b + sq)/(2*a);
+
+		if (s1 > 0 && now + s1 <= horizonEnd) {
+			queue.add(new Event(p, q, now + s1, true, mp.version, mq.version, epoch));
+		}
+		if (s2 > 0 && now + s2 <= horizonEnd) {
+			queue.add(new Event(p, q, now + s2, false, mp.version, mq.version, epoch));
+		}
+	}
+
+
+	/**
+	 * Start a new horizon from the current positions.
+	 * Fixes up the edges, finds the candidate pairs and predicts their events.
+	 */
+	void rebuild() {
+		numRebuilds++;
+		epoch++;
+		queue.clear();
+		candidates.clear();
+		syncPositions();
+
+		// make the edges agree with the positions
+		for (DPoint p : network.points) {
+			for (DPoint q : network.grid.neighborsOf(p, radius)) {
+				network.addEdge(p, q);
+			}
+			for (DPoint q : new ArrayList<DPoint>(p.nbrs)) {
+				double d2 = (p.x-q.x)*(p.x-q.x) + (p.y-q.y)*(p.y-q.y);
+				if (d2 > radius*radius) {
+					network.removeEdge(p, q);
+				}
+			}
+		}
+
+		horizonEnd = now + horizon;
+		double reach = radius + 2*maxSpeed*horizon;
+		SpatialGrid reachGrid = new SpatialGrid(reach);
+		for (DPoint p : network.points) {
+			reachGrid.add(p);
+		}
+		for (DPoint p : network.points) {
+			for (DPoint q : reachGrid.neighborsOf(p, reach)) {
+				if (p.index >= q.index) { continue; }
+				addCandidate(p, q);
+				addCandidate(q, p);
+				schedule(p, q);
+			}
+		}
+	}
+
+
+	private void addCandidate(DPoint p, DPoint q) {
+		ArrayList<DPoint> cands = candidates.get(p);
+		if (cands == null) {
+			cands = new ArrayList<DPoint>();
+			candidates.put(p, cands);
+		}
+		cands.add(q);
+	}
+
+
+	/**
+	 * Move p to where it is now, in the network's grid too.
+	 *
+	 * @param p
+	 */
+	private void syncPosition(DPoint p) {
+		Motion m = motions.get(p);
+		if (m == null || (m.vx == 0 && m.vy == 0)) {
+			return;
+		}
+		network.grid.move(p, m.x(now), m.y(now));
+	}
+
+
+	/**
+	 * Move every point to where it is now.
+	 */
+	private void syncPositions() {
+		for (DPoint p : network.points) {
+			syncPosition(p);
+		}
+	}
+
+
+	/**
+	 * Process all the events up to time t, and move the points there.
+	 *
+	 * @param t
+	 * @return the number of edges added or removed
+	 */
+	public int advanceTo(double t) {
+		int changed = 0;
+		while (true) {
+			double stop = Math.min(t, horizonEnd);
+			while (! queue.isEmpty() && queue.peek().time <= stop) {
+				Event e = queue.poll();
+				if (e.epoch != epoch || e.pVersion != motion(e.p).version || e.qVersion != motion(e.q).version
+						|| network.byIndex.get(e.p.index) != e.p || network.byIndex.get(e.q.index) != e.q) {
+					numStale++;
+					continue;
+				}
+				numEvents++;
+				now = e.time;
+				syncPosition(e.p);
+				syncPosition(e.q);
+				boolean c = e.entering ? network.addEdge(e.p, e.q) : network.removeEdge(e.p, e.q);
+				if (c) { changed++; }
+			}
+			if (t <= horizonEnd) {
+				break;
+			}
+			now = horizonEnd;
+			rebuild();
+		}
+		now = t;
+		syncPositions();
+		return changed;
+	}
+
+
+	/**
+	 * The current simulation time
+	 *
+	 * @return
+	 */
+	public double getTime() {
+		return now;
+	}
+
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("usage: KineticNeighborQueue <numNodes> <duration> <speed> [horizon] [vsDim] [vectors-per-node] [seed]\n");
+			System.exit(0);
+		}
+		int numNodes = Integer.parseInt(args[0]);
+		double duration = Double.parseDouble(args[1]);
+		double speed = Double.parseDouble(args[2]);
+		double horizon = (args.length > 3) ? Double.parseDouble(args[3]) : 1.0/speed;
+		int vsDim = (args.length > 4) ? Integer.parseInt(args[4]) : 4;
+		int inventorySize = (args.length > 5) ? Integer.parseInt(args[5]) : 2;
+		long seed = (args.length > 6) ? Long.parseLong(args[6]) : System.nanoTime();
+
+		Random rng = new Random(seed);
+
+		// same domain as MobilitySimulation
+		double spacing = 0.9;
+		int side = (int)Math.ceil(Math.sqrt(numNodes/2.0)/spacing) + 1;
+		MobilitySimulation sim = MobilitySimulation.fencedSquare(side, side, spacing, vsDim, numNodes, inventorySize,
+				new RandomWaypoint(speed, speed, 0.0), 1.0, rng);
+		double[] bounds = sim.bounds;
+
+		long start = System.nanoTime();
+		KineticNeighborQueue kq = new KineticNeighborQueue(sim.network, horizon);
+		for (DPoint p : sim.mobile) {
+			double theta = 2*Math.PI*rng.nextDouble();
+			kq.setVelocity(p, speed*Math.cos(theta), speed*Math.sin(theta));
+		}
+		System.out.println("Set up kinetic queue in "+(System.nanoTime()-start)/1.0e6+" ms, "+kq.queue.size()+" events pending");
+
+		// advance one time unit at a time, bouncing the nodes off the walls
+		System.out.println("time\tedgeChanges\tevents\tuncovered0\tuncovered1\tuncovered2\tuncovered3");
+		start = System.nanoTime();
+		for (double t=1.0; t<=duration; t+=1.0) {
+			int changed = kq.advanceTo(t);
+			for (DPoint p : sim.mobile) {
+				Motion m = kq.motion(p);
+				boolean bx = (p.x < bounds[0] && m.vx < 0) || (p.x > bounds[2] && m.vx > 0);
+				boolean by = (p.y < bounds[1] && m.vy < 0) || (p.y > bounds[3] && m.vy > 0);
+				if (bx || by) {
+					kq.setVelocity(p, bx ? -m.vx : m.vx, by ? -m.vy : m.vy);
+				}
+			}
+			int[] u = sim.uncovered();
+			System.out.println(t+"\t"+changed+"\t"+kq.numEvents+"\t"+u[0]+"\t"+u[1]+"\t"+u[2]+"\t"+u[3]);
+		}
+		double secs = (System.nanoTime()-start)/1.0e9;
+		System.out.println("time units/sec: "+(duration/secs)+"  ("+kq.numEvents+" events, "+kq.numStale+" stale, "
+				+kq.numRebuilds+" rebuilds)");
+	}
+
+}
@@ -44,7 +44,7 @@ public class LayeredLoop extends CoverageExperiment {
 		super(vsDimension, 1.0);
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(15);
+		points = new PointStore(15);
 		DPoint p = null;
 		
 		// the loop edge [X Y]
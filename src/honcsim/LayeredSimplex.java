@@ -46,7 +46,7 @@ public class LayeredSimplex extends CoverageExperiment {
 		super(vsDimension, 1.0);
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(9);
+		points = new PointStore(9);
 		
 		// the elevated triangle
 		double r1 = Math.sqrt(3)/3-0.001;
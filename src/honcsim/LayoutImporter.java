@@ -0,0 +1,540 @@
+/*
+ * LayoutImporter.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Import a node layout from a CSV file.
+ *
+ * Real deployments come as big text files, one node per line.  The columns are
+ * named in an optional header line; without a header they are id,x,y,inventory.
+ * Recognized columns are:
+ *
+ *     id         a long, kept in the ids array
+ *     x, y       the location
+ *     radius     the node's communication radius.  Two nodes are neighbors if
+ *                their distance is at most the smaller of their radii.
+ *     inventory  the node's vectors, separated by ';' or spaces.  Each vector is
+ *                either a string of 0s and 1s, coordinate 0 first, or a hex
+ *                number starting with 0x, coordinate 0 in the lowest bit.
+ *
+ * Other columns are skipped.  Blank lines and lines starting with # are ignored.
+ * Quoted fields are not supported.
+ *
+ * The file is read through a window memory-mapped from it, and the fields are
+ * parsed straight out of the mapped bytes, so nothing is copied into Strings and
+ * the memory used while parsing doesn't grow with the size of the file.  Each
+ * node goes straight into a DPoint and into a SpatialGrid, which is then used to
+ * find the neighbor sets.
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import m4rjni.Mzd;
+
+
+public class LayoutImporter {
+
+	static final int ID = 0, X = 1, Y = 2, RADIUS = 3, INVENTORY = 4, SKIP = -1;
+
+	// size of the mapped window.  A line can't be longer than this.
+	static final int WINDOW = 1 << 28;
+
+	// exact powers of ten, for the fast path of parseDouble()
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1.0;
+		for (int i=1; i<POW10.length; i++) {
+			POW10[i] = 10.0*POW10[i-1];
+		}
+	}
+
+	final int vsDimension;
+	final int words;
+	double radius;
+
+	// what each column holds
+	int[] columns = { ID, X, Y, INVENTORY };
+
+	final Vector<DPoint> points = new Vector<DPoint>();
+	long[] ids = new long[1024];
+
+	// per-node radius, if the file has a radius column
+	double[] radii = null;
+
+	SpatialGrid grid = null;
+
+	// for error messages
+	long lineNumber = 0;
+	boolean haveHeader = false;
+
+	// scratch space for the inventory of one node
+	private final ArrayList<long[]> vectors = new ArrayList<long[]>();
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param vsDimension
+	 * @param radius - the radius of nodes without a radius column, and the
+	 *                 smallest grid cell size
+	 */
+	public LayoutImporter(int vsDimension, double radius) {
+		this.vsDimension = vsDimension;
+		this.words = BitBasis.numWords(vsDimension);
+		this.radius = radius;
+	}
+
+
+	/**
+	 * Read a layout file and find the neighbor sets.
+	 * The DPoints get their indices in the order of the file, or along a Hilbert
+	 * curve if CoverageExperiment.hilbertOrder is set.  getIds() follows either way.
+	 *
+	 * @param f
+	 * @return the layout, with neighbor sets but no complexes
+	 * @throws IOException
+	 */
+	public CoverageLayout importLayout(File f) throws IOException {
+		read(f);
+		CoverageLayout layout = new CoverageLayout(vsDimension, radius, 0, points);
+		linkNeighbors(layout);
+		return layout;
+	}
+
+
+	/**
+	 * Parse the file into points, one window at a time.
+	 *
+	 * @param f
+	 * @throws IOException
+	 */
+	void read(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			long pos = 0;
+			while (pos < size) {
+				int len = (int)Math.min(WINDOW, size - pos);
+				MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				int end = len;
+				if (pos + len < size) {
+					// stop after the last complete line in the window
+					while (end > 0 && buf.get(end-1) != '\n') {
+						end--;
+					}
+					if (end == 0) {
+						throw new IOException("LayoutImporter: line "+(lineNumber+1)+" is longer than "+WINDOW+" bytes");
+					}
+				}
+				int start = 0;
+				while (start < end) {
+					int nl = start;
+					while (nl < end && buf.get(nl) != '\n') {
+						nl++;
+					}
+					lineNumber++;
+					parseLine(buf, start, nl);
+					start = nl+1;
+				}
+				pos += end;
+			}
+		} finally {
+			raf.close();
+		}
+		if (grid == null) {
+			grid = new SpatialGrid(radius);
+		}
+	}
+
+
+	/**
+	 * Parse one line, bytes [start,end) of the buffer.
+	 *
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	void parseLine(MappedByteBuffer buf, int start, int end) throws IOException {
+		if (end > start && buf.get(end-1) == '\r') {
+			end--;
+		}
+		while (start < end && buf.get(start) == ' ') {
+			start++;
+		}
+		if (start == end || buf.get(start) == '#') {
+			return;
+		}
+
+		// a first line that doesn't start with a number is the header
+		byte b = buf.get(start);
+		if (points.isEmpty() && ! haveHeader && ! (b == '-' || b == '+' || b == '.' || (b >= '0' && b <= '9'))) {
+			parseHeader(buf, start, end);
+			return;
+		}
+
+		long id = points.size();
+		double x = Double.NaN, y = Double.NaN, r = radius;
+		vectors.clear();
+		int col = 0;
+		int fs = start;
+		while (fs <= end) {
+			int fe = fs;
+			while (fe < end && buf.get(fe) != ',') {
+				fe++;
+			}
+			int type = (col < columns.length) ? columns[col] : SKIP;
+			switch (type) {
+			case ID:        id = parseLong(buf, fs, fe); break;
+			case X:         x = parseDouble(buf, fs, fe); break;
+			case Y:         y = parseDouble(buf, fs, fe); break;
+			case RADIUS:    r = parseDouble(buf, fs, fe); break;
+			case INVENTORY: parseInventory(buf, fs, fe); break;
+			default:        break;
+			}
+			col++;
+			fs = fe+1;
+		}
+		if (Double.isNaN(x) || Double.isNaN(y)) {
+			throw new IOException("LayoutImporter: line "+lineNumber+" has no location");
+		}
+
+		DPoint p = new DPoint(x, y, vsDimension);
+		if (! vectors.isEmpty()) {
+			Mzd M = BitBasis.toMzd(vectors.toArray(new long[vectors.size()][]), vsDimension);
+			p.setInventory(M);
+			M.destroy();
+		}
+
+		int n = points.size();
+		if (n == ids.length) {
+			ids = Arrays.copyOf(ids, 2*n);
+			if (radii != null) {
+				radii = Arrays.copyOf(radii, 2*n);
+			}
+		}
+		ids[n] = id;
+		if (radii != null) {
+			radii[n] = r;
+			if (r > radius) {
+				throw new IOException("LayoutImporter: line "+lineNumber+" has radius "+r+", larger than the maximum "+radius);
+			}
+		}
+		points.add(p);
+		if (grid == null) {
+			grid = new SpatialGrid(radius);
+		}
+		grid.add(p);
+	}
+
+
+	/**
+	 * Read the column names.
+	 */
+	void parseHeader(MappedByteBuffer buf, int start, int end) {
+		haveHeader = true;
+		ArrayList<Integer> cols = new ArrayList<Integer>();
+		int fs = start;
+		while (fs <= end) {
+			int fe = fs;
+			StringBuilder sb = new StringBuilder();
+			while (fe < end && buf.get(fe) != ',') {
+				sb.append((char)buf.get(fe));
+				fe++;
+			}
+			String name = sb.toString().trim().toLowerCase();
+			if (name.equals("id")) {
+				cols.add(ID);
+			} else if (name.equals("x")) {
+				cols.add(X);
+			} else if (name.equals("y")) {
+				cols.add(Y);
+			} else if (name.equals("radius") || name.equals("r")) {
+				cols.add(RADIUS);
+				radii = new double[ids.length];
+			} else if (name.equals("inventory")) {
+				cols.add(INVENTORY);
+			} else {
+				cols.add(SKIP);
+			}
+			fs = fe+1;
+		}
+		columns = new int[cols.size()];
+		for (int i=0; i<columns.length; i++) {
+			columns[i] = cols.get(i);
+		}
+	}
+
+
+	/**
+	 * Parse the vectors of an inventory field into the vectors scratch list.
+	 *
+	 * @throws IOException
+	 */
+	void parseInventory(MappedByteBuffer buf, int start, int end) throws IOException {
+		int i = start;
+		while (i < end) {
+			byte b = buf.get(i);
+			if (b == ' ' || b == ';') {
+				i++;
+				continue;
+			}
+			long[] v = new long[words];
+			if (b == '0' && i+1 < end && (buf.get(i+1) == 'x' || buf.get(i+1) == 'X')) {
+				// hex, lowest bit last
+				int ve = i+2;
+				while (ve < end && buf.get(ve) != ' ' && buf.get(ve) != ';') {
+					ve++;
+				}
+				int bit = 0;
+				for (int k=ve-1; k>=i+2; k--, bit+=4) {
+					int d = Character.digit(buf.get(k), 16);
+					if (d < 0) {
+						throw new IOException("LayoutImporter: line "+lineNumber+": bad hex vector");
+					}
+					for (int j=0; j<4; j++) {
+						if ((d & (1 << j)) != 0) {
+							setBit(v, bit+j);
+						}
+					}
+				}
+				i = ve;
+			} else {
+				// bit string, coordinate 0 first
+				int c = 0;
+				while (i < end && (b = buf.get(i)) != ' ' && b != ';') {
+					if (b == '1') {
+						setBit(v, c);
+					} else if (b != '0') {
+						throw new IOException("LayoutImporter: line "+lineNumber+": bad bit string vector");
+					}
+					c++;
+					i++;
+				}
+			}
+			vectors.add(v);
+		}
+	}
+
+
+	private void setBit(long[] v, int c) throws IOException {
+		if (c >= vsDimension) {
+			throw new IOException("LayoutImporter: line "+lineNumber+": vector has more than "+vsDimension+" coordinates");
+		}
+		v[c >>> 6] |= (1L << c);
+	}
+
+
+	/**
+	 * Parse an integer out of bytes [start,end).
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	long parseLong(MappedByteBuffer buf, int start, int end) throws IOException {
+		while (start < end && buf.get(start) == ' ') { start++; }
+		while (end > start && buf.get(end-1) == ' ') { end--; }
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+			negative = buf.get(i) == '-';
+			i++;
+		}
+		if (i == end) {
+			throw new IOException("LayoutImporter: line "+lineNumber+": missing id");
+		}
+		long n = 0;
+		for (; i < end; i++) {
+			byte b = buf.get(i);
+			if (b < '0' || b > '9') {
+				throw new IOException("LayoutImporter: line "+lineNumber+": bad id");
+			}
+			n = 10*n + (b - '0');
+		}
+		return negative ? -n : n;
+	}
+
+
+	/**
+	 * Parse a decimal number out of bytes [start,end).
+	 * Numbers with at most 15 digits and a small exponent are converted exactly
+	 * without making a String; anything else goes to Double.parseDouble().
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	double parseDouble(MappedByteBuffer buf, int start, int end) throws IOException {
+		while (start < end && buf.get(start) == ' ') { start++; }
+		while (end > start && buf.get(end-1) == ' ') { end--; }
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+			negative = buf.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean point = false, fast = true, any = false;
+		for (; i < end; i++) {
+			byte b = buf.get(i);
+			if (b >= '0' && b <= '9') {
+				any = true;
+				if (mantissa != 0 || b != '0') {
+					digits++;
+				}
+				mantissa = 10*mantissa + (b - '0');
+				if (point) { scale++; }
+			} else if (b == '.' && ! point) {
+				point = true;
+			} else {
+				// exponent or something else
+				fast = false;
+				break;
+			}
+		}
+		if (fast && any && digits <= 15 && scale < POW10.length) {
+			double d = mantissa / POW10[scale];
+			return negative ? -d : d;
+		}
+
+		byte[] bytes = new byte[end-start];
+		for (int k=0; k<bytes.length; k++) {
+			bytes[k] = buf.get(start+k);
+		}
+		try {
+			return Double.parseDouble(new String(bytes, "US-ASCII"));
+		} catch (NumberFormatException e) {
+			throw new IOException("LayoutImporter: line "+lineNumber+": bad number "+new String(bytes, "US-ASCII"));
+		}
+	}
+
+
+	/**
+	 * Fill in the neighbor sets of the layout from the grid.
+	 *
+	 * @param layout
+	 */
+	void linkNeighbors(CoverageLayout layout) {
+		// sort here and not in computeNeighborSet(), since ids and radii have to follow
+		if (CoverageExperiment.hilbertOrder) {
+			reorder(layout.points.sortHilbert());
+		}
+		if (radii == null) {
+			layout.linkNeighbors(grid);
+			return;
+		}
+		// ids, radii and points are kept in the order of the layout, so point i has radius radii[i]
+		int n = layout.points.size();
+		for (int i=0; i<n; i++) {
+			DPoint p1 = layout.points.get(i);
+			for (DPoint p2 : grid.within(p1.x, p1.y, radii[i])) {
+				int j = p2.index;
+				if (j <= i) {
+					continue;
+				}
+				if ((p1.x-p2.x)*(p1.x-p2.x) + (p1.y-p2.y)*(p1.y-p2.y) <= radii[j]*radii[j]) {
+					p1.nbrsUp.add(p2);
+					p1.nbrs.add(p2);
+					p2.nbrs.add(p1);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Put the points, ids and radii in a new order, after the layout renumbered
+	 * its points.  The grid holds the DPoints themselves, so it doesn't change.
+	 *
+	 * @param perm - the point with new id i was point perm[i] in file order
+	 */
+	void reorder(int[] perm) {
+		int n = points.size();
+		DPoint[] oldPoints = points.toArray(new DPoint[n]);
+		long[] oldIds = Arrays.copyOf(ids, n);
+		double[] oldRadii = (radii == null) ? null : Arrays.copyOf(radii, n);
+		for (int i=0; i<n; i++) {
+			points.set(i, oldPoints[perm[i]]);
+			ids[i] = oldIds[perm[i]];
+			if (radii != null) {
+				radii[i] = oldRadii[perm[i]];
+			}
+		}
+	}
+
+
+	/**
+	 * Set the largest radius in the file.  Required before reading a file with
+	 * a radius column, since the grid cells have to be that big.
+	 *
+	 * @param r
+	 */
+	public void setMaxRadius(double r) {
+		this.radius = r;
+	}
+
+
+	/**
+	 * The ids from the file, in the order of the points
+	 *
+	 * @return
+	 */
+	public long[] getIds() {
+		return Arrays.copyOf(ids, points.size());
+	}
+
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("usage: LayoutImporter <layout file> <vsDim> <radius> [snapshot file]\n");
+			System.exit(0);
+		}
+		LayoutImporter importer = new LayoutImporter(Integer.parseInt(args[1]), Double.parseDouble(args[2]));
+
+		long start = System.nanoTime();
+		importer.read(new File(args[0]));
+		System.out.println("read "+importer.points.size()+" points in "+(System.nanoTime()-start)/1.0e9+" s");
+
+		start = System.nanoTime();
+		CoverageLayout layout = new CoverageLayout(importer.vsDimension, importer.radius, 0, importer.points);
+		importer.linkNeighbors(layout);
+		long edges = 0;
+		for (DPoint p : importer.points) {
+			edges += p.nbrsUp.size();
+		}
+		System.out.println("found "+edges+" edges in "+(System.nanoTime()-start)/1.0e9+" s");
+
+		if (args.length > 3) {
+			start = System.nanoTime();
+			ScenarioSnapshot.write(layout, new File(args[3]), false);
+			System.out.println("wrote "+args[3]+" in "+(System.nanoTime()-start)/1.0e9+" s");
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * LevyWalk.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * A Levy walk mobility model.
+ *
+ * Each node moves at a constant speed in a straight line for a flight length drawn
+ * from a truncated power law, P(l > x) ~ (minFlight/x)^alpha, and then turns to a
+ * uniformly random heading.  With alpha < 2 most flights are short, with the
+ * occasional very long one, which is supposed to look more like how people move
+ * than random waypoint does.  Nodes bounce off the edges of the domain.
+ */
+
+import java.util.*;
+
+
+public class LevyWalk implements MobilityModel {
+
+	final double speed;
+	final double alpha;
+	final double minFlight;
+	final double maxFlight;
+
+	double[] bounds = null;
+	Random rng = null;
+
+	// per node: current heading and how much of the flight is left
+	double[] heading = null;
+	double[] remaining = null;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param speed
+	 * @param alpha - power law exponent, usually between 1 and 2
+	 * @param minFlight
+	 * @param maxFlight - flights are truncated at this length
+	 */
+	public LevyWalk(double speed, double alpha, double minFlight, double maxFlight) {
+		if (speed <= 0 || alpha <= 0 || minFlight <= 0 || maxFlight < minFlight) {
+			throw new IllegalArgumentException("LevyWalk needs positive speed and alpha, and 0 < minFlight <= maxFlight");
+		}
+		this.speed = speed;
+		this.alpha = alpha;
+		this.minFlight = minFlight;
+		this.maxFlight = maxFlight;
+	}
+
+
+	public void init(List<DPoint> nodes, double[] bounds, Random rng) {
+		this.bounds = bounds;
+		this.rng = rng;
+		int n = nodes.size();
+		heading = new double[n];
+		remaining = new double[n];
+		for (int i=0; i<n; i++) {
+			newFlight(i);
+		}
+	}
+
+
+	/**
+	 * Start a new flight for node i.
+	 * The length is sampled by inverting the Pareto distribution.
+	 *
+	 * @param i
+	 */
+	void newFlight(int i) {
+		heading[i] = 2*Math.PI*rng.nextDouble();
+		double u = 1.0 - rng.nextDouble();
+		remaining[i] = Math.min(maxFlight, minFlight*Math.pow(u, -1.0/alpha));
+	}
+
+
+	public void nextPosition(int i, DPoint p, double dt, double[] pos) {
+		double step = Math.min(speed*dt, remaining[i]);
+		double x = p.x + step*Math.cos(heading[i]);
+		double y = p.y + step*Math.sin(heading[i]);
+
+		// reflect off the walls
+		if (x < bounds[0] || x > bounds[2]) {
+			x = (x < bounds[0]) ? 2*bounds[0] - x : 2*bounds[2] - x;
+			heading[i] = Math.PI - heading[i];
+		}
+		if (y < bounds[1] || y > bounds[3]) {
+			y = (y < bounds[1]) ? 2*bounds[1] - y : 2*bounds[3] - y;
+			heading[i] = -heading[i];
+		}
+		pos[0] = Math.max(bounds[0], Math.min(bounds[2], x));
+		pos[1] = Math.max(bounds[1], Math.min(bounds[3], y));
+
+		remaining[i] -= step;
+		if (remaining[i] <= 0) {
+			newFlight(i);
+		}
+	}
+
+}
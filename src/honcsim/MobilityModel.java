@@ -0,0 +1,54 @@
+/*
+ * MobilityModel.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * How mobile nodes move, for MobilitySimulation.
+ *
+ * A model is given the nodes and the rectangle they live in once, and then asked
+ * for the next position of each node every timestep.  Any per-node state (current
+ * destination, pause time, ...) is kept by the model, indexed by the node's
+ * position in the list it was given.
+ */
+
+import java.util.*;
+
+
+public interface MobilityModel {
+
+	/**
+	 * Set up the state for a list of nodes.
+	 *
+	 * @param nodes
+	 * @param bounds - { xmin, ymin, xmax, ymax }
+	 * @param rng
+	 */
+	void init(List<DPoint> nodes, double[] bounds, Random rng);
+
+	/**
+	 * Compute where node i will be after dt.
+	 * Doesn't move the node.
+	 *
+	 * @param i
+	 * @param p
+	 * @param dt
+	 * @param pos - filled in with { x, y }
+	 */
+	void nextPosition(int i, DPoint p, double dt, double[] pos);
+
+}
@@ -0,0 +1,246 @@
+/*
+ * MobilitySimulation.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Time-stepped simulation of mobile nodes on top of a DynamicNetwork.
+ *
+ * Every step the MobilityModel gives a new position for each mobile node, and the
+ * whole batch is handed to DynamicNetwork.moveAll().  That finds the edges that
+ * crossed the radius threshold with the spatial grid, and re-tests coverage only
+ * for the simplices around their endpoints.  Steps where nobody gains or loses a
+ * neighbor cost little more than the grid lookups.
+ *
+ * After each step we report the coverage holes, as the number of Rips simplices
+ * of each dimension that are not in the coverage complex.  Those counts are kept
+ * up to date by the network, so reporting them is free.  Computing actual homology
+ * every step would cost far more than the step itself.
+ *
+ * fencedSquare() sets up the FencedCoverageSquare domain: a fence of stationary
+ * nodes holding the full basis around the edge, and random mobile nodes inside.
+ * Nothing gets drained, so it turns off the network's DComplex maintenance.
+ */
+
+import java.util.*;
+
+import m4rjni.Mzd;
+
+
+public class MobilitySimulation {
+
+	final DynamicNetwork network;
+	final List<DPoint> mobile;
+	final MobilityModel model;
+	final double[] bounds;
+	final double dt;
+
+	int stepCount = 0;
+	double time = 0.0;
+
+	// scratch space for the new positions
+	final double[] newX;
+	final double[] newY;
+
+	// statistics
+	long totalEdgeChanges = 0;
+	long stepNanos = 0;
+
+
+	/**
+	 * Constructor
+	 * The mobile nodes have to be in the network already.
+	 *
+	 * @param network
+	 * @param mobile
+	 * @param model
+	 * @param bounds - { xmin, ymin, xmax, ymax }
+	 * @param dt
+	 * @param rng - passed on to the mobility model
+	 */
+	public MobilitySimulation(DynamicNetwork network, List<DPoint> mobile, MobilityModel model, double[] bounds, double dt, Random rng) {
+		this.network = network;
+		this.mobile = mobile;
+		this.model = model;
+		this.bounds = bounds;
+		this.dt = dt;
+		this.newX = new double[mobile.size()];
+		this.newY = new double[mobile.size()];
+		model.init(mobile, bounds, rng);
+	}
+
+
+	/**
+	 * Build the FencedCoverageSquare domain in a new DynamicNetwork and set up a
+	 * simulation of the interior nodes.
+	 * The fence nodes hold the full basis, the interior nodes get random vectors.
+	 *
+	 * @param height - number of fence nodes along a side
+	 * @param width
+	 * @param spacing - distance between fence nodes
+	 * @param vsDimension
+	 * @param numPoints - number of mobile interior nodes
+	 * @param inventorySize - vectors per mobile node
+	 * @param model
+	 * @param dt
+	 * @param rng
+	 * @return
+	 */
+	public static MobilitySimulation fencedSquare(int height, int width, double spacing, int vsDimension, int numPoints, int inventorySize,
+			MobilityModel model, double dt, Random rng) {
+		DynamicNetwork network = new DynamicNetwork(vsDimension, 1.0, null);
+		network.setMaintainDComplex(false);
+		Mzd[] basis = Mzd.standardBasis(vsDimension);
+
+		for (DPoint p : FencedCoverageSquare.fullBasisFence(height, width, spacing, vsDimension, basis)) {
+			network.addPoint(p);
+		}
+		for (Mzd b : basis) {
+			b.destroy();
+		}
+
+		double[] bounds = { 0, 0, (height-1)*spacing, (width-1)*spacing };
+		ArrayList<DPoint> mobile = new ArrayList<DPoint>(numPoints);
+		SplittableRandom inventoryRng = new SplittableRandom(rng.nextLong());
+		for (int i=0; i<numPoints; i++) {
+			DPoint p = new DPoint(bounds[2]*rng.nextDouble(), bounds[3]*rng.nextDouble(), vsDimension);
+			for (int j=0; j<inventorySize; j++) {
+				p.addRandomInventoryVector(inventoryRng);
+			}
+			network.addPoint(p);
+			mobile.add(p);
+		}
+
+		return new MobilitySimulation(network, mobile, model, bounds, dt, rng);
+	}
+
+
+	/**
+	 * Advance the simulation by one timestep.
+	 *
+	 * @return the number of edges that were added or removed
+	 */
+	public int step() {
+		long start = System.nanoTime();
+		double[] pos = new double[2];
+		for (int i=0; i<mobile.size(); i++) {
+			model.nextPosition(i, mobile.get(i), dt, pos);
+			newX[i] = pos[0];
+			newY[i] = pos[1];
+		}
+		int changed = network.moveAll(mobile, newX, newY);
+		stepNanos += System.nanoTime() - start;
+
+		stepCount++;
+		time += dt;
+		totalEdgeChanges += changed;
+		return changed;
+	}
+
+
+	/**
+	 * The number of Rips simplices of each dimension that aren't covered.
+	 * Coverage holes show up as clusters of these.
+	 *
+	 * @return
+	 */
+	public int[] uncovered() {
+		int[] u = new int[4];
+		for (int d=0; d<4; d++) {
+			u[d] = network.numRipsSimplices(d) - network.numCoverageSimplices(d);
+		}
+		return u;
+	}
+
+
+	/**
+	 * Timesteps per second, over all the steps so far.
+	 * Doesn't include setting up the network.
+	 *
+	 * @return
+	 */
+	public double stepsPerSecond() {
+		if (stepNanos == 0) {
+			return 0.0;
+		}
+		return stepCount/(stepNanos/1.0e9);
+	}
+
+
+	/**
+	 * One line describing the current state.
+	 *
+	 * @param edgeChanges
+	 * @return
+	 */
+	String statusLine(int edgeChanges) {
+		int[] u = uncovered();
+		return stepCount+"\t"+String.format("%.3f", time)+"\t"+edgeChanges+"\t"+network.getNumRetested()
+				+"\t"+u[0]+"\t"+u[1]+"\t"+u[2]+"\t"+u[3];
+	}
+
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("usage: MobilitySimulation <rwp|levy> <numNodes> <numSteps> [vsDim] [vectors-per-node] [seed]\n");
+			System.exit(0);
+		}
+		String modelName = args[0];
+		int numNodes = Integer.parseInt(args[1]);
+		int numSteps = Integer.parseInt(args[2]);
+		int vsDim = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+		int inventorySize = (args.length > 4) ? Integer.parseInt(args[4]) : 2;
+		long seed = (args.length > 5) ? Long.parseLong(args[5]) : System.nanoTime();
+
+		Random rng = new Random(seed);
+
+		// about 2 nodes per unit area, with the radius at 1.0
+		double spacing = 0.9;
+		int side = (int)Math.ceil(Math.sqrt(numNodes/2.0)/spacing) + 1;
+
+		MobilityModel model = null;
+		if (modelName.equals("rwp")) {
+			model = new RandomWaypoint(0.05, 0.2, 5.0);
+		} else if (modelName.equals("levy")) {
+			model = new LevyWalk(0.1, 1.5, 0.5, side*spacing);
+		} else {
+			System.out.println("ERROR: unknown mobility model: "+modelName);
+			System.exit(0);
+		}
+
+		long start = System.nanoTime();
+		MobilitySimulation sim = fencedSquare(side, side, spacing, vsDim, numNodes, inventorySize, model, 1.0, rng);
+		System.out.println("Built network with "+sim.network.points.size()+" nodes and "+sim.network.numRipsSimplices()
+				+" Rips simplices in "+(System.nanoTime()-start)/1.0e6+" ms");
+
+		System.out.println("step\ttime\tedgeChanges\tretested\tuncovered0\tuncovered1\tuncovered2\tuncovered3");
+		for (int s=0; s<numSteps; s++) {
+			int changed = sim.step();
+			System.out.println(sim.statusLine(changed));
+		}
+		System.out.println("timesteps/sec: "+sim.stepsPerSecond()+"  ("+sim.mobile.size()+" mobile nodes, "
+				+sim.totalEdgeChanges+" edge changes)");
+	}
+
+}
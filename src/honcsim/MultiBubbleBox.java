@@ -59,7 +59,7 @@ public class MultiBubbleBox extends DrainageExperiment {
 		super(vsDimension, 1.0);
 		
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(9);
+		points = new PointStore(9);
 		
 		v1 = new Mzd(this.basis[0]);
 		v2 = new Mzd(this.basis[1]);
@@ -44,7 +44,7 @@ public class NonLifting extends CoverageExperiment {
 		super(vsDimension, 1.0);
 
 		// allocate the storage object for DPoints
-		points = new Vector<DPoint>(8);
+		points = new PointStore(8);
 		
 		// inner tetrahedron
 		double t = 0.3;
@@ -0,0 +1,426 @@
+/*
+ * ParameterSweep.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Run many trials of a CoverageExperiment for every combination of a grid of
+ * parameters, and save the results as they come in so an interrupted sweep can
+ * pick up where it left off.
+ *
+ * The sweep is described by a spec file of "name = value, value, ..." lines:
+ *
+ *     experiment = CoverageGrid
+ *     trials = 500
+ *     seed = 1
+ *     width = 10, 20
+ *     height = 10, 20
+ *     spacing = 0.6
+ *     prob = 0.05, 0.1, 0.2
+ *     vsDim = 3, 4
+ *     inventorySize = 1, 2
+ *
+ * Lines starting with # are comments.  Every constructor parameter of the
+ * experiment has to be given (see COVERAGE_GRID_PARAMS and
+ * FENCED_SQUARE_PARAMS), and the sweep runs the cartesian
+ * product of all the values.
+ *
+ * Results go to a CSV file, one line per trial, flushed as soon as the trial is
+ * done.  On start-up the results file is read back and the (configuration, trial)
+ * pairs already in it are skipped.  Trial seeds depend only on the base seed, the
+ * configuration and the trial number, so a resumed sweep gives the same results
+ * as one that was never interrupted.
+ *
+ * With a TrialCache, trials that some earlier sweep already computed with the
+ * same parameters, seed and code are read from the cache instead of rerun.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class ParameterSweep {
+
+	// the constructor parameters of each experiment, in BatchRunner.factoryFor() order
+	static final String[] COVERAGE_GRID_PARAMS = { "width", "height", "spacing", "prob", "vsDim", "inventorySize" };
+	static final String[] FENCED_SQUARE_PARAMS = { "height", "width", "spacing", "vsDim", "numPoints", "inventorySize" };
+
+	final String experiment;
+	final Class<?> experimentClass;
+	final String[] paramNames;
+	final int numTrials;
+	final long baseSeed;
+
+	// the values of each parameter, in the order they appear in the spec
+	final LinkedHashMap<String,String[]> grid = new LinkedHashMap<String,String[]>();
+
+	// every combination of the parameter values, as experiment arguments
+	final ArrayList<String[]> configs = new ArrayList<String[]>();
+
+	// trials already in the results file, as configKey+"#"+trial
+	final HashSet<String> done = new HashSet<String>();
+
+	// number of trials and number with a coverage hole, per configuration
+	final HashMap<String,int[]> tally = new HashMap<String,int[]>();
+
+	// results of earlier trials, if any
+	TrialCache cache = null;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param spec - the lines of a spec file
+	 */
+	public ParameterSweep(List<String> spec) {
+		String exp = null;
+		int trials = 1;
+		long seed = 0;
+		for (String line : spec) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int eq = line.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("ParameterSweep: bad spec line: "+line);
+			}
+			String name = line.substring(0, eq).trim();
+			String value = line.substring(eq+1).trim();
+			if (name.equals("experiment")) {
+				exp = value;
+			} else if (name.equals("trials")) {
+				trials = Integer.parseInt(value);
+			} else if (name.equals("seed")) {
+				seed = Long.parseLong(value);
+			} else {
+				String[] values = value.split(",");
+				for (int i=0; i<values.length; i++) {
+					values[i] = values[i].trim();
+				}
+				grid.put(name, values);
+			}
+		}
+
+		if ("CoverageGrid".equals(exp)) {
+			paramNames = COVERAGE_GRID_PARAMS;
+			experimentClass = CoverageGrid.class;
+		} else if ("FencedCoverageSquare".equals(exp)) {
+			paramNames = FENCED_SQUARE_PARAMS;
+			experimentClass = FencedCoverageSquare.class;
+		} else {
+			throw new IllegalArgumentException("ParameterSweep: unsupported experiment: "+exp);
+		}
+		for (String name : grid.keySet()) {
+			if (! Arrays.asList(paramNames).contains(name)) {
+				throw new IllegalArgumentException("ParameterSweep: "+exp+" has no parameter "+name);
+			}
+		}
+		for (String name : paramNames) {
+			if (! grid.containsKey(name)) {
+				throw new IllegalArgumentException("ParameterSweep: no values given for "+name);
+			}
+		}
+		this.experiment = exp;
+		this.numTrials = trials;
+		this.baseSeed = seed;
+
+		expand(0, new String[paramNames.length]);
+	}
+
+
+	/**
+	 * Look up trials in a cache before running them, and store the new ones there.
+	 *
+	 * @param cache
+	 */
+	public void setCache(TrialCache cache) {
+		this.cache = cache;
+	}
+
+
+	/**
+	 * Add all the combinations of the values of parameters k and later to configs.
+	 *
+	 * @param k
+	 * @param args
+	 */
+	private void expand(int k, String[] args) {
+		if (k == paramNames.length) {
+			configs.add(args.clone());
+			return;
+		}
+		for (String v : grid.get(paramNames[k])) {
+			args[k] = v;
+			expand(k+1, args);
+		}
+	}
+
+
+	/**
+	 * The configuration as it appears in the results file
+	 *
+	 * @param args
+	 * @return
+	 */
+	static String configKey(String[] args) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<args.length; i++) {
+			if (i > 0) { sb.append(','); }
+			sb.append(args[i]);
+		}
+		return sb.toString();
+	}
+
+
+	/**
+	 * The seed of one trial of one configuration.
+	 * String.hashCode() is the same on every JVM, so this is too.
+	 *
+	 * @param key
+	 * @param trial
+	 * @return
+	 */
+	long trialSeed(String key, int trial) {
+		return BatchRunner.trialSeed(baseSeed ^ ((long)key.hashCode() << 32), trial);
+	}
+
+
+	/**
+	 * The header line of the results file
+	 *
+	 * @return
+	 */
+	String header() {
+		return configKey(paramNames)+","+BatchRunner.CSV_HEADER;
+	}
+
+
+	/**
+	 * Read back the trials in an existing results file.
+	 * A line cut off by an interrupted write is removed from the file.
+	 *
+	 * @param results
+	 * @return true if the file already has a header
+	 * @throws IOException
+	 */
+	boolean loadResults(File results) throws IOException {
+		if (! results.exists() || results.length() == 0) {
+			return false;
+		}
+
+		// drop anything after the last newline
+		RandomAccessFile raf = new RandomAccessFile(results, "rw");
+		try {
+			long end = raf.length();
+			while (end > 0) {
+				raf.seek(end-1);
+				if (raf.read() == '\n') { break; }
+				end--;
+			}
+			if (end < raf.length()) {
+				System.out.println("WARNING: ParameterSweep - dropping incomplete last line of "+results);
+				raf.setLength(end);
+			}
+		} finally {
+			raf.close();
+		}
+		if (results.length() == 0) {
+			return false;
+		}
+
+		int numColumns = header().split(",").length;
+		BufferedReader in = new BufferedReader(new FileReader(results));
+		try {
+			String line = in.readLine();
+			if (! header().equals(line)) {
+				throw new IllegalArgumentException("ParameterSweep: "+results+" is the results file of a different sweep");
+			}
+			while ((line = in.readLine()) != null) {
+				String[] f = line.split(",");
+				if (f.length != numColumns) {
+					System.out.println("WARNING: ParameterSweep - skipping bad line: "+line);
+					continue;
+				}
+				String key = configKey(Arrays.copyOfRange(f, 0, paramNames.length));
+				int trial = Integer.parseInt(f[paramNames.length]);
+				if (done.add(key+"#"+trial)) {
+					// finite1 is the 5th result column
+					count(key, Integer.parseInt(f[paramNames.length+5]) > 0);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+
+	/**
+	 * Add a trial to the tally of its configuration
+	 *
+	 * @param key
+	 * @param hole
+	 */
+	private void count(String key, boolean hole) {
+		int[] t = tally.get(key);
+		if (t == null) {
+			t = new int[2];
+			tally.put(key, t);
+		}
+		t[0]++;
+		if (hole) { t[1]++; }
+	}
+
+
+	/**
+	 * Run every (configuration, trial) pair that isn't in the results file yet,
+	 * appending each result to the file as soon as it is done.
+	 *
+	 * @param results
+	 * @param numThreads
+	 * @return the number of trials run
+	 * @throws IOException
+	 */
+	public int run(File results, int numThreads) throws IOException {
+		boolean haveHeader = loadResults(results);
+
+		final PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(results, true)));
+		if (! haveHeader) {
+			out.println(header());
+			out.flush();
+		}
+
+		ArrayList<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		for (final String[] args : configs) {
+			final String key = configKey(args);
+			final BatchRunner.TrialFactory factory = BatchRunner.factoryFor(experiment, args, false);
+			for (int t=0; t<numTrials; t++) {
+				if (done.contains(key+"#"+t)) {
+					continue;
+				}
+				final int trial = t;
+				final long seed = trialSeed(key, trial);
+				tasks.add(new Callable<String>() {
+					public String call() {
+						byte[] cacheKey = (cache != null) ? cache.key(experimentClass, args, seed) : null;
+						BatchRunner.TrialResult r = BatchRunner.runTrial(factory, trial, seed, cache, cacheKey);
+						synchronized (out) {
+							out.println(key+","+r.toCSV());
+							out.flush();
+							count(key, r.coverageHoles() > 0);
+						}
+						return key;
+					}
+				});
+			}
+		}
+		if (! tasks.isEmpty()) {
+			System.out.println("running "+tasks.size()+" trials, "+done.size()+" already done");
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		int numRun = 0;
+		try {
+			CompletionService<String> cs = new ExecutorCompletionService<String>(pool);
+			for (Callable<String> task : tasks) {
+				cs.submit(task);
+			}
+			for (int i=0; i<tasks.size(); i++) {
+				cs.take().get();
+				numRun++;
+				if (numRun % 100 == 0) {
+					System.out.println(numRun+" / "+tasks.size()+" trials done");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("ERROR: ParameterSweep.run() interrupted");
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+			out.close();
+		}
+		return numRun;
+	}
+
+
+	/**
+	 * Number of trials and probability of a coverage hole for each configuration
+	 *
+	 * @return
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(configKey(paramNames)).append(",trials,P(hole)\n");
+		for (String[] args : configs) {
+			String key = configKey(args);
+			int[] t = tally.get(key);
+			if (t == null) { continue; }
+			sb.append(key).append(',').append(t[0]).append(',').append(t[1]/(double)t[0]).append('\n');
+		}
+		return sb.toString();
+	}
+
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("usage: ParameterSweep <spec file> <results file> [numThreads] [cache dir]\n");
+			System.exit(0);
+		}
+		int numThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		ArrayList<String> spec = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(args[0]));
+		try {
+			String line = null;
+			while ((line = in.readLine()) != null) {
+				spec.add(line);
+			}
+		} finally {
+			in.close();
+		}
+
+		ParameterSweep sweep = new ParameterSweep(spec);
+		if (args.length > 3) {
+			sweep.setCache(new TrialCache(new File(args[3])));
+		}
+		System.out.println(sweep.configs.size()+" configurations x "+sweep.numTrials+" trials");
+		long start = System.nanoTime();
+		int n = sweep.run(new File(args[1]), numThreads);
+		System.out.println("ran "+n+" trials in "+(System.nanoTime()-start)/1.0e9+" s");
+		if (sweep.cache != null) {
+			System.out.println("cache hits: "+sweep.cache.getHits()+"  misses: "+sweep.cache.getMisses());
+		}
+		System.out.print(sweep.summary());
+	}
+
+}
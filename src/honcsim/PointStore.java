@@ -0,0 +1,347 @@
+/*
+ * PointStore.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * The points of one experiment, numbered 0..n-1.
+ *
+ * A DPoint gets its index from a counter shared by the whole JVM, so the points of
+ * the second experiment in a batch start wherever the first one left off, and the
+ * points of experiments built in parallel are interleaved.  Adding a point to a
+ * PointStore renumbers it with the next id of the store, so within an experiment
+ * the indices are dense and point i is get(i).  That way per-point data can go in
+ * plain arrays indexed by DPoint.index, simplex keys stay small (see SimplexKey),
+ * and experiments in the same JVM don't affect each other's numbering.
+ *
+ * The indices order the neighbor sets (DPoint.nbrsUp), so a point has to be added
+ * before it gets any neighbors, and it can only belong to one store.  Points can't
+ * be removed or replaced, since that would leave a hole in the numbering.
+ *
+ * The store can also keep a struct-of-arrays copy of the points: coordinates,
+ * ranks, all the packed reduced bases in one long[], and the neighbor sets in
+ * CSR form (an offset array and one int array of neighbor ids).  The loops that
+ * look at every point or every simplex read these arrays front to back instead
+ * of chasing DPoints, HashSets and Mzds around the heap, and they don't touch
+ * m4ri.  The DPoints are still the real data, so the copy is a snapshot: call
+ * pack() again after changing inventories or neighbor sets.
+ *
+ * Scenarios number their points in whatever order they make them: row by row
+ * for the grids, in random order for random layouts, in file order for imported
+ * ones.  Then a point's neighbors have ids all over the place, and so do the
+ * rows of the packed arrays they live in.  sortHilbert() renumbers the points in
+ * the order of a Hilbert curve through their bounding box, so points near each
+ * other in the plane mostly get ids near each other too.
+ */
+
+import java.util.*;
+
+
+public class PointStore extends AbstractList<DPoint> implements RandomAccess {
+
+	final ArrayList<DPoint> points;
+
+	// the Hilbert curve used by sortHilbert() fills a 2^HILBERT_ORDER square grid
+	static final int HILBERT_ORDER = 15;
+
+	// struct-of-arrays copy of the points, see packCoordinates() and pack()
+	double[] xs = new double[0];
+	double[] ys = new double[0];
+	int[] rank = new int[0];
+
+	// the reduced basis of point i is rows basisStart[i] .. basisStart[i+1]-1
+	// of basis, each row packed into words longs as in BitBasis
+	int words = 0;
+	int[] basisStart = new int[1];
+	long[] basis = new long[0];
+
+	// the neighbors of point i, in increasing order, are adj[adjStart[i] .. adjStart[i+1])
+	int[] adjStart = new int[1];
+	int[] adj = new int[0];
+
+
+	/**
+	 * Constructor
+	 */
+	public PointStore() {
+		points = new ArrayList<DPoint>();
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity - the number of points expected
+	 */
+	public PointStore(int capacity) {
+		points = new ArrayList<DPoint>(capacity);
+	}
+
+
+	/**
+	 * Constructor
+	 * The points are renumbered in the order of the collection.
+	 *
+	 * @param pts
+	 */
+	public PointStore(Collection<DPoint> pts) {
+		this(pts.size());
+		addAll(pts);
+	}
+
+
+	/**
+	 * Add a point, and give it the next id.
+	 *
+	 * @param p
+	 * @return true
+	 */
+	public boolean add(DPoint p) {
+		if (! p.nbrs.isEmpty()) {
+			throw new IllegalStateException("PointStore: can't renumber "+p+", it already has neighbors");
+		}
+		p.index = points.size();
+		points.add(p);
+		modCount++;
+		return true;
+	}
+
+
+	/**
+	 * The point with this id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public DPoint get(int id) {
+		return points.get(id);
+	}
+
+
+	public int size() {
+		return points.size();
+	}
+
+
+	/**
+	 * The last point added.
+	 * For the experiments that were written against Vector.
+	 *
+	 * @return
+	 */
+	public DPoint lastElement() {
+		if (points.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return points.get(points.size()-1);
+	}
+
+
+	/**
+	 * Position of cell (x,y) along the Hilbert curve through a 2^order square grid.
+	 *
+	 * @param order
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	static long hilbertIndex(int order, int x, int y) {
+		int n = 1 << order;
+		long d = 0;
+		for (int s=(n >>> 1); s>0; s>>>=1) {
+			int rx = ((x & s) != 0) ? 1 : 0;
+			int ry = ((y & s) != 0) ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant so the curve inside it starts and ends in the right place
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n-1 - x;
+					y = n-1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+
+	/**
+	 * Renumber the points in the order of a Hilbert curve through their
+	 * bounding box.  This has to be done before the neighbor sets are filled
+	 * in, since those are ordered by index.  Any packed copy is thrown away.
+	 *
+	 * @return perm, where the point with new id i had id perm[i] before, so the
+	 *         caller can reorder any arrays it keeps by point id
+	 */
+	public int[] sortHilbert() {
+		int n = points.size();
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (DPoint p : points) {
+			if (! p.nbrs.isEmpty()) {
+				throw new IllegalStateException("PointStore: can't renumber "+p+", it already has neighbors");
+			}
+			minX = Math.min(minX, p.x);
+			minY = Math.min(minY, p.y);
+			maxX = Math.max(maxX, p.x);
+			maxY = Math.max(maxY, p.y);
+		}
+
+		// one scale for both axes, so the cells are square
+		int cells = 1 << HILBERT_ORDER;
+		double extent = Math.max(maxX - minX, maxY - minY);
+		double scale = (extent > 0) ? (cells - 1) / extent : 0;
+
+		// the curve position goes in the high bits and the old id in the low bits,
+		// so sorting the longs sorts the points, with ties kept in the old order
+		long[] order = new long[n];
+		for (int i=0; i<n; i++) {
+			DPoint p = points.get(i);
+			int cx = (int)((p.x - minX) * scale);
+			int cy = (int)((p.y - minY) * scale);
+			order[i] = (hilbertIndex(HILBERT_ORDER, cx, cy) << 32) | i;
+		}
+		Arrays.sort(order);
+
+		int[] perm = new int[n];
+		ArrayList<DPoint> old = new ArrayList<DPoint>(points);
+		for (int i=0; i<n; i++) {
+			perm[i] = (int)order[i];
+			DPoint p = old.get(perm[i]);
+			p.index = i;
+			points.set(i, p);
+		}
+		modCount++;
+
+		xs = new double[0];
+		ys = new double[0];
+		rank = new int[0];
+		words = 0;
+		basisStart = new int[1];
+		basis = new long[0];
+		adjStart = new int[1];
+		adj = new int[0];
+		return perm;
+	}
+
+
+	/**
+	 * Copy the coordinates into xs and ys.
+	 */
+	public void packCoordinates() {
+		int n = points.size();
+		xs = new double[n];
+		ys = new double[n];
+		for (int i=0; i<n; i++) {
+			DPoint p = points.get(i);
+			xs[i] = p.x;
+			ys[i] = p.y;
+		}
+	}
+
+
+	/**
+	 * Make the struct-of-arrays copy of the points: coordinates, reduced bases
+	 * and adjacency.
+	 *
+	 * @param vsDimension
+	 */
+	public void pack(int vsDimension) {
+		int n = points.size();
+		packCoordinates();
+
+		words = BitBasis.numWords(vsDimension);
+		rank = new int[n];
+		basisStart = new int[n+1];
+		long[][][] pb = new long[n][][];
+		for (int i=0; i<n; i++) {
+			pb[i] = points.get(i).packedBasis();
+			rank[i] = pb[i].length;
+			basisStart[i+1] = basisStart[i] + rank[i];
+		}
+		basis = new long[basisStart[n] * words];
+		for (int i=0; i<n; i++) {
+			for (int k=0; k<pb[i].length; k++) {
+				System.arraycopy(pb[i][k], 0, basis, (basisStart[i]+k)*words, words);
+			}
+		}
+
+		adjStart = new int[n+1];
+		for (int i=0; i<n; i++) {
+			adjStart[i+1] = adjStart[i] + points.get(i).nbrs.size();
+		}
+		adj = new int[adjStart[n]];
+		for (int i=0; i<n; i++) {
+			int k = adjStart[i];
+			for (DPoint q : points.get(i).nbrs) {
+				if (q.index >= n || points.get(q.index) != q) {
+					throw new IllegalStateException("PointStore: "+points.get(i)+" has a neighbor from outside the store");
+				}
+				adj[k++] = q.index;
+			}
+			Arrays.sort(adj, adjStart[i], adjStart[i+1]);
+		}
+	}
+
+
+	/**
+	 * Add the packed reduced basis of point i to a span.
+	 * pack() has to have been called.
+	 *
+	 * @param i
+	 * @param span
+	 */
+	void addBasis(int i, BitBasis span) {
+		for (int k=basisStart[i]; k<basisStart[i+1]; k++) {
+			if (span.rank == span.vsDimension) { return; }
+			span.add(basis, k*words);
+		}
+	}
+
+
+	/**
+	 * Intersect the sorted neighbor list of point i with the sorted ids in
+	 * a[0 .. na), writing the result to out.  pack() has to have been called.
+	 *
+	 * @param i
+	 * @param a
+	 * @param na
+	 * @param out - may be the same array as a
+	 * @return the number of ids written to out
+	 */
+	int intersectNeighbors(int i, int[] a, int na, int[] out) {
+		int n = 0;
+		int j = 0;
+		int k = adjStart[i];
+		int end = adjStart[i+1];
+		while (j < na && k < end) {
+			if (a[j] < adj[k]) {
+				j++;
+			} else if (a[j] > adj[k]) {
+				k++;
+			} else {
+				out[n++] = a[j];
+				j++;
+				k++;
+			}
+		}
+		return n;
+	}
+
+}
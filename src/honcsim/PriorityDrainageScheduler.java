@@ -0,0 +1,253 @@
+/*
+ * PriorityDrainageScheduler.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Drain a DrainageExperiment from a work queue instead of in round-robin passes.
+ *
+ * The passes in the drainage experiments call drainVertex() on every point over and
+ * over until nothing drains, even though most points can't drain anything after the
+ * first couple of passes.  Here a point is only looked at again when it is dirty,
+ * meaning its own inventory or one of its neighbors' inventories changed since the
+ * last time it was drained.
+ *
+ * Dirty points wait in a priority queue ordered by their surplus: the size of the
+ * inventory minus the largest codimension of the span of a coface without the point.
+ * That is an upper bound on how much can be drained, so a point with no surplus
+ * is never handed to drainVertex() at all, and the points with the most redundancy
+ * go first.  Queue entries are invalidated lazily with a version number per point.
+ *
+ * When we are filling vertices, a point with a coface it can't support also has
+ * work to do, even though it has no surplus: drainVertex() fills it with the
+ * standard basis and drains from there.  Those points are queued with priority 0,
+ * after everything with a surplus.
+ */
+
+import java.util.*;
+
+
+public class PriorityDrainageScheduler {
+
+	final DrainageExperiment experiment;
+
+	// use drainVertexQuotient() instead of drainVertex()
+	final boolean useQuotient;
+
+	// the current version of each point.  Queue entries with an older version are stale.
+	final HashMap<DPoint,Integer> version = new HashMap<DPoint,Integer>();
+
+	final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+	// statistics
+	int invocations = 0;
+	int numDrained = 0;
+
+
+	/*
+	 * One dirty point in the queue
+	 */
+	static class Entry implements Comparable<Entry> {
+		final DPoint p;
+		final int surplus;
+		final int version;
+
+		Entry(DPoint p, int surplus, int version) {
+			this.p = p;
+			this.surplus = surplus;
+			this.version = version;
+		}
+
+		// largest surplus first, then by index so the order is reproducible
+		public int compareTo(Entry e) {
+			if (surplus != e.surplus) {
+				return Integer.compare(e.surplus, surplus);
+			}
+			return Integer.compare(p.index, e.p.index);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * Call this after the neighbor sets and the Rips complex have been built.
+	 *
+	 * @param experiment
+	 * @param useQuotient
+	 */
+	public PriorityDrainageScheduler(DrainageExperiment experiment, boolean useQuotient) {
+		this.experiment = experiment;
+		this.useQuotient = useQuotient;
+	}
+
+
+	/**
+	 * The span U_sigma of the neighbors of sigma other than p.
+	 *
+	 * @param p
+	 * @param sigma
+	 * @return
+	 */
+	static BitBasis exclusiveSpan(DPoint p, DSimplex sigma) {
+		BitBasis U = new BitBasis(p.vsDimension);
+		for (DPoint q : sigma.neighbors) {
+			if (q == p) { continue; }
+			for (long[] v : q.packedBasis()) {
+				U.add(v);
+			}
+			if (U.rank == p.vsDimension) { break; }
+		}
+		return U;
+	}
+
+
+	/**
+	 * Estimate how many vectors p could possibly drain.
+	 * Each coface sigma needs at least codim(U_sigma) vectors from p, where U_sigma
+	 * is the span of sigma's neighbors other than p.
+	 *
+	 * @param p
+	 * @return
+	 */
+	int surplus(DPoint p) {
+		int required = 0;
+		for (DSimplex sigma : p.ripsCofaces) {
+			BitBasis U = exclusiveSpan(p, sigma);
+			required = Math.max(required, p.vsDimension - U.rank);
+		}
+		return p.M.size() - required;
+	}
+
+
+	/**
+	 * Does p have a coface that its inventory and U_sigma together don't span?
+	 * Those are the cofaces that drainVertex() fills p for.
+	 *
+	 * @param p
+	 * @return
+	 */
+	boolean hasUnsupportedCoface(DPoint p) {
+		for (DSimplex sigma : p.ripsCofaces) {
+			BitBasis U = exclusiveSpan(p, sigma);
+			if (U.rank == p.vsDimension) { continue; }
+			for (long[] v : p.packedBasis()) {
+				U.add(v);
+			}
+			if (U.rank < p.vsDimension) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Mark a point dirty and queue it if it has anything to drain, or if it
+	 * needs filling and we are filling vertices.
+	 *
+	 * @param p
+	 * @param fillVertices
+	 */
+	void markDirty(DPoint p, boolean fillVertices) {
+		Integer v = version.get(p);
+		int nv = (v == null) ? 0 : v+1;
+		version.put(p, nv);
+		int s = surplus(p);
+		if (s > 0) {
+			queue.add(new Entry(p, s, nv));
+		} else if (fillVertices && hasUnsupportedCoface(p)) {
+			queue.add(new Entry(p, 0, nv));
+		}
+	}
+
+
+	/**
+	 * Drain until there is nothing left in the queue.
+	 *
+	 * @param nVectors
+	 * @param fillVertices
+	 * @return the total number of vectors drained
+	 */
+	public int drainAll(int nVectors, boolean fillVertices) {
+		// everything starts out dirty
+		for (DPoint p : experiment.points) {
+			markDirty(p, fillVertices);
+		}
+
+		int drained = 0;
+		while (! queue.isEmpty()) {
+			Entry e = queue.poll();
+			if (e.version != version.get(e.p)) {
+				continue;
+			}
+			// no longer dirty until something changes
+			version.put(e.p, e.version+1);
+
+			int oldSize = e.p.M.size();
+			int n = 0;
+			if (useQuotient) {
+				n = experiment.drainVertexQuotient(e.p, nVectors, fillVertices);
+			} else {
+				n = experiment.drainVertex(e.p, nVectors, fillVertices);
+			}
+			invocations++;
+			drained += n;
+
+			// if the inventory changed, p and its neighbors have to be looked at again
+			if (n > 0 || e.p.M.size() != oldSize) {
+				markDirty(e.p, fillVertices);
+				for (DPoint q : e.p.nbrs) {
+					markDirty(q, fillVertices);
+				}
+			}
+		}
+
+		numDrained += drained;
+		return drained;
+	}
+
+
+	/**
+	 * Same as drainAll(), with the result recorded in a DrainageRun.
+	 * There are no passes here, so the whole thing is recorded as one pass.
+	 *
+	 * @param nVectors
+	 * @param fillVertices
+	 * @param checkCoverage
+	 * @return
+	 */
+	public DrainageRun runDrainage(int nVectors, boolean fillVertices, boolean checkCoverage) {
+		DrainageRun run = new DrainageRun(experiment, checkCoverage);
+		int before = invocations;
+		long start = System.nanoTime();
+		int drained = drainAll(nVectors, fillVertices);
+		run.recordPass(drained, System.nanoTime() - start);
+		run.invocations = invocations - before;
+		return run;
+	}
+
+
+	/**
+	 * Number of calls to drainVertex() so far.
+	 *
+	 * @return
+	 */
+	public int getInvocations() {
+		return invocations;
+	}
+
+}
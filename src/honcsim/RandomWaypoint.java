@@ -0,0 +1,113 @@
+/*
+ * RandomWaypoint.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * The random waypoint mobility model.
+ *
+ * Each node picks a uniformly random destination in the domain and a speed
+ * uniformly in [minSpeed, maxSpeed], walks there in a straight line, waits for
+ * pauseTime, and then does it again.
+ */
+
+import java.util.*;
+
+
+public class RandomWaypoint implements MobilityModel {
+
+	final double minSpeed;
+	final double maxSpeed;
+	final double pauseTime;
+
+	double[] bounds = null;
+	Random rng = null;
+
+	// per node: destination, speed, and how much longer to wait there
+	double[] destX = null;
+	double[] destY = null;
+	double[] speed = null;
+	double[] pause = null;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param minSpeed
+	 * @param maxSpeed
+	 * @param pauseTime
+	 */
+	public RandomWaypoint(double minSpeed, double maxSpeed, double pauseTime) {
+		if (minSpeed <= 0 || maxSpeed < minSpeed) {
+			throw new IllegalArgumentException("RandomWaypoint needs 0 < minSpeed <= maxSpeed");
+		}
+		this.minSpeed = minSpeed;
+		this.maxSpeed = maxSpeed;
+		this.pauseTime = pauseTime;
+	}
+
+
+	public void init(List<DPoint> nodes, double[] bounds, Random rng) {
+		this.bounds = bounds;
+		this.rng = rng;
+		int n = nodes.size();
+		destX = new double[n];
+		destY = new double[n];
+		speed = new double[n];
+		pause = new double[n];
+		for (int i=0; i<n; i++) {
+			pickDestination(i);
+		}
+	}
+
+
+	/**
+	 * Choose a new destination and speed for node i.
+	 *
+	 * @param i
+	 */
+	void pickDestination(int i) {
+		destX[i] = bounds[0] + rng.nextDouble()*(bounds[2]-bounds[0]);
+		destY[i] = bounds[1] + rng.nextDouble()*(bounds[3]-bounds[1]);
+		speed[i] = minSpeed + rng.nextDouble()*(maxSpeed-minSpeed);
+	}
+
+
+	public void nextPosition(int i, DPoint p, double dt, double[] pos) {
+		pos[0] = p.x;
+		pos[1] = p.y;
+		if (pause[i] > 0) {
+			pause[i] -= dt;
+			return;
+		}
+		double dx = destX[i] - p.x;
+		double dy = destY[i] - p.y;
+		double dist = Math.sqrt(dx*dx + dy*dy);
+		double step = speed[i]*dt;
+		if (step >= dist) {
+			// arrived
+			pos[0] = destX[i];
+			pos[1] = destY[i];
+			pause[i] = pauseTime;
+			pickDestination(i);
+		} else {
+			pos[0] += step*dx/dist;
+			pos[1] += step*dy/dist;
+		}
+	}
+
+}
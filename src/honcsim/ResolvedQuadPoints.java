@@ -55,7 +55,7 @@ public class ResolvedQuadPoints extends CoverageExperiment {
 	this.gridSpacing = spacing;
 
 	// allocate the grid of DPoints
-	points = new Vector<DPoint>(width*height);
+	points = new PointStore(width*height);
 	pGrid = new DPoint[width][];
 	for (int i=0; i<width; i++) {
 	    pGrid[i] = new DPoint[height];
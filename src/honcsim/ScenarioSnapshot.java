@@ -0,0 +1,496 @@
+/*
+ * ScenarioSnapshot.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Binary snapshot of a coverage scenario.
+ *
+ * Building a big scenario means placing the points, filling the inventories,
+ * finding the neighbor sets and enumerating the Rips complex, which takes
+ * minutes for a million points.  A snapshot saves all of that in one file that
+ * is read back through a memory map, so an analysis job can start working on
+ * the coordinates, inventories and adjacency right away.  toLayout() turns a
+ * snapshot back into a CoverageExperiment when the m4ri and javaplex objects
+ * are needed.
+ *
+ * Points are numbered by their position in the experiment's point list, which
+ * is also their index (see PointStore).  The
+ * file is big-endian, and every section starts on an 8 byte boundary:
+ *
+ *     header (HEADER_SIZE bytes, see write())
+ *     coordinates        numPoints x { double x, double y }
+ *     inventory offsets  numPoints+1 ints, into the inventory vectors
+ *     inventory vectors  numVectors x words longs, packed as in BitBasis
+ *     adjacency offsets  numPoints+1 ints, into the adjacency list (CSR)
+ *     adjacency list     the neighbors of each point, in increasing order
+ *     Rips simplices     optional, for each simplex: number of vertices, vertices
+ *     coverage simplices optional, same encoding
+ *
+ * Bump VERSION when the layout changes.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import m4rjni.Mzd;
+import edu.stanford.math.plex4.homology.chain_basis.*;
+
+
+public class ScenarioSnapshot {
+
+	static final int MAGIC = 0x48435353;    // "HCSS"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 128;
+
+	// header fields
+	final int vsDimension;
+	final int words;
+	final double radius;
+	final long seed;
+	final int numPoints;
+	final int numVectors;
+	final boolean hasComplexes;
+
+	// views into the mapped file
+	final DoubleBuffer coords;
+	final IntBuffer inventoryOffsets;
+	final LongBuffer inventory;
+	final IntBuffer adjacencyOffsets;
+	final IntBuffer adjacency;
+	final IntBuffer ripsSimplices;
+	final IntBuffer coverageSimplices;
+
+
+	/**
+	 * Constructor
+	 * Use open().
+	 *
+	 * @param buf
+	 */
+	private ScenarioSnapshot(MappedByteBuffer buf) throws IOException {
+		if (buf.getInt(0) != MAGIC) {
+			throw new IOException("ScenarioSnapshot: not a snapshot file");
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new IOException("ScenarioSnapshot: snapshot version "+buf.getInt(4)+", expected "+VERSION);
+		}
+		vsDimension = buf.getInt(8);
+		words = buf.getInt(12);
+		radius = buf.getDouble(16);
+		seed = buf.getLong(24);
+		numPoints = buf.getInt(32);
+		numVectors = buf.getInt(36);
+		hasComplexes = buf.getInt(40) != 0;
+		long numAdjacent = buf.getLong(48);
+		long ripsLength = buf.getLong(56);
+		long coverageLength = buf.getLong(64);
+
+		int off = HEADER_SIZE;
+		coords = section(buf, off).asDoubleBuffer();
+		coords.limit(2*numPoints);
+		off = align(off + 16L*numPoints);
+		inventoryOffsets = section(buf, off).asIntBuffer();
+		inventoryOffsets.limit(numPoints+1);
+		off = align(off + 4L*(numPoints+1));
+		inventory = section(buf, off).asLongBuffer();
+		inventory.limit(numVectors*words);
+		off = align(off + 8L*numVectors*words);
+		adjacencyOffsets = section(buf, off).asIntBuffer();
+		adjacencyOffsets.limit(numPoints+1);
+		off = align(off + 4L*(numPoints+1));
+		adjacency = section(buf, off).asIntBuffer();
+		adjacency.limit((int)numAdjacent);
+		off = align(off + 4L*numAdjacent);
+		if (hasComplexes) {
+			ripsSimplices = section(buf, off).asIntBuffer();
+			ripsSimplices.limit((int)ripsLength);
+			off = align(off + 4L*ripsLength);
+			coverageSimplices = section(buf, off).asIntBuffer();
+			coverageSimplices.limit((int)coverageLength);
+		} else {
+			ripsSimplices = null;
+			coverageSimplices = null;
+		}
+	}
+
+
+	private static ByteBuffer section(MappedByteBuffer buf, int offset) {
+		ByteBuffer b = buf.duplicate();
+		b.position(offset);
+		return b.slice();
+	}
+
+
+	private static int align(long offset) {
+		long a = (offset + 7) & ~7L;
+		if (a > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("ScenarioSnapshot: snapshots are limited to 2GB");
+		}
+		return (int)a;
+	}
+
+
+	/**
+	 * Map a snapshot file.
+	 *
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	public static ScenarioSnapshot open(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("ScenarioSnapshot: snapshots are limited to 2GB");
+			}
+			// the mapping stays valid after the file is closed
+			return new ScenarioSnapshot(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+		} finally {
+			raf.close();
+		}
+	}
+
+
+	/*
+	 * Buffered big-endian output to a FileChannel, keeping track of the offset
+	 */
+	private static class Out {
+		final FileChannel ch;
+		final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+		long offset = 0;
+
+		Out(FileChannel ch) {
+			this.ch = ch;
+		}
+
+		void room(int n) throws IOException {
+			if (buf.remaining() < n) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+			buf.clear();
+		}
+
+		void putInt(int x) throws IOException { room(4); buf.putInt(x); offset += 4; }
+		void putLong(long x) throws IOException { room(8); buf.putLong(x); offset += 8; }
+		void putDouble(double x) throws IOException { room(8); buf.putDouble(x); offset += 8; }
+
+		void align() throws IOException {
+			while ((offset & 7) != 0) {
+				room(1);
+				buf.put((byte)0);
+				offset++;
+			}
+		}
+	}
+
+
+	/**
+	 * Write the simplices of a stream.
+	 *
+	 * @param out
+	 * @param stream
+	 * @return the number of ints written
+	 * @throws IOException
+	 */
+	private static long writeSimplices(Out out, CompactSimplexStream stream) throws IOException {
+		long n = 0;
+		for (Simplex s : stream) {
+			int[] v = s.getVertices();
+			out.putInt(v.length);
+			for (int i=0; i<v.length; i++) {
+				out.putInt(v[i]);
+			}
+			n += v.length+1;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Save an experiment.
+	 * The neighbor sets have to be computed.  The complexes are saved only if
+	 * withComplexes is set and the Rips and coverage complexes have been built.
+	 *
+	 * @param e
+	 * @param f
+	 * @param withComplexes
+	 * @throws IOException
+	 */
+	public static void write(CoverageExperiment e, File f, boolean withComplexes) throws IOException {
+		int n = e.points.size();
+		int words = BitBasis.numWords(e.vsDimension);
+		boolean complexes = withComplexes && e.ripsComplexStream != null && e.coverageComplexStream != null;
+
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel ch = raf.getChannel();
+			Out out = new Out(ch);
+
+			// the header gets filled in at the end
+			for (int i=0; i<HEADER_SIZE; i+=8) {
+				out.putLong(0);
+			}
+
+			for (DPoint p : e.points) {
+				out.putDouble(p.x);
+				out.putDouble(p.y);
+			}
+			out.align();
+
+			int numVectors = 0;
+			for (DPoint p : e.points) {
+				out.putInt(numVectors);
+				numVectors += p.M.size();
+			}
+			out.putInt(numVectors);
+			out.align();
+			for (DPoint p : e.points) {
+				for (Mzd v : p.M) {
+					for (long w : BitBasis.pack(v, 1)[0]) {
+						out.putLong(w);
+					}
+				}
+			}
+			out.align();
+
+			long numAdjacent = 0;
+			int[][] nbrs = new int[n][];
+			for (int i=0; i<n; i++) {
+				DPoint p = e.points.get(i);
+				nbrs[i] = new int[p.nbrs.size()];
+				int k = 0;
+				for (DPoint q : p.nbrs) {
+					nbrs[i][k++] = q.index;
+				}
+				Arrays.sort(nbrs[i]);
+				out.putInt((int)numAdjacent);
+				numAdjacent += nbrs[i].length;
+			}
+			out.putInt((int)numAdjacent);
+			out.align();
+			for (int i=0; i<n; i++) {
+				for (int j : nbrs[i]) {
+					out.putInt(j);
+				}
+			}
+			out.align();
+
+			long ripsLength = 0, coverageLength = 0;
+			if (complexes) {
+				ripsLength = writeSimplices(out, e.ripsComplexStream);
+				out.align();
+				coverageLength = writeSimplices(out, e.coverageComplexStream);
+				out.align();
+			}
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(e.vsDimension);
+			header.putInt(words);
+			header.putDouble(e.radius);
+			header.putLong(e.seed);
+			header.putInt(n);
+			header.putInt(numVectors);
+			header.putInt(complexes ? 1 : 0);
+			header.putInt(0);
+			header.putLong(numAdjacent);
+			header.putLong(ripsLength);
+			header.putLong(coverageLength);
+			header.clear();
+			ch.position(0);
+			while (header.hasRemaining()) {
+				ch.write(header);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Number of points
+	 *
+	 * @return
+	 */
+	public int numPoints() {
+		return numPoints;
+	}
+
+
+	public double x(int i) {
+		return coords.get(2*i);
+	}
+
+
+	public double y(int i) {
+		return coords.get(2*i+1);
+	}
+
+
+	/**
+	 * The inventory vectors of point i, packed as in BitBasis
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long[][] inventory(int i) {
+		int start = inventoryOffsets.get(i);
+		int end = inventoryOffsets.get(i+1);
+		long[][] vv = new long[end-start][words];
+		for (int k=start; k<end; k++) {
+			for (int w=0; w<words; w++) {
+				vv[k-start][w] = inventory.get(k*words + w);
+			}
+		}
+		return vv;
+	}
+
+
+	/**
+	 * The positions of the neighbors of point i, in increasing order
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int[] neighbors(int i) {
+		int start = adjacencyOffsets.get(i);
+		int[] nn = new int[adjacencyOffsets.get(i+1) - start];
+		for (int k=0; k<nn.length; k++) {
+			nn[k] = adjacency.get(start+k);
+		}
+		return nn;
+	}
+
+
+	/**
+	 * Read a list of simplices back into a stream.
+	 *
+	 * @param ints
+	 * @param pts
+	 * @return
+	 */
+	private static CompactSimplexStream readSimplices(IntBuffer ints, Vector<DPoint> pts) {
+		CompactSimplexStream stream = new CompactSimplexStream();
+		int k = 0;
+		while (k < ints.limit()) {
+			int nv = ints.get(k++);
+			if (nv == 1) {
+				stream.addVertex(pts.get(ints.get(k++)).index, 0);
+				continue;
+			}
+			int[] v = new int[nv];
+			for (int i=0; i<nv; i++) {
+				v[i] = pts.get(ints.get(k++)).index;
+			}
+			stream.addElement(v, 0);
+		}
+		stream.finalizeStream();
+		return stream;
+	}
+
+
+	/**
+	 * Rebuild the scenario as a CoverageExperiment, with new DPoints.
+	 * This allocates m4ri objects, so don't call it from more than one thread
+	 * at a time.
+	 *
+	 * @return
+	 */
+	public CoverageLayout toLayout() {
+		Vector<DPoint> pts = new Vector<DPoint>(numPoints);
+		for (int i=0; i<numPoints; i++) {
+			DPoint p = new DPoint(x(i), y(i), vsDimension);
+			long[][] vv = inventory(i);
+			if (vv.length > 0) {
+				Mzd M = BitBasis.toMzd(vv, vsDimension);
+				p.setInventory(M);
+				M.destroy();
+			}
+			pts.add(p);
+		}
+
+		// the layout renumbers the points, so it has to come before the neighbors
+		CoverageLayout layout = new CoverageLayout(vsDimension, radius, seed, pts);
+		for (int i=0; i<numPoints; i++) {
+			for (int j : neighbors(i)) {
+				if (j > i) {
+					pts.get(i).addNeighbor(pts.get(j));
+				}
+			}
+		}
+		if (hasComplexes) {
+			layout.ripsComplexStream = readSimplices(ripsSimplices, pts);
+			layout.coverageComplexStream = readSimplices(coverageSimplices, pts);
+		}
+		layout.buildComplexes();
+		return layout;
+	}
+
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || (args[0].equals("save") && args.length < 5)) {
+			System.out.println("usage: ScenarioSnapshot save <CoverageGrid|FencedCoverageSquare> <file> <seed> <experiment args...>");
+			System.out.println("       ScenarioSnapshot load <file>\n");
+			System.exit(0);
+		}
+
+		if (args[0].equals("save")) {
+			String[] expArgs = Arrays.copyOfRange(args, 4, args.length);
+			BatchRunner.TrialFactory factory = BatchRunner.factoryFor(args[1], expArgs, true);
+			if (factory == null) {
+				System.out.println("ERROR: ScenarioSnapshot - can't build "+args[1]+" with arguments "+Arrays.toString(expArgs));
+				System.exit(0);
+			}
+			long start = System.nanoTime();
+			CoverageExperiment e = factory.create(0, Long.parseLong(args[3]));
+			System.out.println("built scenario in "+(System.nanoTime()-start)/1.0e9+" s");
+			start = System.nanoTime();
+			write(e, new File(args[2]), true);
+			System.out.println("wrote "+args[2]+" in "+(System.nanoTime()-start)/1.0e9+" s");
+		} else {
+			long start = System.nanoTime();
+			ScenarioSnapshot s = open(new File(args[1]));
+			System.out.println("mapped "+s.numPoints()+" points in "+(System.nanoTime()-start)/1.0e6+" ms");
+			start = System.nanoTime();
+			CoverageLayout layout = s.toLayout();
+			System.out.println("rebuilt experiment in "+(System.nanoTime()-start)/1.0e9+" s");
+			int[][] counts = layout.intervalCounts();
+			System.out.println("finite intervals: "+Arrays.toString(counts[0])+"  infinite intervals: "+Arrays.toString(counts[1]));
+		}
+	}
+
+}
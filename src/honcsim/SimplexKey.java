@@ -0,0 +1,258 @@
+/*
+ * SimplexKey.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Canonical 64-bit keys for simplices, computed from the indices of their vertices.
+ *
+ * A set of k vertex indices v_0 < v_1 < ... < v_{k-1} is ranked in the combinatorial
+ * number system as C(v_0,1) + C(v_1,2) + ... + C(v_{k-1},k).  Different k-sets get
+ * different ranks, so the rank goes in the low 60 bits and k goes in the 3 bits above
+ * it to keep simplices of different dimensions apart.
+ *
+ * The rank is less than C(v_{k-1}+1,k), so this is exact for triangles with vertex
+ * indices up to about 1.9 million and for edges with indices up to about 1.5 billion
+ * (see LIMIT), and for vertices with any non-negative int index.  When it doesn't
+ * fit (or k > 7) the key is a hash of the indices instead, with the top bit set.
+ * Hashed keys can collide, so anything comparing them has to fall back on comparing
+ * the vertices.  isExact() tells the two apart.
+ */
+
+import java.math.BigInteger;
+import java.util.*;
+
+
+public final class SimplexKey {
+
+	// the key of the empty simplex
+	public static final long EMPTY = 0L;
+
+	static final int RANK_BITS = 60;
+	static final long RANK_MASK = (1L << RANK_BITS) - 1;
+	static final long HASHED = 1L << 63;
+	static final int MAX_EXACT_SIZE = 7;
+
+	// LIMIT[k] is the largest n with C(n,k) <= 2^60, so a k-set whose largest index
+	// is less than LIMIT[k] has an exact key
+	static final long[] LIMIT = new long[MAX_EXACT_SIZE+1];
+	static {
+		BigInteger max = BigInteger.ONE.shiftLeft(RANK_BITS);
+		LIMIT[0] = Long.MAX_VALUE;
+		for (int k=1; k<=MAX_EXACT_SIZE; k++) {
+			long lo = k;
+			long hi = Integer.MAX_VALUE + 1L;
+			while (lo < hi) {
+				long mid = (lo + hi + 1) >>> 1;
+				if (bigBinomial(mid, k).compareTo(max) <= 0) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			LIMIT[k] = lo;
+		}
+	}
+
+
+	private SimplexKey() {
+	}
+
+
+	/**
+	 * C(n,k) as a BigInteger, only used to set up LIMIT.
+	 *
+	 * @param n
+	 * @param k
+	 * @return
+	 */
+	private static BigInteger bigBinomial(long n, int k) {
+		BigInteger c = BigInteger.ONE;
+		for (int j=1; j<=k; j++) {
+			c = c.multiply(BigInteger.valueOf(n-k+j)).divide(BigInteger.valueOf(j));
+		}
+		return c;
+	}
+
+
+	/**
+	 * C(n,k), for C(n,k) <= 2^60 and k <= 7.
+	 * Every intermediate value is C(n-k+j,j)*j <= 7*2^60, so nothing overflows.
+	 *
+	 * @param n
+	 * @param k
+	 * @return
+	 */
+	static long binomial(long n, int k) {
+		if (n < k) { return 0; }
+		long c = 1;
+		for (int j=1; j<=k; j++) {
+			c = c * (n-k+j) / j;
+		}
+		return c;
+	}
+
+
+	/**
+	 * The key of the simplex with these vertex indices.
+	 * The indices have to be sorted and distinct.
+	 *
+	 * @param v
+	 * @return
+	 */
+	public static long of(int[] v) {
+		return of(v, v.length);
+	}
+
+
+	/**
+	 * The key of the simplex with vertex indices v[0..k).
+	 * The indices have to be sorted and distinct.
+	 *
+	 * @param v
+	 * @param k
+	 * @return
+	 */
+	public static long of(int[] v, int k) {
+		if (k == 0) {
+			return EMPTY;
+		}
+		if (v[0] < 0) {
+			throw new IllegalArgumentException("SimplexKey: negative vertex index "+v[0]);
+		}
+		for (int i=1; i<k; i++) {
+			if (v[i] <= v[i-1]) {
+				throw new IllegalArgumentException("SimplexKey: vertex indices not sorted and distinct: "+Arrays.toString(Arrays.copyOf(v, k)));
+			}
+		}
+		if (k > MAX_EXACT_SIZE || v[k-1] >= LIMIT[k]) {
+			return hashed(v, k);
+		}
+		long rank = 0;
+		for (int i=0; i<k; i++) {
+			rank += binomial(v[i], i+1);
+		}
+		return ((long)k << RANK_BITS) | rank;
+	}
+
+
+	/**
+	 * The key of the simplex spanned by a set of points.
+	 *
+	 * @param verts
+	 * @return
+	 */
+	public static long of(Collection<DPoint> verts) {
+		int[] v = new int[verts.size()];
+		int i = 0;
+		for (DPoint p : verts) {
+			v[i++] = p.index;
+		}
+		Arrays.sort(v);
+		return of(v);
+	}
+
+
+	/**
+	 * The fallback key, for simplices too big for an exact one.
+	 *
+	 * @param v
+	 * @param k
+	 * @return
+	 */
+	private static long hashed(int[] v, int k) {
+		long h = k;
+		for (int i=0; i<k; i++) {
+			h = mix(h + v[i]);
+		}
+		return HASHED | ((long)Math.min(k, MAX_EXACT_SIZE) << RANK_BITS) | (h & RANK_MASK);
+	}
+
+
+	/**
+	 * Is this key exact, meaning two simplices with this key have the same vertices?
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static boolean isExact(long key) {
+		return (key & HASHED) == 0;
+	}
+
+
+	/**
+	 * Number of vertices of the simplex with this key.
+	 * For hashed keys this is capped at 7.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static int size(long key) {
+		return (int)((key >>> RANK_BITS) & 7);
+	}
+
+
+	/**
+	 * Recover the sorted vertex indices from an exact key.
+	 * Peels off the largest C(v,k) <= rank, then the largest C(v,k-1) <= what's left, etc.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static int[] vertices(long key) {
+		if (! isExact(key)) {
+			throw new IllegalArgumentException("SimplexKey: can't recover the vertices from a hashed key");
+		}
+		int k = size(key);
+		long rank = key & RANK_MASK;
+		int[] v = new int[k];
+		long hi = (k == 0) ? 0 : LIMIT[k];
+		for (int i=k; i>=1; i--) {
+			// largest n in [i-1, hi) with C(n,i) <= rank
+			long lo = i-1;
+			long top = hi - 1;
+			while (lo < top) {
+				long mid = (lo + top + 1) >>> 1;
+				if (binomial(mid, i) <= rank) {
+					lo = mid;
+				} else {
+					top = mid - 1;
+				}
+			}
+			v[i-1] = (int)lo;
+			rank -= binomial(lo, i);
+			hi = lo;
+		}
+		return v;
+	}
+
+
+	/**
+	 * Scramble the bits of a key, for indexing hash tables.
+	 * The combinatorial ranks of nearby simplices are close together, so the low
+	 * bits alone would cluster badly under linear probing.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static long mix(long key) {
+		key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+		key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+		return key ^ (key >>> 31);
+	}
+
+}
@@ -0,0 +1,351 @@
+/*
+ * SimplexSet.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Set of DSimplex, stored in an open addressing table keyed by DSimplex.key().
+ *
+ * This replaces HashSet<DSimplex> for DComplex.simplices and DPoint.ripsCofaces.
+ * The keys are kept in a long[] next to the DSimplex[], so a lookup compares
+ * primitive keys instead of hashing a HashSet of vertices, and nothing gets
+ * allocated except when the table grows.  Lookups by key let you ask whether a
+ * simplex is present without building a DSimplex at all.
+ *
+ * Two simplices are the same element if they have the same vertices.  With an
+ * exact key that is just key equality; hashed keys are checked against the
+ * vertices (see SimplexKey).
+ *
+ * Linear probing, with backward shift deletion so there are no tombstones.
+ * Like HashSet, don't change the vertices of a DSimplex while it is in a set.
+ */
+
+import java.util.*;
+
+
+public class SimplexSet extends AbstractSet<DSimplex> {
+
+	static final int MIN_CAPACITY = 4;
+
+	long[] keys;
+	DSimplex[] values;
+	int size = 0;
+	int mask;
+
+	// bumped by every change, so iterators can fail fast
+	int modCount = 0;
+
+
+	/**
+	 * Constructor
+	 */
+	public SimplexSet() {
+		this(MIN_CAPACITY);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param expected - number of simplices to make room for
+	 */
+	public SimplexSet(int expected) {
+		int cap = MIN_CAPACITY;
+		while (cap * 3 < expected * 4) {
+			cap <<= 1;
+		}
+		keys = new long[cap];
+		values = new DSimplex[cap];
+		mask = cap - 1;
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param c
+	 */
+	public SimplexSet(Collection<DSimplex> c) {
+		this(c.size());
+		addAll(c);
+	}
+
+
+	/**
+	 * Slot of the simplex with this key and vertices, or the empty slot where it
+	 * would go, as -(slot+1).
+	 *
+	 * @param key
+	 * @param s - only looked at if the key is hashed; may be null then
+	 * @return
+	 */
+	private int find(long key, DSimplex s) {
+		boolean exact = SimplexKey.isExact(key);
+		int i = (int)SimplexKey.mix(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key && (exact || s == null || values[i].vertices.equals(s.vertices))) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+
+	/**
+	 * Double the table.
+	 */
+	private void grow() {
+		long[] oldKeys = keys;
+		DSimplex[] oldValues = values;
+		keys = new long[2 * oldKeys.length];
+		values = new DSimplex[2 * oldValues.length];
+		mask = keys.length - 1;
+		for (int j=0; j<oldValues.length; j++) {
+			if (oldValues[j] == null) { continue; }
+			int i = (int)SimplexKey.mix(oldKeys[j]) & mask;
+			while (values[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+
+	/**
+	 * Add a simplex.
+	 * If one with the same vertices is already there, that one stays.
+	 *
+	 * @param s
+	 * @return true if the set changed
+	 */
+	public boolean add(DSimplex s) {
+		long key = s.key();
+		int i = find(key, s);
+		if (i >= 0) {
+			return false;
+		}
+		if (4 * (size + 1) > 3 * keys.length) {
+			grow();
+			i = find(key, s);
+		}
+		i = -i - 1;
+		keys[i] = key;
+		values[i] = s;
+		size++;
+		modCount++;
+		return true;
+	}
+
+
+	/**
+	 * Remove the simplex with the same vertices as o, if there is one.
+	 *
+	 * @param o
+	 * @return true if the set changed
+	 */
+	public boolean remove(Object o) {
+		if (! (o instanceof DSimplex)) {
+			return false;
+		}
+		DSimplex s = (DSimplex)o;
+		int i = find(s.key(), s);
+		if (i < 0) {
+			return false;
+		}
+		removeSlot(i);
+		return true;
+	}
+
+
+	/**
+	 * Empty out a slot, and shift back the entries after it in its probe run
+	 * that would no longer be reachable.
+	 *
+	 * @param i
+	 */
+	private void removeSlot(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null) { break; }
+			int home = (int)SimplexKey.mix(keys[j]) & mask;
+			// move j back to i unless its home lies cyclically in (i, j]
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = 0;
+		values[i] = null;
+		size--;
+		modCount++;
+	}
+
+
+	/**
+	 * Is there a simplex with the same vertices as o?
+	 *
+	 * @param o
+	 * @return
+	 */
+	public boolean contains(Object o) {
+		if (! (o instanceof DSimplex)) {
+			return false;
+		}
+		DSimplex s = (DSimplex)o;
+		return find(s.key(), s) >= 0;
+	}
+
+
+	/**
+	 * The simplex with this key, or null.
+	 * If the key is hashed and several simplices share it, this returns one of them.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public DSimplex get(long key) {
+		int i = find(key, null);
+		return (i >= 0) ? values[i] : null;
+	}
+
+
+	/**
+	 * Is there a simplex with this key?
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(long key) {
+		return find(key, null) >= 0;
+	}
+
+
+	/**
+	 * The simplex with these vertex indices, or null.
+	 *
+	 * @param indices - sorted vertex indices
+	 * @return
+	 */
+	public DSimplex getSimplex(int... indices) {
+		long key = SimplexKey.of(indices);
+		if (SimplexKey.isExact(key)) {
+			return get(key);
+		}
+		// hashed keys can collide, so check the vertices
+		int i = (int)SimplexKey.mix(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key && sameIndices(values[i], indices)) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Does s have exactly these vertex indices?
+	 *
+	 * @param s
+	 * @param indices
+	 * @return
+	 */
+	private static boolean sameIndices(DSimplex s, int[] indices) {
+		if (s.vertices.size() != indices.length) { return false; }
+		for (DPoint p : s.vertices) {
+			if (Arrays.binarySearch(indices, p.index) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public void clear() {
+		if (size == 0) { return; }
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+		size = 0;
+		modCount++;
+	}
+
+
+	public boolean removeAll(Collection<?> c) {
+		boolean changed = false;
+		for (Object o : c) {
+			changed |= remove(o);
+		}
+		return changed;
+	}
+
+
+	public boolean retainAll(Collection<?> c) {
+		ArrayList<DSimplex> drop = new ArrayList<DSimplex>();
+		for (DSimplex s : this) {
+			if (! c.contains(s)) {
+				drop.add(s);
+			}
+		}
+		return removeAll(drop);
+	}
+
+
+	/**
+	 * Iterator over the simplices, in table order.
+	 * Backward shift deletion can move an entry the iterator has already passed
+	 * in front of it again, so the iterator doesn't support remove().
+	 */
+	public Iterator<DSimplex> iterator() {
+		return new Iterator<DSimplex>() {
+			int next = advance(0);
+			final int expectedModCount = modCount;
+
+			private int advance(int i) {
+				while (i < values.length && values[i] == null) {
+					i++;
+				}
+				return i;
+			}
+
+			public boolean hasNext() {
+				return next < values.length;
+			}
+
+			public DSimplex next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next >= values.length) {
+					throw new NoSuchElementException();
+				}
+				DSimplex s = values[next];
+				next = advance(next + 1);
+				return s;
+			}
+		};
+	}
+
+}
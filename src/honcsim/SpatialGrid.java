@@ -0,0 +1,197 @@
+/*
+ * SpatialGrid.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Uniform grid of DPoints, for finding the points within radius r of a point
+ * without looking at all the others.
+ *
+ * The cells are r x r squares, so everything within distance r of a point is in
+ * its own cell or one of the 8 around it.  Cells are kept in a hash map keyed by
+ * the packed cell coordinates, so the domain doesn't have to be known up front
+ * and empty cells cost nothing.
+ *
+ * A point's cell is computed from its coordinates, so move points with move(),
+ * not by changing x and y directly.
+ */
+
+import java.util.*;
+
+
+public class SpatialGrid {
+
+	final double cellSize;
+
+	final HashMap<Long,ArrayList<DPoint>> cells = new HashMap<Long,ArrayList<DPoint>>();
+
+	int size = 0;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param cellSize - normally the communication radius
+	 */
+	public SpatialGrid(double cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("SpatialGrid cell size must be positive");
+		}
+		this.cellSize = cellSize;
+	}
+
+
+	/**
+	 * Pack the coordinates of a cell into one long.
+	 * Long.hashCode() xors the two halves together, which makes lots of nearby
+	 * cells collide, so the bits are scrambled too.  The scrambling is invertible,
+	 * so different cells still get different keys.
+	 *
+	 * @param cx
+	 * @param cy
+	 * @return
+	 */
+	static long cellKey(long cx, long cy) {
+		long k = ((cx << 32) ^ (cy & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+		k ^= k >>> 29;
+		return k * 0xBF58476D1CE4E5B9L;
+	}
+
+
+	/**
+	 * Key of the cell containing (x,y)
+	 *
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	long cellOf(double x, double y) {
+		return cellKey((long)Math.floor(x/cellSize), (long)Math.floor(y/cellSize));
+	}
+
+
+	/**
+	 * Add a point to the grid.
+	 *
+	 * @param p
+	 */
+	public void add(DPoint p) {
+		long key = cellOf(p.x, p.y);
+		ArrayList<DPoint> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<DPoint>();
+			cells.put(key, cell);
+		}
+		cell.add(p);
+		size++;
+	}
+
+
+	/**
+	 * Remove a point from the grid.
+	 *
+	 * @param p
+	 * @return true if the point was in the grid
+	 */
+	public boolean remove(DPoint p) {
+		long key = cellOf(p.x, p.y);
+		ArrayList<DPoint> cell = cells.get(key);
+		if (cell == null || ! cell.remove(p)) {
+			return false;
+		}
+		if (cell.isEmpty()) {
+			cells.remove(key);
+		}
+		size--;
+		return true;
+	}
+
+
+	/**
+	 * Move a point that is in the grid to (x,y).
+	 *
+	 * @param p
+	 * @param x
+	 * @param y
+	 */
+	public void move(DPoint p, double x, double y) {
+		if (cellOf(x, y) == cellOf(p.x, p.y)) {
+			p.x = x;
+			p.y = y;
+			return;
+		}
+		remove(p);
+		p.x = x;
+		p.y = y;
+		add(p);
+	}
+
+
+	/**
+	 * All the points within distance r of (x,y).
+	 * r should be no larger than the cell size.
+	 *
+	 * @param x
+	 * @param y
+	 * @param r
+	 * @return
+	 */
+	public ArrayList<DPoint> within(double x, double y, double r) {
+		ArrayList<DPoint> result = new ArrayList<DPoint>();
+		double r2 = r*r;
+		long cx = (long)Math.floor(x/cellSize);
+		long cy = (long)Math.floor(y/cellSize);
+		for (long i=cx-1; i<=cx+1; i++) {
+			for (long j=cy-1; j<=cy+1; j++) {
+				ArrayList<DPoint> cell = cells.get(cellKey(i, j));
+				if (cell == null) { continue; }
+				for (DPoint q : cell) {
+					double d2 = (q.x-x)*(q.x-x) + (q.y-y)*(q.y-y);
+					if (d2 <= r2) {
+						result.add(q);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * The points within distance r of p, not including p.
+	 *
+	 * @param p
+	 * @param r
+	 * @return
+	 */
+	public ArrayList<DPoint> neighborsOf(DPoint p, double r) {
+		ArrayList<DPoint> result = within(p.x, p.y, r);
+		result.remove(p);
+		return result;
+	}
+
+
+	/**
+	 * Number of points in the grid
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+}
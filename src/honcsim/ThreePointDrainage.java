@@ -30,7 +30,7 @@ public class ThreePointDrainage extends DrainageExperiment {
 	public ThreePointDrainage() {
 		super(vsDimension, 1.0);
 		
-		points = new Vector<DPoint>(3);
+		points = new PointStore(3);
 		points.add(new DPoint(-0.9, 0.0, vsDimension));
 		points.add(new DPoint(0.0, 0.0, vsDimension));
 		points.add(new DPoint(0.9, 0.0, vsDimension));
@@ -55,6 +55,7 @@ public class ThreePointDrainage extends DrainageExperiment {
 	public static void main(String[] args) {
 		
 		ThreePointDrainage tpd = new ThreePointDrainage();
+		tpd.drainageListener = DrainageListener.PRINT;
 		
 		tpd.drainVertex(tpd.points.get(0),0);
 		tpd.drainVertex(tpd.points.get(1),0);
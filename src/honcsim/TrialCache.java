@@ -0,0 +1,388 @@
+/*
+ * TrialCache.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * On-disk cache of trial results, addressed by content.
+ *
+ * A trial is completely determined by the experiment class, its parameters, the
+ * seed, whether the points are renumbered along a Hilbert curve (see
+ * CoverageExperiment.hilbertOrder) and the code that runs it.  The cache key is
+ * the SHA-256 of all of those, where the code is represented by the bytecode of
+ * every class in the honcsim package, read from the directory or jar it was
+ * loaded from.  A hand-picked list of classes goes stale as soon as a trial
+ * starts using a new one.  Recompiling changed code gives new keys, so stale
+ * results are never returned; they are just never looked up again.
+ *
+ * Each entry is one small binary file holding the summary of the trial, the
+ * persistence barcodes in dimensions 0 and 1, and the filtered coverage-Rips
+ * complex (see CoverageExperiment.encodeCoverageStream()).  Entries are written
+ * to a temporary file and renamed into place, so a crash never leaves a partial
+ * entry, and they are read back through a memory map.
+ *
+ * Layout of an entry, big-endian:
+ *
+ *     int    MAGIC
+ *     int    VERSION
+ *     byte[32] the key, to catch a file in the wrong place
+ *     int    numPoints
+ *     long   nanos
+ *     2 x { int n, n x double }   barcodes of dimensions 0 and 1
+ *     int n, n x int              coverage stream
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+
+public class TrialCache {
+
+	static final int MAGIC = 0x48435443;    // "HCTC"
+	static final int VERSION = 1;
+
+	final File dir;
+
+	// hash of the bytecode, per experiment class.  They only differ for
+	// experiment classes outside the package.
+	final HashMap<Class<?>,byte[]> codeHashes = new HashMap<Class<?>,byte[]>();
+
+	// statistics
+	final AtomicInteger hits = new AtomicInteger();
+	final AtomicInteger misses = new AtomicInteger();
+
+
+	/*
+	 * What we keep about a trial
+	 */
+	static class Entry {
+		final int numPoints;
+		final long nanos;
+
+		// per dimension, flat (start, end) pairs
+		final double[][] barcodes;
+
+		// CoverageExperiment.encodeCoverageStream()
+		final int[] coverageStream;
+
+		Entry(int numPoints, long nanos, double[][] barcodes, int[] coverageStream) {
+			this.numPoints = numPoints;
+			this.nanos = nanos;
+			this.barcodes = barcodes;
+			this.coverageStream = coverageStream;
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param dir - created if it doesn't exist
+	 */
+	public TrialCache(File dir) {
+		this.dir = dir;
+		if (! dir.isDirectory() && ! dir.mkdirs()) {
+			throw new IllegalArgumentException("TrialCache: can't create directory "+dir);
+		}
+	}
+
+
+	/**
+	 * SHA-256 of the bytecode of the honcsim package, and of the experiment class
+	 * if it isn't in the package.
+	 *
+	 * @param experiment
+	 * @return
+	 */
+	synchronized byte[] codeHash(Class<?> experiment) {
+		byte[] h = codeHashes.get(experiment);
+		if (h != null) {
+			return h;
+		}
+		MessageDigest md = sha256();
+		Charset utf8 = Charset.forName("UTF-8");
+		List<String> classes = packageClasses();
+		for (String resource : classes) {
+			md.update(resource.getBytes(utf8));
+			md.update((byte)0);
+			digestResource(md, TrialCache.class, resource);
+		}
+		String resource = experiment.getName().replace('.', '/')+".class";
+		if (! classes.contains(resource)) {
+			md.update(resource.getBytes(utf8));
+			md.update((byte)0);
+			digestResource(md, experiment, resource);
+		}
+		h = md.digest();
+		codeHashes.put(experiment, h);
+		return h;
+	}
+
+
+	/**
+	 * The resource names of all the class files in the honcsim package, sorted,
+	 * including nested and anonymous classes.
+	 *
+	 * @return
+	 */
+	static List<String> packageClasses() {
+		String pkg = TrialCache.class.getPackage().getName().replace('.', '/')+"/";
+		ArrayList<String> names = new ArrayList<String>();
+		try {
+			File loc = new File(TrialCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			if (loc.isDirectory()) {
+				File[] files = new File(loc, pkg).listFiles();
+				if (files != null) {
+					for (File f : files) {
+						if (f.isFile() && f.getName().endsWith(".class")) {
+							names.add(pkg+f.getName());
+						}
+					}
+				}
+			} else {
+				JarFile jar = new JarFile(loc);
+				try {
+					Enumeration<JarEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						String name = entries.nextElement().getName();
+						if (name.startsWith(pkg) && name.endsWith(".class") && name.indexOf('/', pkg.length()) < 0) {
+							names.add(name);
+						}
+					}
+				} finally {
+					jar.close();
+				}
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException("TrialCache: can't list the classes of "+pkg, e);
+		}
+		if (names.isEmpty()) {
+			throw new IllegalStateException("TrialCache: found no classes in "+pkg);
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+
+	/**
+	 * Feed a class file to a digest.
+	 *
+	 * @param md
+	 * @param loadedBy - a class from the same class loader as the resource
+	 * @param resource
+	 */
+	static void digestResource(MessageDigest md, Class<?> loadedBy, String resource) {
+		InputStream in = loadedBy.getResourceAsStream("/"+resource);
+		if (in == null) {
+			throw new IllegalStateException("TrialCache: can't read the bytecode of "+resource);
+		}
+		try {
+			try {
+				byte[] buf = new byte[8192];
+				int n = 0;
+				while ((n = in.read(buf)) > 0) {
+					md.update(buf, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("TrialCache: can't read the bytecode of "+resource, e);
+		}
+	}
+
+
+	/**
+	 * The key of a trial.
+	 * CoverageExperiment.hilbertOrder is part of it too.
+	 *
+	 * @param experiment
+	 * @param params - the constructor arguments, in order
+	 * @param seed
+	 * @return
+	 */
+	public byte[] key(Class<?> experiment, String[] params, long seed) {
+		MessageDigest md = sha256();
+		Charset utf8 = Charset.forName("UTF-8");
+		md.update(experiment.getName().getBytes(utf8));
+		for (String p : params) {
+			md.update((byte)0);
+			md.update(p.getBytes(utf8));
+		}
+		md.update((byte)0);
+		for (int i=0; i<8; i++) {
+			md.update((byte)(seed >>> (8*i)));
+		}
+		// renumbering the points changes the order everything is done in
+		md.update((byte)(CoverageExperiment.hilbertOrder ? 1 : 0));
+		md.update(codeHash(experiment));
+		return md.digest();
+	}
+
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * The file of an entry.  Entries are spread over 256 subdirectories by
+	 * the first byte of the key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	File fileFor(byte[] key) {
+		StringBuilder sb = new StringBuilder(2*key.length);
+		for (byte b : key) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		String hex = sb.toString();
+		return new File(new File(dir, hex.substring(0, 2)), hex+".bin");
+	}
+
+
+	/**
+	 * Look up a trial.
+	 *
+	 * @param key
+	 * @return null if it isn't in the cache, or the entry is unreadable
+	 */
+	public Entry get(byte[] key) {
+		File f = fileFor(key);
+		if (! f.exists()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(f, "r");
+			try {
+				MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+					System.out.println("WARNING: TrialCache - ignoring bad entry "+f);
+					misses.incrementAndGet();
+					return null;
+				}
+				byte[] stored = new byte[key.length];
+				buf.get(stored);
+				if (! Arrays.equals(stored, key)) {
+					System.out.println("WARNING: TrialCache - entry "+f+" has the wrong key");
+					misses.incrementAndGet();
+					return null;
+				}
+				int numPoints = buf.getInt();
+				long nanos = buf.getLong();
+				double[][] bars = new double[2][];
+				for (int d=0; d<2; d++) {
+					bars[d] = new double[buf.getInt()];
+					buf.asDoubleBuffer().get(bars[d]);
+					buf.position(buf.position() + 8*bars[d].length);
+				}
+				int[] stream = new int[buf.getInt()];
+				buf.asIntBuffer().get(stream);
+				hits.incrementAndGet();
+				return new Entry(numPoints, nanos, bars, stream);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			System.out.println("WARNING: TrialCache - can't read "+f+": "+e.getMessage());
+		} catch (RuntimeException e) {
+			// a truncated file gives a BufferUnderflowException
+			System.out.println("WARNING: TrialCache - can't read "+f+": "+e);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+
+	/**
+	 * Store a trial.
+	 * Safe to call from several threads, and from several processes sharing the
+	 * directory.
+	 *
+	 * @param key
+	 * @param e
+	 */
+	public void put(byte[] key, Entry e) {
+		File f = fileFor(key);
+		File parent = f.getParentFile();
+		parent.mkdirs();
+		try {
+			File tmp = File.createTempFile(f.getName(), ".tmp", parent);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.write(key);
+				out.writeInt(e.numPoints);
+				out.writeLong(e.nanos);
+				for (int d=0; d<2; d++) {
+					out.writeInt(e.barcodes[d].length);
+					for (double x : e.barcodes[d]) {
+						out.writeDouble(x);
+					}
+				}
+				out.writeInt(e.coverageStream.length);
+				for (int x : e.coverageStream) {
+					out.writeInt(x);
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			System.out.println("WARNING: TrialCache - can't write "+f+": "+ex.getMessage());
+		}
+	}
+
+
+	/**
+	 * Number of lookups that found an entry
+	 *
+	 * @return
+	 */
+	public int getHits() {
+		return hits.get();
+	}
+
+
+	/**
+	 * Number of lookups that didn't
+	 *
+	 * @return
+	 */
+	public int getMisses() {
+		return misses.get();
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * VsCoverBenchmark.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Time DComplex.vsCover() with and without the neighborhood pruning.
+ *
+ * The complex is a grid of copies of the BubbleBoxDrainage layout, with
+ * as many copies as it takes to get the requested number of simplices.
+ * The boxes are far enough apart that they don't interact.
+ *
+ * ./simrun honcsim.VsCoverBenchmark 16 10000
+ */
+
+import java.util.*;
+
+import m4rjni.Mzd;
+
+public class VsCoverBenchmark extends DrainageExperiment {
+
+	// distance between the centers of neighboring boxes
+	static final double BOX_SPACING = 3.0;
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param dim
+	 * @param numBoxes
+	 */
+	public VsCoverBenchmark(int dim, int numBoxes) {
+		super(dim, 1.0);
+
+		points = new PointStore(8*numBoxes);
+		int side = (int)Math.ceil(Math.sqrt(numBoxes));
+		for (int b=0; b<numBoxes; b++) {
+			placeBubbleBox((b % side)*BOX_SPACING, (b / side)*BOX_SPACING);
+		}
+
+		this.computeNeighborSet();
+	}
+
+
+	/**
+	 * Place one copy of the BubbleBoxDrainage layout centered at (x,y).
+	 * The inner points get structured bases, and the outer points get random half-bases.
+	 *
+	 * @param x
+	 * @param y
+	 */
+	private void placeBubbleBox(double x, double y) {
+		double s2 = 1.0/Math.sqrt(2.0)/2.0;
+		double s2p = s2 + 0.1;
+
+		// the outer square
+		points.add(new DPoint(x+s2p, y+s2p, vsDimension));
+		points.add(new DPoint(x-s2p, y-s2p, vsDimension));
+		points.add(new DPoint(x-s2p, y+s2p, vsDimension));
+		points.add(new DPoint(x+s2p, y-s2p, vsDimension));
+		for (int i=points.size()-4; i<points.size(); i++) {
+			for (int j=0; j<(1+vsDimension/2); j++) {
+				points.get(i).addRandomInventoryVector();
+			}
+		}
+
+		// the inner square
+		points.add(new DPoint(x+s2, y+s2, vsDimension));
+		points.lastElement().addInventoryVector(this.basis[0]);
+		points.add(new DPoint(x+s2, y-s2, vsDimension));
+		points.lastElement().addInventoryVector(this.basis[1]);
+		points.add(new DPoint(x-s2, y-s2, vsDimension));
+		points.lastElement().addInventoryVector(this.basis[0]);
+		points.add(new DPoint(x-s2, y+s2, vsDimension));
+		points.lastElement().addInventoryVector(this.basis[1]);
+	}
+
+
+	/**
+	 * Run vsCover() a few times and return the average time in ms.
+	 *
+	 * @param prune
+	 * @param reps
+	 * @return
+	 */
+	double timeVsCover(boolean prune, int reps) {
+		long start = System.nanoTime();
+		for (int i=0; i<reps; i++) {
+			Mzd U = maximalSimplices.vsCover(prune);
+			if (U != null) { U.destroy(); }
+		}
+		return (System.nanoTime() - start)/1.0e6/reps;
+	}
+
+
+	/**
+	 * Same thing for vsCoverParallel().
+	 *
+	 * @param reps
+	 * @return
+	 */
+	double timeVsCoverParallel(int reps) {
+		long start = System.nanoTime();
+		for (int i=0; i<reps; i++) {
+			Mzd U = maximalSimplices.vsCoverParallel();
+			if (U != null) { U.destroy(); }
+		}
+		return (System.nanoTime() - start)/1.0e6/reps;
+	}
+
+
+	/* **************************************
+	 *
+	 * Main Routine
+	 *
+	 * **************************************
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("usage: VsCoverBenchmark <vsDimension> <numSimplices> [reps]");
+			System.exit(0);
+		}
+		int dim = Integer.parseInt(args[0]);
+		int numSimplices = Integer.parseInt(args[1]);
+		int reps = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		// figure out how many simplices one box produces
+		VsCoverBenchmark one = new VsCoverBenchmark(dim, 1);
+		one.buildRipsComplex();
+		int perBox = one.maximalSimplices.simplices.size();
+		int numBoxes = Math.max(1, (numSimplices + perBox - 1)/perBox);
+
+		VsCoverBenchmark bm = new VsCoverBenchmark(dim, numBoxes);
+		bm.buildRipsComplex();
+		System.out.println("boxes: "+numBoxes+"\t points: "+bm.points.size()+"\t simplices: "+bm.maximalSimplices.simplices.size());
+		System.out.println("distinct minimal neighborhoods: "+bm.maximalSimplices.minimalNeighborhoods().size());
+
+		// warm up
+		bm.timeVsCover(false, 1);
+		bm.timeVsCover(true, 1);
+
+		double tFull = bm.timeVsCover(false, reps);
+		double tPruned = bm.timeVsCover(true, reps);
+		double tParallel = bm.timeVsCoverParallel(reps);
+		System.out.println("vsCover (no pruning):   "+tFull+" ms");
+		System.out.println("vsCover (pruned):       "+tPruned+" ms");
+		System.out.println("vsCoverParallel:        "+tParallel+" ms");
+
+		Mzd maxVS = bm.maximalSimplices.vsCover();
+		System.out.println("\nmaximum vs covering full complex:");
+		maxVS.print();
+	}
+
+}
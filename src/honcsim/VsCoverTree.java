@@ -0,0 +1,187 @@
+/*
+ * VsCoverTree.java
+ *
+ * Copyright (C) 2015 Brenton Walker
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package honcsim;
+/*
+ * Segment tree for keeping the result of DComplex.vsCover() up to date while
+ * inventories change.
+ *
+ * The leaves are the spans of the (pruned) common neighbor sets of the simplices,
+ * and each internal node holds the intersection of its two children, so the root
+ * is the vector space covering the whole complex.  When a point's inventory
+ * changes, only the leaves whose neighborhood contains the point are recomputed,
+ * and then their ancestors, which is O(log n) intersections per leaf instead of
+ * a full pass over the complex.
+ *
+ * The neighborhoods only depend on the neighbor sets, not on the inventories, so
+ * the pruning done by DComplex.minimalNeighborhoods() stays valid.  If simplices
+ * are added to the complex the tree has to be rebuilt.
+ *
+ * Everything is kept in BitBasis form, so the tree holds no m4ri objects.
+ */
+
+import java.util.*;
+
+
+public class VsCoverTree {
+
+	final int vsDimension;
+
+	// the neighborhoods at the leaves
+	final ArrayList<HashSet<DPoint>> leaves;
+
+	// number of leaf slots, a power of 2.  Node i has children 2i and 2i+1,
+	// and leaf j is at node size+j.  A null node stands for the whole space.
+	final int size;
+	final BitBasis[] nodes;
+
+	// for each point, the leaves whose neighborhood contains it
+	final HashMap<DPoint,ArrayList<Integer>> leavesOf = new HashMap<DPoint,ArrayList<Integer>>();
+
+	// true if one of the simplices had no neighborhood at all, in which case
+	// the covering space isn't defined
+	boolean undefined = false;
+
+
+	/**
+	 * Constructor
+	 * Builds the leaves and all the intersections up to the root.
+	 *
+	 * @param neighborhoods
+	 * @param vsDimension
+	 */
+	public VsCoverTree(List<HashSet<DPoint>> neighborhoods, int vsDimension) {
+		this.vsDimension = vsDimension;
+		this.leaves = new ArrayList<HashSet<DPoint>>(neighborhoods);
+
+		int sz = 1;
+		while (sz < leaves.size()) {
+			sz <<= 1;
+		}
+		this.size = sz;
+		this.nodes = new BitBasis[2*size];
+
+		for (int j=0; j<leaves.size(); j++) {
+			HashSet<DPoint> N = leaves.get(j);
+			if (N == null || N.isEmpty()) {
+				undefined = true;
+				continue;
+			}
+			for (DPoint p : N) {
+				ArrayList<Integer> ll = leavesOf.get(p);
+				if (ll == null) {
+					ll = new ArrayList<Integer>();
+					leavesOf.put(p, ll);
+				}
+				ll.add(j);
+			}
+			nodes[size+j] = leafSpan(j);
+		}
+
+		for (int i=size-1; i>0; i--) {
+			nodes[i] = meet(nodes[2*i], nodes[2*i+1]);
+		}
+	}
+
+
+	/**
+	 * The span of the inventories in the neighborhood at leaf j.
+	 * A full rank span is stored as null, since it has no effect on the intersection.
+	 *
+	 * @param j
+	 * @return
+	 */
+	private BitBasis leafSpan(int j) {
+		BitBasis W = BitBasis.span(leaves.get(j), vsDimension);
+		if (W.rank == vsDimension) {
+			return null;
+		}
+		return W;
+	}
+
+
+	/**
+	 * Intersection of two nodes, where null is the whole space.
+	 *
+	 * @param A
+	 * @param B
+	 * @return
+	 */
+	private static BitBasis meet(BitBasis A, BitBasis B) {
+		if (A == null) { return B; }
+		if (B == null) { return A; }
+		if (A.rank == 0) { return A; }
+		if (B.rank == 0) { return B; }
+		return A.intersect(B);
+	}
+
+
+	/**
+	 * Recompute everything that depends on the inventory of p.
+	 * Each affected ancestor is only recomputed once, even if several of the
+	 * leaves below it changed.
+	 *
+	 * @param p
+	 * @return the number of leaves that were recomputed
+	 */
+	public int update(DPoint p) {
+		ArrayList<Integer> ll = leavesOf.get(p);
+		if (ll == null) { return 0; }
+
+		// parents always have smaller indices than their children, so
+		// processing the largest index first does each level bottom up
+		TreeSet<Integer> dirty = new TreeSet<Integer>();
+		for (int j : ll) {
+			nodes[size+j] = leafSpan(j);
+			if (size+j > 1) {
+				dirty.add((size+j) >>> 1);
+			}
+		}
+		while (! dirty.isEmpty()) {
+			int i = dirty.pollLast();
+			nodes[i] = meet(nodes[2*i], nodes[2*i+1]);
+			if (i > 1) {
+				dirty.add(i >>> 1);
+			}
+		}
+		return ll.size();
+	}
+
+
+	/**
+	 * The intersection over all the leaves.
+	 * Returns null if the covering space is the whole vector space.
+	 *
+	 * @return
+	 */
+	public BitBasis root() {
+		return nodes[1];
+	}
+
+
+	/**
+	 * Dimension of the vector space covering the complex.
+	 *
+	 * @return
+	 */
+	public int rank() {
+		BitBasis R = root();
+		return (R == null) ? vsDimension : R.rank;
+	}
+
+}
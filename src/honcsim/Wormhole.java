@@ -45,7 +45,7 @@ public class Wormhole extends CoverageExperiment {
 		super(vsDimension, 1.0);
 
 		// allocate the grid of DPoints
-		points = new Vector<DPoint>(15);
+		points = new PointStore(15);
 		
 		double R=1.0;
 		
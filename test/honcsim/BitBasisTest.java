@@ -0,0 +1,131 @@
+package honcsim;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class BitBasisTest {
+
+    /*
+     * ======================================
+     *        Utility Functions
+     * ======================================
+     */
+
+    static long[] randomVector(Random rand, int dim) {
+        long[] v = new long[BitBasis.numWords(dim)];
+        for (int c=0; c<dim; c++) {
+            if (rand.nextInt(4) == 0) {
+                v[c >>> 6] |= (1L << c);
+            }
+        }
+        return v;
+    }
+
+
+    static long[][] copyRows(BitBasis B) {
+        long[][] rr = B.rows();
+        long[][] cc = new long[rr.length][];
+        for (int i=0; i<rr.length; i++) {
+            cc[i] = rr[i].clone();
+        }
+        return cc;
+    }
+
+
+    /*
+     * ======================================
+     *        Actual Testing
+     * ======================================
+     */
+
+    @Test
+    public void testBitBasis_clearReusesRows() {
+        Random rand = new Random(5);
+        int dim = 150;
+        BitBasis reused = new BitBasis(dim);
+        for (int t=0; t<200; t++) {
+            reused.clear();
+            BitBasis fresh = new BitBasis(dim);
+            int n = rand.nextInt(2*dim);
+            for (int i=0; i<n; i++) {
+                long[] v = randomVector(rand, dim);
+                assertEquals(fresh.add(v), reused.add(v));
+            }
+            assertEquals(fresh.rank, reused.rank);
+            for (int c=0; c<dim; c++) {
+                if (fresh.byPivot[c] == null) {
+                    assertNull(reused.byPivot[c]);
+                } else {
+                    assertArrayEquals(fresh.byPivot[c], reused.byPivot[c]);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testBitBasis_sharedRowsSurviveClear() {
+        Random rand = new Random(6);
+        int dim = 100;
+        BitBasis B = new BitBasis(dim);
+        for (int t=0; t<50; t++) {
+            B.clear();
+            for (int i=0; i<dim/2; i++) {
+                B.add(randomVector(rand, dim));
+            }
+            BitBasis C = B.copy();
+            long[][] rows = B.rows();
+            long[][] expected = copyRows(B);
+
+            // refill B with something else
+            B.clear();
+            for (int i=0; i<dim; i++) {
+                B.add(randomVector(rand, dim));
+            }
+
+            assertEquals(expected.length, C.rank);
+            assertArrayEquals(expected, C.rows());
+            assertArrayEquals(expected, rows);
+        }
+    }
+
+
+    @Test
+    public void testBitBasis_inSpan() {
+        Random rand = new Random(7);
+        int dim = 70;
+        for (int t=0; t<100; t++) {
+            BitBasis B = new BitBasis(dim);
+            int n = rand.nextInt(dim);
+            for (int i=0; i<n; i++) {
+                B.add(randomVector(rand, dim));
+            }
+            long[][] before = copyRows(B);
+            for (int i=0; i<20; i++) {
+                long[] v = randomVector(rand, dim);
+                long[] saved = v.clone();
+                boolean in = B.inSpan(v);
+                assertArrayEquals(saved, v);
+                assertArrayEquals(before, B.rows());
+
+                BitBasis C = B.copy();
+                assertEquals(! in, C.add(v));
+            }
+            // sums of basis vectors are always in the span
+            long[] sum = new long[BitBasis.numWords(dim)];
+            for (long[] r : before) {
+                if (rand.nextBoolean()) {
+                    for (int w=0; w<sum.length; w++) {
+                        sum[w] ^= r[w];
+                    }
+                }
+            }
+            assertTrue(B.inSpan(sum));
+        }
+    }
+
+}
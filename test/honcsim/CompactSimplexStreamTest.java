@@ -0,0 +1,298 @@
+package honcsim;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+
+
+public class CompactSimplexStreamTest {
+
+    /*
+     * ======================================
+     *        Utility Functions
+     * ======================================
+     */
+
+    // vertex numbers that need both 16 bit digits of the radix sort, and its sign flip
+    static final int[] WIDE_VERTICES = { Integer.MIN_VALUE, -70000, -65536, -5, -1, 0, 3, 65535, 65536, 70000, Integer.MAX_VALUE };
+
+
+    /**
+     * The same complex kept the obvious way: the filtration index of each
+     * simplex in a map keyed by its sorted vertex list.
+     */
+    static class ReferenceStream {
+        final HashMap<List<Integer>,Integer> filtration = new HashMap<List<Integer>,Integer>();
+
+        void add(int[] v, int f) {
+            List<Integer> s = sorted(v);
+            Integer old = filtration.get(s);
+            if (old == null || f < old) {
+                filtration.put(s, f);
+            }
+        }
+
+        // lower every face to the filtration of its cofaces, adding it if it is
+        // missing and addFaces is set.  Returns false if a face is missing.
+        boolean closeFaces(boolean addFaces) {
+            int top = 0;
+            for (List<Integer> s : filtration.keySet()) {
+                top = Math.max(top, s.size());
+            }
+            for (int k=top; k>1; k--) {
+                for (Map.Entry<List<Integer>,Integer> e : new ArrayList<Map.Entry<List<Integer>,Integer>>(filtration.entrySet())) {
+                    List<Integer> s = e.getKey();
+                    if (s.size() != k) { continue; }
+                    for (int skip=0; skip<k; skip++) {
+                        List<Integer> face = new ArrayList<Integer>(s);
+                        face.remove(skip);
+                        Integer old = filtration.get(face);
+                        if (old == null && ! addFaces) {
+                            return false;
+                        }
+                        if (old == null || e.getValue() < old) {
+                            filtration.put(face, e.getValue());
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        // by filtration, then dimension, then vertices
+        List<List<Integer>> order() {
+            List<List<Integer>> all = new ArrayList<List<Integer>>(filtration.keySet());
+            Collections.sort(all, new Comparator<List<Integer>>() {
+                public int compare(List<Integer> a, List<Integer> b) {
+                    int c = Integer.compare(filtration.get(a), filtration.get(b));
+                    if (c != 0) { return c; }
+                    c = Integer.compare(a.size(), b.size());
+                    if (c != 0) { return c; }
+                    for (int i=0; i<a.size(); i++) {
+                        c = Integer.compare(a.get(i), b.get(i));
+                        if (c != 0) { return c; }
+                    }
+                    return 0;
+                }
+            });
+            return all;
+        }
+
+        int size(int k) {
+            int n = 0;
+            for (List<Integer> s : filtration.keySet()) {
+                if (s.size() == k) { n++; }
+            }
+            return n;
+        }
+    }
+
+
+    static List<Integer> sorted(int[] v) {
+        int[] c = v.clone();
+        Arrays.sort(c);
+        List<Integer> s = new ArrayList<Integer>();
+        for (int x : c) {
+            s.add(x);
+        }
+        return s;
+    }
+
+
+    static int[] toArray(List<Integer> s) {
+        int[] v = new int[s.size()];
+        for (int i=0; i<v.length; i++) {
+            v[i] = s.get(i);
+        }
+        return v;
+    }
+
+
+    /**
+     * Up to 4 distinct vertices from the pool, in random order.
+     */
+    static int[] randomSimplex(Random rand, int[] pool) {
+        int k = 1 + rand.nextInt(4);
+        ArrayList<Integer> v = new ArrayList<Integer>();
+        while (v.size() < k) {
+            int x = pool[rand.nextInt(pool.length)];
+            if (! v.contains(x)) {
+                v.add(x);
+            }
+        }
+        Collections.shuffle(v, rand);
+        return toArray(v);
+    }
+
+
+    static void assertSameStream(ReferenceStream ref, CompactSimplexStream css) {
+        int total = 0;
+        for (int d=0; d<css.numDimensions(); d++) {
+            assertEquals(ref.size(d+1), css.getSize(d));
+            total += ref.size(d+1);
+        }
+        assertEquals(ref.filtration.size(), total);
+        assertEquals(total, css.getSize());
+
+        for (Map.Entry<List<Integer>,Integer> e : ref.filtration.entrySet()) {
+            Simplex s = new Simplex(toArray(e.getKey()));
+            assertTrue(css.containsElement(s));
+            assertEquals((int)e.getValue(), css.getFiltrationIndex(s));
+        }
+
+        // each dimension is sorted, so position i holds the i-th smallest
+        for (int d=0; d<css.numDimensions(); d++) {
+            int[] prev = null;
+            for (int i=0; i<css.getSize(d); i++) {
+                int[] v = css.getVertices(d, i, new int[d+1]);
+                assertEquals(i, css.indexOf(v));
+                if (prev != null) {
+                    assertTrue(sorted(prev).toString()+" "+sorted(v), lexCompare(prev, v) < 0);
+                }
+                prev = v;
+            }
+        }
+
+        Iterator<Simplex> it = css.iterator();
+        for (List<Integer> s : ref.order()) {
+            assertTrue(it.hasNext());
+            assertArrayEquals(toArray(s), it.next().getVertices());
+        }
+        assertFalse(it.hasNext());
+    }
+
+
+    static int lexCompare(int[] a, int[] b) {
+        for (int i=0; i<a.length; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] < b[i]) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+
+    /*
+     * ======================================
+     *        Actual Testing
+     * ======================================
+     */
+
+    @Test
+    public void testCompactSimplexStream_matchesReference() {
+        Random rand = new Random(3);
+        int[] small = new int[20];
+        for (int i=0; i<small.length; i++) {
+            small[i] = i;
+        }
+        for (int t=0; t<40; t++) {
+            int[] pool = (t % 2 == 0) ? small : WIDE_VERTICES;
+            ReferenceStream ref = new ReferenceStream();
+            CompactSimplexStream css = new CompactSimplexStream();
+            // few enough vertices that there are lots of duplicates
+            int n = 10 + rand.nextInt(200);
+            for (int i=0; i<n; i++) {
+                int[] v = randomSimplex(rand, pool);
+                int f = rand.nextInt(128);
+                ref.add(v, f);
+                css.addElement(v, f);
+            }
+            assertTrue(ref.closeFaces(true));
+            css.ensureAllFaces();
+            css.finalizeStream();
+            assertSameStream(ref, css);
+        }
+    }
+
+
+    @Test
+    public void testCompactSimplexStream_lowersFaces() {
+        // every face is added, but often later than its cofaces
+        Random rand = new Random(4);
+        ReferenceStream ref = new ReferenceStream();
+        CompactSimplexStream css = new CompactSimplexStream();
+        for (int i=0; i<100; i++) {
+            int[] v = randomSimplex(rand, WIDE_VERTICES);
+            for (int mask=1; mask<(1 << v.length); mask++) {
+                int[] face = new int[Integer.bitCount(mask)];
+                int m = 0;
+                for (int j=0; j<v.length; j++) {
+                    if ((mask & (1 << j)) != 0) {
+                        face[m++] = v[j];
+                    }
+                }
+                int f = rand.nextInt(128);
+                ref.add(face, f);
+                css.addElement(face, f);
+            }
+        }
+        assertTrue(ref.closeFaces(false));
+        css.finalizeStream();
+        assertSameStream(ref, css);
+    }
+
+
+    @Test
+    public void testCompactSimplexStream_radixSortSign() {
+        CompactSimplexStream css = new CompactSimplexStream();
+        for (int i=WIDE_VERTICES.length-1; i>=0; i--) {
+            css.addVertex(WIDE_VERTICES[i], 0);
+        }
+        css.finalizeStream();
+        for (int i=0; i<WIDE_VERTICES.length; i++) {
+            assertEquals(WIDE_VERTICES[i], css.getVertices(0, i, new int[1])[0]);
+        }
+    }
+
+
+    @Test
+    public void testCompactSimplexStream_duplicatesKeepLowest() {
+        CompactSimplexStream css = new CompactSimplexStream();
+        css.addElement(new int[]{ 2, 1 }, 5);
+        css.addElement(new int[]{ 1, 2 }, 2);
+        css.addElement(new int[]{ 2, 1 }, 7);
+        css.addVertex(1, 9);
+        css.addVertex(1, 4);
+        css.addVertex(2, 0);
+        css.finalizeStream();
+
+        assertEquals(3, css.getSize());
+        assertEquals(2, css.getFiltrationIndex(new Simplex(new int[]{ 1, 2 })));
+        // lowered to the edge
+        assertEquals(2, css.getFiltrationIndex(new Simplex(new int[]{ 1 })));
+        assertEquals(0, css.getFiltrationIndex(new Simplex(new int[]{ 2 })));
+        assertEquals(0, css.getMinimumFiltrationIndex());
+        assertEquals(2, css.getMaximumFiltrationIndex());
+    }
+
+
+    @Test
+    public void testCompactSimplexStream_missingFace() {
+        CompactSimplexStream css = new CompactSimplexStream();
+        css.addElement(new int[]{ 0, 1, 2 }, 1);
+        css.addElement(new int[]{ 0, 1 }, 0);
+        css.addElement(new int[]{ 1, 2 }, 0);
+        css.addVertex(0, 0);
+        css.addVertex(1, 0);
+        css.addVertex(2, 0);
+        try {
+            css.finalizeStream();
+            fail("the face [0, 2] is missing");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
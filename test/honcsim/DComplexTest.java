@@ -0,0 +1,268 @@
+package honcsim;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import m4rjni.Mzd;
+
+
+public class DComplexTest {
+
+    /*
+     * ======================================
+     *        Utility Functions
+     * ======================================
+     */
+
+    /**
+     * Rank of the rowspace of a matrix.  Doesn't modify the matrix.
+     *
+     * @param A
+     * @return
+     */
+    private final int rank(Mzd A) {
+        if (A.getNrows() == 0) {
+            return 0;
+        }
+        Mzd B = new Mzd(A);
+        int r = B.echelonize(false);
+        B.destroy();
+        return r;
+    }
+
+
+    /**
+     * Check if two matrices have the same rowspace.
+     *
+     * @param A
+     * @param B
+     * @return
+     */
+    private final boolean sameSpan(Mzd A, Mzd B) {
+        int ra = rank(A);
+        int rb = rank(B);
+        if (ra != rb) {
+            return false;
+        }
+        if (ra == 0) {
+            return true;
+        }
+        Mzd AB = Mzd.stack(A, B);
+        int rab = AB.echelonize(false);
+        AB.destroy();
+        return (rab == ra);
+    }
+
+
+    /**
+     * A random m x n matrix.
+     *
+     * @param m
+     * @param n
+     * @return
+     */
+    private final Mzd randomMatrix(int m, int n) {
+        Mzd A = new Mzd(m, n);
+        A.randomize();
+        return A;
+    }
+
+
+    /*
+     * ======================================
+     *        Actual Testing
+     * ======================================
+     */
+
+
+    @Test
+    public void testDComplex_vsIntersect() {
+
+        // two coordinate subspaces that overlap in one coordinate
+        {
+            int dim = 6;
+            Mzd U = new Mzd(3, dim);
+            U.writeBit(0, 0, 1);
+            U.writeBit(1, 1, 1);
+            U.writeBit(2, 2, 1);
+            Mzd W = new Mzd(3, dim);
+            W.writeBit(0, 2, 1);
+            W.writeBit(1, 3, 1);
+            W.writeBit(2, 4, 1);
+
+            Mzd I = DComplex.vsIntersect(U, W);
+            assertEquals(1, I.getNrows());
+            assertEquals(dim, I.getNcols());
+            assertEquals(1, I.readBit(0, 2));
+            assertEquals(1, rank(I));
+
+            U.destroy();
+            W.destroy();
+            I.destroy();
+        }
+
+        // disjoint subspaces
+        {
+            int dim = 4;
+            Mzd U = new Mzd(2, dim);
+            U.writeBit(0, 0, 1);
+            U.writeBit(1, 1, 1);
+            Mzd W = new Mzd(2, dim);
+            W.writeBit(0, 2, 1);
+            W.writeBit(1, 3, 1);
+
+            Mzd I = DComplex.vsIntersect(U, W);
+            assertEquals(0, I.getNrows());
+
+            U.destroy();
+            W.destroy();
+            I.destroy();
+        }
+
+        // compare against Mzd.vsIntersect() on random subspaces,
+        // including ones with dependent rows and dimensions that aren't a multiple of 64
+        {
+            Mzd.srandom(1);
+            int[] dims = { 3, 10, 64, 70, 150 };
+            for (int dim : dims) {
+                for (int t=0; t<20; t++) {
+                    int u = 1 + (t*7) % dim;
+                    int w = 1 + (t*13) % dim;
+                    Mzd U = randomMatrix(u, dim);
+                    Mzd W = randomMatrix(w, dim);
+
+                    Mzd I1 = DComplex.vsIntersect(U, W);
+                    Mzd I2 = Mzd.vsIntersect(U, W);
+                    assertTrue(sameSpan(I1, I2));
+
+                    // the result should be a basis, not just a spanning set
+                    assertEquals(I1.getNrows(), rank(I1));
+
+                    // BitBasis should agree too
+                    BitBasis B = BitBasis.fromMzd(U).intersect(BitBasis.fromMzd(W));
+                    Mzd I3 = B.toMzd();
+                    assertTrue(sameSpan(I1, I3));
+
+                    U.destroy();
+                    W.destroy();
+                    I1.destroy();
+                    I2.destroy();
+                    I3.destroy();
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testDComplex_incrementalCover() {
+        Mzd.srandom(2);
+        int dim = 12;
+        DrainageExperiment.vsDimension = dim;
+
+        // a strip of points where each one sees the next two.
+        // they all share a few standard basis vectors with their neighbors
+        Mzd[] basis = Mzd.standardBasis(dim);
+        ArrayList<DPoint> pts = new ArrayList<DPoint>();
+        for (int i=0; i<12; i++) {
+            DPoint p = new DPoint(0.4*i, 0.0, dim);
+            for (int j=0; j<3; j++) {
+                p.addInventoryVector(basis[(i+j) % dim]);
+            }
+            for (int j=0; j<dim/4; j++) {
+                p.addRandomInventoryVector();
+            }
+            for (DPoint q : pts) {
+                if (p.x - q.x < 0.9) {
+                    p.addNeighbor(q);
+                }
+            }
+            pts.add(p);
+        }
+
+        DComplex plain = new DComplex(dim);
+        DComplex tracked = new DComplex(dim);
+        tracked.setIncrementalCover(true);
+        for (int i=0; i+2<pts.size(); i++) {
+            DSimplex ds = new DSimplex(Arrays.asList(pts.get(i), pts.get(i+1), pts.get(i+2)));
+            plain.addSimplex(ds);
+            tracked.addSimplex(ds);
+        }
+
+        for (int t=0; t<30; t++) {
+            Mzd U1 = plain.vsCover();
+            Mzd U2 = tracked.vsCover();
+            assertTrue(sameSpan(U1, U2));
+            assertEquals(U1.getNrows(), tracked.vsCoverRank());
+            U1.destroy();
+            U2.destroy();
+
+            // shrink or grow the inventory of one point
+            DPoint p = pts.get((t*5) % pts.size());
+            if (t % 2 == 1 || p.M.size() < 2) {
+                p.addRandomInventoryVector();
+            } else {
+                // drop the last vector
+                Mzd BB = new Mzd(p.M.size()-1, dim);
+                for (int i=0; i<BB.getNrows(); i++) {
+                    Mzd.copyRow(BB, i, p.M.get(i), 0);
+                }
+                p.setInventory(BB);
+                BB.destroy();
+            }
+            tracked.inventoryChanged(p);
+        }
+    }
+
+
+    @Test
+    public void testDComplex_coverAfterInventoryChange() {
+        int dim = 8;
+        DrainageExperiment.vsDimension = dim;
+
+        // a strip of points that all start out empty
+        ArrayList<DPoint> pts = new ArrayList<DPoint>();
+        for (int i=0; i<6; i++) {
+            DPoint p = new DPoint(0.4*i, 0.0, dim);
+            for (DPoint q : pts) {
+                if (p.x - q.x < 0.9) {
+                    p.addNeighbor(q);
+                }
+            }
+            pts.add(p);
+        }
+
+        DComplex plain = new DComplex(dim);
+        DComplex tracked = new DComplex(dim);
+        tracked.setIncrementalCover(true);
+        for (int i=0; i+2<pts.size(); i++) {
+            DSimplex ds = new DSimplex(Arrays.asList(pts.get(i), pts.get(i+1), pts.get(i+2)));
+            plain.addSimplex(ds);
+            tracked.addSimplex(ds);
+        }
+        assertEquals(0, plain.vsCoverRank());
+        assertEquals(0, tracked.vsCoverRank());
+
+        // fill everything after the simplices were built
+        Mzd I = Mzd.identityMatrix(dim);
+        for (DPoint p : pts) {
+            p.setInventory(I);
+            tracked.inventoryChanged(p);
+        }
+        assertEquals(dim, plain.vsCoverRank());
+        assertEquals(dim, tracked.vsCoverRank());
+
+        // and empty out the first simplex again
+        for (int i=0; i<3; i++) {
+            pts.get(i).clearInventory();
+            tracked.inventoryChanged(pts.get(i));
+        }
+        assertEquals(0, plain.vsCoverRank());
+        assertEquals(0, tracked.vsCoverRank());
+        I.destroy();
+    }
+
+}
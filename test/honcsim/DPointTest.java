@@ -215,6 +215,7 @@ public class DPointTest {
             // remove one neighbor and make sure it's gone
             p.removeNeighbor(neighbors[0]);
             assertFalse(p.nbrs.contains(neighbors[0]));
+            assertFalse(neighbors[0].nbrs.contains(p));
             assertFalse(p.nbrsUp.contains(neighbors[0]) || neighbors[0].nbrsUp.contains(p));
             
             // make sure no other neighbors were messed with
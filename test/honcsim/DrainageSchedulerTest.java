@@ -0,0 +1,108 @@
+package honcsim;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import m4rjni.Mzd;
+
+
+public class DrainageSchedulerTest {
+
+    /*
+     * ======================================
+     *        Utility Functions
+     * ======================================
+     */
+
+    /**
+     * A random layout with random inventories, with its neighbor sets and Rips
+     * complex built.  The same seed always gives the same layout.
+     *
+     * @param seed
+     * @param dim
+     * @param n
+     * @return
+     */
+    static DrainageExperiment randomLayout(long seed, int dim, int n) {
+        SplittableRandom rng = new SplittableRandom(seed);
+        DrainageExperiment de = new DrainageExperiment(dim, 1.0);
+        de.points = new PointStore(n);
+        for (int i=0; i<n; i++) {
+            DPoint p = new DPoint(4*rng.nextDouble(), 4*rng.nextDouble(), dim);
+            int k = 1 + rng.nextInt(dim);
+            for (int j=0; j<k; j++) {
+                p.addRandomInventoryVector(rng);
+            }
+            de.points.add(p);
+        }
+        de.computeNeighborSet();
+        de.buildRipsComplex();
+        return de;
+    }
+
+
+    /**
+     * The inventories of all the points, packed, in point order.
+     *
+     * @param de
+     * @return
+     */
+    static ArrayList<long[][]> inventories(DrainageExperiment de) {
+        ArrayList<long[][]> inv = new ArrayList<long[][]>();
+        for (DPoint p : de.points) {
+            long[][] rows = new long[p.M.size()][];
+            for (int i=0; i<rows.length; i++) {
+                rows[i] = BitBasis.pack(p.M.get(i), 1)[0];
+            }
+            inv.add(rows);
+        }
+        return inv;
+    }
+
+
+    static void assertSameInventories(ArrayList<long[][]> expected, ArrayList<long[][]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i=0; i<expected.size(); i++) {
+            assertEquals("point "+i, expected.get(i).length, actual.get(i).length);
+            for (int k=0; k<expected.get(i).length; k++) {
+                assertArrayEquals("point "+i+" row "+k, expected.get(i)[k], actual.get(i)[k]);
+            }
+        }
+    }
+
+
+    /*
+     * ======================================
+     *        Tests
+     * ======================================
+     */
+
+    @Test
+    public void testDrainageScheduler_threadsMatchSequential() {
+        for (long seed=0; seed<4; seed++) {
+            int dim = 8 + 8*(int)seed;
+            boolean fill = (seed % 2 == 0);
+            int nVectors = Math.max(2, dim/10);
+
+            DrainageExperiment de1 = randomLayout(seed, dim, 60);
+            DrainageScheduler s1 = new DrainageScheduler(de1, 1);
+            DrainageRun r1 = s1.runDrainage(nVectors, fill, false);
+            s1.shutdown();
+
+            DrainageExperiment de4 = randomLayout(seed, dim, 60);
+            DrainageScheduler s4 = new DrainageScheduler(de4, 4);
+            DrainageRun r4 = s4.runDrainage(nVectors, fill, false);
+            s4.shutdown();
+
+            assertEquals(s1.numColors(), s4.numColors());
+            assertEquals(r1.drained, r4.drained);
+            assertEquals(r1.totalSizes, r4.totalSizes);
+            assertTrue(r1.totalDrained() > 0);
+            assertSameInventories(inventories(de1), inventories(de4));
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package honcsim;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+
+public class PriorityDrainageSchedulerTest {
+
+    /*
+     * ======================================
+     *        Utility Functions
+     * ======================================
+     */
+
+    /**
+     * A FivePointRingDrainage with its inventories replaced by a seeded random
+     * set of (possibly empty) inventories, so some points need filling.
+     *
+     * @param dim
+     * @param seed
+     * @return
+     */
+    static DrainageExperiment seededRing(int dim, long seed) {
+        DrainageExperiment de = new FivePointRingDrainage(dim);
+        SplittableRandom rng = new SplittableRandom(seed);
+        for (DPoint p : de.points) {
+            p.clearInventory();
+            int k = rng.nextInt(dim+1);
+            for (int j=0; j<k; j++) {
+                p.addRandomInventoryVector(rng);
+            }
+        }
+        de.buildRipsComplex();
+        return de;
+    }
+
+
+    static DrainageExperiment layout(int kind, int dim, long seed) {
+        if (kind == 0) {
+            DrainageExperiment de = new BubbleBoxDrainage(dim);
+            de.buildRipsComplex();
+            return de;
+        }
+        return seededRing(dim, seed);
+    }
+
+
+    static int lastCoverRank(DrainageRun run) {
+        return run.coverRanks.get(run.coverRanks.size()-1);
+    }
+
+
+    /*
+     * ======================================
+     *        Tests
+     * ======================================
+     */
+
+    /*
+     * The two schedulers visit the points in different orders, so they may
+     * legitimately settle on different (equally minimal) inventories.  What
+     * must agree is the coverage they end with, and each result must be a
+     * fixed point of the other scheduler: nothing left to drain or fill.
+     */
+    @Test
+    public void testPriorityDrainageScheduler_matchesRoundRobin() {
+        for (int kind=0; kind<2; kind++) {
+            for (int dim : new int[] {2, 4, 10}) {
+                for (long seed=0; seed<(kind == 0 ? 1 : 3); seed++) {
+                    String tag = "kind="+kind+" dim="+dim+" seed="+seed;
+                    int nVectors = Math.max(1, dim/10);
+
+                    DrainageExperiment rr = layout(kind, dim, seed);
+                    DrainageRun r1 = rr.runDrainage(nVectors, true, true);
+
+                    DrainageExperiment pr = layout(kind, dim, seed);
+                    PriorityDrainageScheduler ps = new PriorityDrainageScheduler(pr, false);
+                    DrainageRun r2 = ps.runDrainage(nVectors, true, true);
+
+                    assertEquals(tag, lastCoverRank(r1), lastCoverRank(r2));
+                    assertEquals(tag, lastCoverRank(r1), rr.maximalSimplices.vsCoverRank());
+                    assertEquals(tag, lastCoverRank(r2), pr.maximalSimplices.vsCoverRank());
+
+                    for (DPoint p : pr.points) {
+                        assertFalse(tag, ps.hasUnsupportedCoface(p));
+                        assertEquals(tag, 0, pr.drainVertex(p, nVectors, true));
+                    }
+                    PriorityDrainageScheduler check = new PriorityDrainageScheduler(rr, false);
+                    for (DPoint p : rr.points) {
+                        assertFalse(tag, check.hasUnsupportedCoface(p));
+                    }
+                    assertEquals(tag, 0, check.drainAll(nVectors, true));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testPriorityDrainageScheduler_fillsEmptyPoints() {
+        // without the fill entries an empty point is never queued, since it
+        // has no surplus, and its cofaces stay uncovered
+        DrainageExperiment de = new BubbleBoxDrainage(4);
+        de.buildRipsComplex();
+        PriorityDrainageScheduler ps = new PriorityDrainageScheduler(de, false);
+        ps.runDrainage(1, true, false);
+        for (DPoint p : de.points) {
+            assertFalse(ps.hasUnsupportedCoface(p));
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package honcsim;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class SimplexSetTest {
+
+    @Test
+    public void testSimplexKey_roundTrip() {
+        Random rand = new Random(1);
+        HashMap<Long,int[]> seen = new HashMap<Long,int[]>();
+        for (int t=0; t<20000; t++) {
+            int k = 1 + rand.nextInt(3);
+            int bound = (t % 2 == 0) ? 50 : 1000000;
+            int[] v = new int[k];
+            for (int i=0; i<k; i++) {
+                v[i] = rand.nextInt(bound);
+            }
+            v = Arrays.stream(v).distinct().sorted().toArray();
+            long key = SimplexKey.of(v);
+            assertTrue(SimplexKey.isExact(key));
+            assertEquals(v.length, SimplexKey.size(key));
+            assertArrayEquals(v, SimplexKey.vertices(key));
+            int[] old = seen.put(key, v);
+            if (old != null) {
+                assertArrayEquals(old, v);
+            }
+        }
+
+        // too big for an exact key
+        long key = SimplexKey.of(new int[]{ 5, 70000000, 80000000 });
+        assertFalse(SimplexKey.isExact(key));
+        assertEquals(SimplexKey.EMPTY, SimplexKey.of(new int[0]));
+    }
+
+
+    @Test
+    public void testSimplexSet_matchesHashSet() {
+        int n = 40;
+        ArrayList<DPoint> points = new ArrayList<DPoint>();
+        for (int i=0; i<n; i++) {
+            points.add(new DPoint(i, i, 3));
+        }
+
+        Random rand = new Random(2);
+        SimplexSet set = new SimplexSet();
+        HashMap<Long,DSimplex> reference = new HashMap<Long,DSimplex>();
+        for (int t=0; t<5000; t++) {
+            ArrayList<DPoint> verts = new ArrayList<DPoint>();
+            int k = 1 + rand.nextInt(3);
+            for (int i=0; i<k; i++) {
+                DPoint p = points.get(rand.nextInt(n));
+                if (! verts.contains(p)) {
+                    verts.add(p);
+                }
+            }
+            DSimplex ds = new DSimplex();
+            ds.addVertices(verts);
+            long key = SimplexKey.of(verts);
+            assertEquals(key, ds.key());
+
+            if (rand.nextBoolean()) {
+                assertEquals(! reference.containsKey(key), set.add(ds));
+                if (! reference.containsKey(key)) {
+                    reference.put(key, ds);
+                }
+            } else {
+                assertEquals(reference.remove(key) != null, set.remove(ds));
+            }
+            assertEquals(reference.size(), set.size());
+            ds.destroy();
+        }
+
+        for (Long key : reference.keySet()) {
+            assertSame(reference.get(key), set.get(key));
+            assertTrue(set.contains(reference.get(key)));
+            int[] v = SimplexKey.vertices(key);
+            assertSame(reference.get(key), set.getSimplex(v));
+        }
+        int count = 0;
+        for (DSimplex ds : set) {
+            assertSame(reference.get(ds.key()), ds);
+            count++;
+        }
+        assertEquals(reference.size(), count);
+
+        for (DPoint p : points) {
+            p.destroy();
+        }
+    }
+
+
+    @Test
+    public void testDSimplex_equals() {
+        DPoint a = new DPoint(0, 0, 3);
+        DPoint b = new DPoint(1, 1, 3);
+        DSimplex s1 = new DSimplex(Arrays.asList(a, b));
+        DSimplex s2 = new DSimplex(Arrays.asList(b, a));
+        DSimplex s3 = new DSimplex(Arrays.asList(a));
+        assertEquals(s1, s2);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertNotEquals(s1, s3);
+
+        SimplexSet set = new SimplexSet();
+        assertTrue(set.add(s1));
+        assertFalse(set.add(s2));
+        assertTrue(set.contains(s2));
+        assertTrue(set.remove(s2));
+        assertTrue(set.isEmpty());
+
+        s1.destroy();
+        s2.destroy();
+        s3.destroy();
+        a.destroy();
+        b.destroy();
+    }
+
+}